@@ -0,0 +1,199 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate;
+
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static java.util.stream.Collectors.toList;
+import static org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.NodeStateBackedSegmentStore.newSegmentStore;
+import static org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.Streams.asStream;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.security.InvalidKeyException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import com.microsoft.azure.storage.StorageException;
+import org.apache.jackrabbit.oak.segment.file.FileStoreBuilder;
+import org.apache.jackrabbit.oak.segment.file.InvalidFileStoreVersionException;
+import org.apache.jackrabbit.oak.segment.file.ReadOnlyFileStore;
+import org.apache.jackrabbit.oak.segment.file.proc.Proc;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Record;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Segment;
+import org.apache.jackrabbit.oak.tooling.filestore.api.SegmentStore;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Tar;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Stress test sharing a single segment store between many threads. Each
+ * thread looks up segments by id and decodes their records and nodes. The
+ * results must match those of a single thread. The throughput relative to a
+ * single thread is only reported, as it depends on the machine running the
+ * test.
+ */
+public class ConcurrentAccessIT {
+
+    private static final int OPERATIONS = 2000;
+
+    /** Processors required for asserting on the speedup */
+    private static final int MIN_PROCESSORS = 4;
+
+    /** Loose lower bound on the speedup of concurrent over single threaded access */
+    private static final double MIN_SPEEDUP = 1.5;
+
+    private static ReadOnlyFileStore fileStore;
+
+    private static FileStoreBuilder builder;
+
+    private static List<UUID> segmentIds;
+
+    @BeforeClass
+    public static void setup() throws IOException, InvalidFileStoreVersionException, URISyntaxException, InvalidKeyException, StorageException {
+        builder = FileStoreUtil.getFileStoreBuilder();
+        fileStore = builder.buildReadOnly();
+        segmentIds = asStream(newStore().tars())
+                .flatMap(asStream(Tar::segments))
+                .map(Segment::id)
+                .collect(toList());
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        if (fileStore != null) {
+            fileStore.close();
+        }
+    }
+
+    private static SegmentStore newStore() {
+        return newSegmentStore(Proc.of(builder.buildProcBackend(fileStore)));
+    }
+
+    /**
+     * Look up a segment by id, decode its records and the nodes of its node
+     * records and return a checksum of the results.
+     */
+    private static long access(SegmentStore store, UUID id) {
+        Segment segment = store.segment(id).orElseThrow(AssertionError::new);
+        long checksum = segment.length();
+        for (Record record : segment.records()) {
+            checksum = 31 * checksum + record.number();
+            if (record.type() == Record.Type.NODE) {
+                NodeState node = store.node(id, record.number()).orElseThrow(AssertionError::new);
+                checksum = 31 * checksum + node.getPropertyCount();
+                checksum = 31 * checksum + node.getChildNodeCount(Long.MAX_VALUE);
+            }
+        }
+        return checksum;
+    }
+
+    private static List<UUID> workload(long seed) {
+        Random random = new Random(seed);
+        List<UUID> ids = new ArrayList<>(OPERATIONS);
+        for (int k = 0; k < OPERATIONS; k++) {
+            ids.add(segmentIds.get(random.nextInt(segmentIds.size())));
+        }
+        return ids;
+    }
+
+    private static long run(SegmentStore store, List<UUID> ids) {
+        long checksum = 0;
+        for (UUID id : ids) {
+            checksum += access(store, id);
+        }
+        return checksum;
+    }
+
+    /**
+     * Run the workloads on a single store shared between {@code threads} threads.
+     * @return  the elapsed time in nanoseconds
+     */
+    private static long runConcurrently(int threads, List<List<UUID>> workloads, List<Long> checksums)
+    throws InterruptedException, ExecutionException {
+        SegmentStore store = newStore();
+        ExecutorService executor = newFixedThreadPool(threads);
+        try {
+            long start = System.nanoTime();
+            List<Future<Long>> futures = new ArrayList<>();
+            for (List<UUID> workload : workloads) {
+                futures.add(executor.submit(() -> run(store, workload)));
+            }
+            for (Future<Long> future : futures) {
+                checksums.add(future.get());
+            }
+            return System.nanoTime() - start;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void sharedStoreTest() throws InterruptedException, ExecutionException {
+        assumeTrue(!segmentIds.isEmpty());
+        int threads = Runtime.getRuntime().availableProcessors();
+        List<List<UUID>> workloads = new ArrayList<>();
+        List<Long> expected = new ArrayList<>();
+        SegmentStore store = newStore();
+        for (int k = 0; k < 2 * threads; k++) {
+            List<UUID> workload = workload(k);
+            workloads.add(workload);
+            expected.add(run(store, workload));
+        }
+
+        List<Long> checksums = new ArrayList<>();
+        runConcurrently(threads, workloads, checksums);
+        assertEquals(expected, checksums);
+    }
+
+    /**
+     * Sharing a store between one thread per processor must at least improve
+     * throughput by a loose {@link #MIN_SPEEDUP} over a single thread on
+     * machines with {@link #MIN_PROCESSORS} or more processors. Correctness
+     * under concurrent access is verified by {@link #sharedStoreTest()}.
+     */
+    @Test
+    public void scalabilityTest() throws InterruptedException, ExecutionException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        assumeTrue(threads >= MIN_PROCESSORS && !segmentIds.isEmpty());
+        List<List<UUID>> workloads = new ArrayList<>();
+        for (int k = 0; k < 2 * threads; k++) {
+            workloads.add(workload(k));
+        }
+
+        // Warm up the file store's caches before measuring
+        runConcurrently(threads, workloads, new ArrayList<>());
+
+        long single = runConcurrently(1, workloads, new ArrayList<>());
+        long concurrent = runConcurrently(threads, workloads, new ArrayList<>());
+        double speedup = (double) single / concurrent;
+        assertTrue("Throughput speedup with " + threads + " threads is only " + speedup,
+                speedup >= MIN_SPEEDUP);
+    }
+
+}
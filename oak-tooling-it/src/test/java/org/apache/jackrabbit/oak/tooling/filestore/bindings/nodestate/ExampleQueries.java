@@ -37,11 +37,11 @@ import org.apache.jackrabbit.oak.segment.file.InvalidFileStoreVersionException;
 import org.apache.jackrabbit.oak.segment.file.ReadOnlyFileStore;
 import org.apache.jackrabbit.oak.segment.file.proc.Proc;
 import org.apache.jackrabbit.oak.spi.state.NodeState;
-import org.apache.jackrabbit.oak.tooling.filestore.api.JournalEntry;
 import org.apache.jackrabbit.oak.tooling.filestore.api.Record;
 import org.apache.jackrabbit.oak.tooling.filestore.api.Segment;
 import org.apache.jackrabbit.oak.tooling.filestore.api.SegmentStore;
 import org.apache.jackrabbit.oak.tooling.filestore.api.Tar;
+import org.apache.jackrabbit.oak.tooling.filestore.tools.SegmentQuery;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -109,8 +109,8 @@ public class ExampleQueries {
     @Test
     public void checkpointCountPerRevision() {
         Stream<Long> checkpointCountPerRevision = asStream(segmentStore.journalEntries())
-                .map(JournalEntry::getRoot)
-                .map(n -> n.getChildNode("checkpoints").getChildNodeCount(Integer.MAX_VALUE));
+                .map(segmentStore::checkpoints)
+                .map(checkpoints -> asStream(checkpoints).count());
 
         List<Long> latest100Checkpoints = checkpointCountPerRevision
                 .limit(100)
@@ -131,4 +131,15 @@ public class ExampleQueries {
         nodes.forEach(System.out::println);
     }
 
+    @Test
+    public void nodeRecordsPerGeneration() {
+        SegmentQuery query = SegmentQuery.query(segmentStore)
+                .withTarName(name -> name.endsWith("tar"))
+                .withGeneration(generation -> generation > 0)
+                .withRecordType(NODE);
+
+        System.out.println(query.explain());
+        System.out.println(query.records().count());
+    }
+
 }
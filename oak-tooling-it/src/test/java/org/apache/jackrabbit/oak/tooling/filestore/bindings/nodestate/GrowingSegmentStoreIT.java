@@ -0,0 +1,149 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate;
+
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toSet;
+import static org.apache.jackrabbit.oak.segment.file.FileStoreBuilder.fileStoreBuilder;
+import static org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.NodeStateBackedSegmentStore.DEFAULT_RECORD_CACHE_SIZE;
+import static org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.NodeStateBackedSegmentStore.MIN_REFRESH_INTERVAL_MILLIS;
+import static org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.NodeStateBackedSegmentStore.newSegmentStore;
+import static org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.Streams.asStream;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+
+import org.apache.jackrabbit.oak.api.CommitFailedException;
+import org.apache.jackrabbit.oak.segment.SegmentNodeStore;
+import org.apache.jackrabbit.oak.segment.SegmentNodeStoreBuilders;
+import org.apache.jackrabbit.oak.segment.file.FileStore;
+import org.apache.jackrabbit.oak.segment.file.FileStoreBuilder;
+import org.apache.jackrabbit.oak.segment.file.InvalidFileStoreVersionException;
+import org.apache.jackrabbit.oak.segment.file.proc.Proc;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.EmptyHook;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Segment;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Tar;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests following a segment store that is written to while being inspected.
+ * Unlike the other integration tests this test does not need an existing
+ * segment store but writes its own to a temporary directory. The maximal
+ * tar size is set to 1 MB such that writing a few MB of binaries adds tars.
+ */
+public class GrowingSegmentStoreIT {
+
+    private static final int BLOB_SIZE = 256 * 1024;
+
+    private static final int BLOB_COUNT = 16;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private FileStore fileStore;
+
+    private SegmentNodeStore nodeStore;
+
+    private NodeStateBackedSegmentStore segmentStore;
+
+    @Before
+    public void setup() throws IOException, InvalidFileStoreVersionException {
+        FileStoreBuilder builder = fileStoreBuilder(folder.getRoot()).withMaxFileSize(1);
+        fileStore = builder.build();
+        nodeStore = SegmentNodeStoreBuilders.builder(fileStore).build();
+        segmentStore = newSegmentStore(Proc.of(builder.buildProcBackend(fileStore)), DEFAULT_RECORD_CACHE_SIZE);
+    }
+
+    @After
+    public void tearDown() {
+        segmentStore = null;
+        nodeStore = null;
+        if (fileStore != null) {
+            fileStore.close();
+        }
+    }
+
+    private void writeBlobs() throws IOException, CommitFailedException {
+        Random random = new Random(42);
+        for (int k = 0; k < BLOB_COUNT; k++) {
+            byte[] data = new byte[BLOB_SIZE];
+            random.nextBytes(data);
+            NodeBuilder builder = nodeStore.getRoot().builder();
+            builder.child("blobs").setProperty("blob-" + k, nodeStore.createBlob(new ByteArrayInputStream(data)));
+            nodeStore.merge(builder, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+        }
+        fileStore.flush();
+    }
+
+    private Set<String> tarNames() {
+        return asStream(segmentStore.tars())
+                .map(Tar::name)
+                .collect(toSet());
+    }
+
+    private List<UUID> segmentsNotIn(Set<String> tarNames) {
+        return asStream(segmentStore.tars())
+                .filter(tar -> !tarNames.contains(tar.name()))
+                .flatMap(asStream(Tar::segments))
+                .map(Segment::id)
+                .collect(toList());
+    }
+
+    @Test
+    public void refreshTest() throws IOException, CommitFailedException {
+        segmentStore.refresh();
+        Set<String> tars = tarNames();
+
+        writeBlobs();
+        List<UUID> added = segmentsNotIn(tars);
+        assertFalse("Writing blobs should add tars", added.isEmpty());
+
+        assertTrue(segmentStore.refresh() > 0);
+        added.forEach(id ->
+            assertTrue(segmentStore.segment(id).isPresent()));
+    }
+
+    @Test
+    public void lookupRefreshTest() throws IOException, CommitFailedException, InterruptedException {
+        segmentStore.refresh();
+        Set<String> tars = tarNames();
+
+        writeBlobs();
+        List<UUID> added = segmentsNotIn(tars);
+        assertFalse("Writing blobs should add tars", added.isEmpty());
+
+        // Lookup misses refresh the index at most once per interval
+        Thread.sleep(MIN_REFRESH_INTERVAL_MILLIS);
+        added.forEach(id ->
+            assertTrue(segmentStore.segment(id).isPresent()));
+        assertEquals(0, segmentStore.refresh());
+    }
+}
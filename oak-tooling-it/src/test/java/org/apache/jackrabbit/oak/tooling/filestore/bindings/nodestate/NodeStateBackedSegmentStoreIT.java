@@ -39,12 +39,14 @@ import java.security.InvalidKeyException;
 import java.util.Map;
 import java.util.Optional;
 
+import com.google.common.cache.CacheStats;
 import com.microsoft.azure.storage.StorageException;
 import org.apache.jackrabbit.oak.segment.file.FileStoreBuilder;
 import org.apache.jackrabbit.oak.segment.file.InvalidFileStoreVersionException;
 import org.apache.jackrabbit.oak.segment.file.ReadOnlyFileStore;
 import org.apache.jackrabbit.oak.segment.file.proc.Proc;
 import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Checkpoint;
 import org.apache.jackrabbit.oak.tooling.filestore.api.JournalEntry;
 import org.apache.jackrabbit.oak.tooling.filestore.api.Record;
 import org.apache.jackrabbit.oak.tooling.filestore.api.Record.Type;
@@ -61,18 +63,22 @@ public class NodeStateBackedSegmentStoreIT {
 
     private static ReadOnlyFileStore fileStore;
 
+    private static NodeState proc;
+
     private static SegmentStore segmentStore;
 
     @BeforeClass
     public static void setup() throws IOException, InvalidFileStoreVersionException, URISyntaxException, InvalidKeyException, StorageException {
         FileStoreBuilder builder = FileStoreUtil.getFileStoreBuilder();
         fileStore = builder.buildReadOnly();
-        segmentStore = newSegmentStore(Proc.of(builder.buildProcBackend(fileStore)));
+        proc = Proc.of(builder.buildProcBackend(fileStore));
+        segmentStore = newSegmentStore(proc);
     }
 
     @AfterClass
     public static void tearDown() {
         segmentStore = null;
+        proc = null;
         if (fileStore != null) {
             fileStore.close();
         }
@@ -206,4 +212,91 @@ public class NodeStateBackedSegmentStoreIT {
                      segmentStore.node(entry.segmentId(), entry.recordNumber())));
     }
 
+    @Test
+    public void recordRootTest() {
+        Record record = asStream(segmentStore.tars())
+                .flatMap(asStream(Tar::segments))
+                .filter(Segment.isOfType(DATA))
+                .flatMap(asStream(Segment::records))
+                .filter(Record.isOfType(NODE))
+                .findFirst()
+                .orElseThrow(() ->
+                    new AssumptionViolatedException("No node record found"));
+
+        NodeState root = record.root().orElseThrow(AssertionError::new);
+        assertSame(root, record.root().orElseThrow(AssertionError::new));
+        assertEquals(
+                segmentStore.node(record.segmentId(), record.number()).orElseThrow(AssertionError::new),
+                root);
+    }
+
+    @Test
+    public void checkpointsTest() {
+        Iterable<Checkpoint> checkpoints = segmentStore.checkpoints();
+        assumeFalse("Cannot run without checkpoints", isEmpty(checkpoints));
+
+        checkpoints.forEach(checkpoint -> {
+            assertNotNull(checkpoint.name());
+            assertTrue(checkpoint.created() > 0);
+            assertNotNull(checkpoint.properties());
+            assertTrue(checkpoint.root().exists());
+            assertEquals(
+                    segmentStore.node(checkpoint.segmentId(), checkpoint.recordNumber())
+                            .orElseThrow(AssertionError::new),
+                    checkpoint.root());
+        });
+
+        JournalEntry head = segmentStore.journalEntries().iterator().next();
+        asStream(segmentStore.checkpoints(head)).forEach(checkpoint ->
+            assertSame(checkpoint, asStream(segmentStore.checkpoints())
+                .filter(cp -> cp.name().equals(checkpoint.name()))
+                .findFirst()
+                .orElseThrow(AssertionError::new)));
+    }
+
+    @Test
+    public void recordCacheTest() {
+        NodeStateBackedSegmentStore store = newSegmentStore(proc, 1024);
+        JournalEntry head = store.journalEntries().iterator().next();
+
+        NodeState root = store.node(head.segmentId(), head.recordNumber()).orElseThrow(AssertionError::new);
+        CacheStats stats = store.recordCacheStats();
+        assertSame(root, store.node(head.segmentId(), head.recordNumber()).orElseThrow(AssertionError::new));
+        assertEquals(stats.hitCount() + 1, store.recordCacheStats().hitCount());
+        assertEquals(stats.missCount(), store.recordCacheStats().missCount());
+
+        Segment segment = store.segment(head.segmentId()).orElseThrow(AssertionError::new);
+        assertSame(
+                segment.record(head.recordNumber()).orElseThrow(AssertionError::new),
+                segment.record(head.recordNumber()).orElseThrow(AssertionError::new));
+        assertEquals(stats.hitCount() + 3, store.recordCacheStats().hitCount());
+    }
+
+    @Test
+    public void disabledRecordCacheTest() {
+        NodeStateBackedSegmentStore store = newSegmentStore(proc, 0);
+        JournalEntry head = store.journalEntries().iterator().next();
+        for (int k = 0; k < 3; k++) {
+            assertTrue(store.node(head.segmentId(), head.recordNumber()).isPresent());
+        }
+        assertEquals(0, store.recordCacheStats().requestCount());
+    }
+
+    @Test
+    public void refreshTest() {
+        NodeStateBackedSegmentStore store = newSegmentStore(proc, 0);
+        long tarCount = asStream(store.tars()).count();
+
+        // The first refresh builds the index, later ones only pick up changed tars
+        assertEquals(tarCount, store.refresh());
+        assertEquals(0, store.refresh());
+
+        Segment segment = asStream(store.tars())
+                .flatMap(asStream(Tar::segments))
+                .findFirst()
+                .orElseThrow(() -> new AssumptionViolatedException("No segment found"));
+        assertTrue(store.segment(segment.id()).isPresent());
+        assertEquals(0, store.refresh());
+    }
+
 }
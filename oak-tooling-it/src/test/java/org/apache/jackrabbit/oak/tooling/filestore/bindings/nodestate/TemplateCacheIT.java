@@ -0,0 +1,117 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate;
+
+import static java.util.stream.Collectors.toList;
+import static org.apache.jackrabbit.JcrConstants.JCR_MIXINTYPES;
+import static org.apache.jackrabbit.JcrConstants.JCR_PRIMARYTYPE;
+import static org.apache.jackrabbit.oak.api.Type.NAME;
+import static org.apache.jackrabbit.oak.api.Type.NAMES;
+import static org.apache.jackrabbit.oak.tooling.filestore.api.Record.Type.NODE;
+import static org.apache.jackrabbit.oak.tooling.filestore.api.Segment.Type.DATA;
+import static org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.NodeStateBackedSegmentStore.newSegmentStore;
+import static org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.RecordReader.newRecordReader;
+import static org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.Streams.asStream;
+import static org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.TemplateCache.newTemplateCache;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assume.assumeFalse;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.security.InvalidKeyException;
+import java.util.List;
+
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableList;
+import com.microsoft.azure.storage.StorageException;
+import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.segment.file.FileStoreBuilder;
+import org.apache.jackrabbit.oak.segment.file.InvalidFileStoreVersionException;
+import org.apache.jackrabbit.oak.segment.file.ReadOnlyFileStore;
+import org.apache.jackrabbit.oak.segment.file.proc.Proc;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Record;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Segment;
+import org.apache.jackrabbit.oak.tooling.filestore.api.SegmentStore;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Tar;
+import org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.FileStoreUtil;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class TemplateCacheIT {
+
+    private static ReadOnlyFileStore fileStore;
+
+    private static SegmentStore segmentStore;
+
+    @BeforeClass
+    public static void setup() throws IOException, InvalidFileStoreVersionException, URISyntaxException, InvalidKeyException, StorageException {
+        FileStoreBuilder builder = FileStoreUtil.getFileStoreBuilder();
+        fileStore = builder.buildReadOnly();
+        segmentStore = newSegmentStore(Proc.of(builder.buildProcBackend(fileStore)));
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        segmentStore = null;
+        if (fileStore != null) {
+            fileStore.close();
+        }
+    }
+
+    @Test
+    public void nodeTemplateTest() {
+        List<Record> nodes = asStream(segmentStore.tars())
+                .flatMap(asStream(Tar::segments))
+                .filter(Segment.isOfType(DATA))
+                .flatMap(asStream(Segment::records))
+                .filter(Record.isOfType(NODE))
+                .limit(1000)
+                .collect(toList());
+        assumeFalse("No node records found", nodes.isEmpty());
+
+        TemplateCache cache = newTemplateCache(newRecordReader(segmentStore, 64), 1000);
+        for (Record record : nodes) {
+            Template template = cache.template(record).orElseThrow(AssertionError::new);
+            NodeState node = record.root().orElseThrow(AssertionError::new);
+
+            PropertyState primaryType = node.getProperty(JCR_PRIMARYTYPE);
+            assertEquals(primaryType == null ? null : primaryType.getValue(NAME),
+                    template.primaryType().orElse(null));
+
+            PropertyState mixins = node.getProperty(JCR_MIXINTYPES);
+            assertEquals(mixins == null ? ImmutableList.of() : ImmutableList.copyOf(mixins.getValue(NAMES)),
+                    template.mixins());
+
+            for (Template.Property property : template.properties()) {
+                PropertyState state = node.getProperty(property.name());
+                assertNotNull(state);
+                assertEquals(property.type(), state.getType());
+            }
+            assertEquals(template.hasNoChildNodes(), node.getChildNodeCount(1) == 0);
+        }
+
+        CacheStats stats = cache.stats();
+        assertEquals(nodes.size(), stats.requestCount());
+        assertEquals(cache.size(), stats.missCount());
+    }
+
+}
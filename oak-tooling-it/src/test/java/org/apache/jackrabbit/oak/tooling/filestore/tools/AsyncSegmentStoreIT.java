@@ -0,0 +1,124 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jackrabbit.oak.tooling.filestore.tools;
+
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static java.util.stream.Collectors.toList;
+import static org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.NodeStateBackedSegmentStore.newSegmentStore;
+import static org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.Streams.asStream;
+import static org.apache.jackrabbit.oak.tooling.filestore.tools.AsyncSegmentStore.newAsyncSegmentStore;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeFalse;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.security.InvalidKeyException;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+
+import com.microsoft.azure.storage.StorageException;
+import org.apache.jackrabbit.oak.segment.file.FileStoreBuilder;
+import org.apache.jackrabbit.oak.segment.file.InvalidFileStoreVersionException;
+import org.apache.jackrabbit.oak.segment.file.ReadOnlyFileStore;
+import org.apache.jackrabbit.oak.segment.file.proc.Proc;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Segment;
+import org.apache.jackrabbit.oak.tooling.filestore.api.SegmentStore;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Tar;
+import org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.FileStoreUtil;
+import org.junit.AfterClass;
+import org.junit.AssumptionViolatedException;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class AsyncSegmentStoreIT {
+
+    private static final int SEGMENT_COUNT = 50;
+
+    private static final long LATENCY = 20;
+
+    private static ReadOnlyFileStore fileStore;
+
+    private static SegmentStore localStore;
+
+    private static SegmentStore segmentStore;
+
+    private static ExecutorService executor;
+
+    @BeforeClass
+    public static void setup() throws IOException, InvalidFileStoreVersionException, URISyntaxException, InvalidKeyException, StorageException {
+        FileStoreBuilder builder = FileStoreUtil.getFileStoreBuilder();
+        fileStore = builder.buildReadOnly();
+        localStore = newSegmentStore(Proc.of(builder.buildProcBackend(fileStore)));
+        segmentStore = new LatencySegmentStore(localStore, LATENCY);
+        executor = newFixedThreadPool(16);
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        segmentStore = null;
+        localStore = null;
+        if (executor != null) {
+            executor.shutdown();
+        }
+        if (fileStore != null) {
+            fileStore.close();
+        }
+    }
+
+    @Test
+    public void segmentsTest() {
+        LatencySegmentStore remoteStore = new LatencySegmentStore(localStore, LATENCY);
+        AsyncSegmentStore asyncStore = newAsyncSegmentStore(remoteStore, executor, 16, 32);
+
+        List<UUID> expected = asStream(localStore.tars())
+                .flatMap(asStream(Tar::segments))
+                .limit(SEGMENT_COUNT)
+                .map(Segment::id)
+                .collect(toList());
+        List<UUID> actual = asyncStore.segments()
+                .limit(SEGMENT_COUNT)
+                .map(Segment::id)
+                .collect(toList());
+
+        assumeFalse("Cannot run with empty segment store", expected.isEmpty());
+        assertEquals(expected, actual);
+        assertTrue("Segments must be loaded concurrently", remoteStore.maxInFlight() > 1);
+        assertTrue("At most 16 segments must be loaded concurrently", remoteStore.maxInFlight() <= 16);
+    }
+
+    @Test
+    public void segmentTest() {
+        AsyncSegmentStore asyncStore = newAsyncSegmentStore(segmentStore, executor, 4, 0);
+
+        Segment segment = asStream(segmentStore.tars())
+                .flatMap(asStream(Tar::segments))
+                .findFirst()
+                .orElseThrow(() ->
+                    new AssumptionViolatedException("Cannot run with empty segment store"));
+
+        Optional<Segment> loaded = asyncStore.segment(segment.id()).join();
+        assertTrue(loaded.isPresent());
+        assertEquals(segment.id(), loaded.get().id());
+        assertEquals(segment.length(), loaded.get().data().length());
+    }
+
+}
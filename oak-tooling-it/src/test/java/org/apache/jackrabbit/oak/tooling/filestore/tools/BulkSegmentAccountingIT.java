@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jackrabbit.oak.tooling.filestore.tools;
+
+import static org.apache.jackrabbit.oak.tooling.filestore.api.Segment.Type.BULK;
+import static org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.NodeStateBackedSegmentStore.newSegmentStore;
+import static org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.Streams.asStream;
+import static org.apache.jackrabbit.oak.tooling.filestore.tools.BulkSegmentAccounting.newBulkSegmentAccounting;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.security.InvalidKeyException;
+
+import com.microsoft.azure.storage.StorageException;
+import org.apache.jackrabbit.oak.segment.file.FileStoreBuilder;
+import org.apache.jackrabbit.oak.segment.file.InvalidFileStoreVersionException;
+import org.apache.jackrabbit.oak.segment.file.ReadOnlyFileStore;
+import org.apache.jackrabbit.oak.segment.file.proc.Proc;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Segment;
+import org.apache.jackrabbit.oak.tooling.filestore.api.SegmentStore;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Tar;
+import org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.FileStoreUtil;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class BulkSegmentAccountingIT {
+
+    private static ReadOnlyFileStore fileStore;
+
+    private static SegmentStore segmentStore;
+
+    @BeforeClass
+    public static void setup() throws IOException, InvalidFileStoreVersionException, URISyntaxException, InvalidKeyException, StorageException {
+        FileStoreBuilder builder = FileStoreUtil.getFileStoreBuilder();
+        fileStore = builder.buildReadOnly();
+        segmentStore = newSegmentStore(Proc.of(builder.buildProcBackend(fileStore)));
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        segmentStore = null;
+        if (fileStore != null) {
+            fileStore.close();
+        }
+    }
+
+    @Test
+    public void accountingTest() {
+        BulkSegmentAccounting.Report report = newBulkSegmentAccounting(segmentStore)
+                .withPaths(3)
+                .analyse();
+
+        long bulkSegments = asStream(segmentStore.tars())
+                .flatMap(asStream(Tar::segments))
+                .filter(Segment.isOfType(BULK))
+                .count();
+        assertEquals(bulkSegments, report.bulkSegments().size());
+
+        for (BulkSegmentAccounting.BulkSegment segment : report.bulkSegments()) {
+            for (BulkSegmentAccounting.ValueReference reference : segment.references()) {
+                assertTrue(reference.byteCount() > 0);
+                assertTrue(reference.byteCount() <= segment.length());
+                assertTrue(reference.paths().size() <= 3);
+                reference.paths().forEach(path -> assertTrue(path.startsWith("/")));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,187 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jackrabbit.oak.tooling.filestore.tools;
+
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.stream.Collectors.toList;
+import static org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.NodeStateBackedSegmentStore.newSegmentStore;
+import static org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.Streams.asStream;
+import static org.apache.jackrabbit.oak.tooling.filestore.tools.FederatedSegmentStore.newFederatedSegmentStore;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.security.InvalidKeyException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeoutException;
+
+import com.microsoft.azure.storage.StorageException;
+import org.apache.jackrabbit.oak.segment.file.FileStoreBuilder;
+import org.apache.jackrabbit.oak.segment.file.InvalidFileStoreVersionException;
+import org.apache.jackrabbit.oak.segment.file.ReadOnlyFileStore;
+import org.apache.jackrabbit.oak.segment.file.proc.Proc;
+import org.apache.jackrabbit.oak.tooling.filestore.api.SegmentStore;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Tar;
+import org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.FileStoreUtil;
+import org.apache.jackrabbit.oak.tooling.filestore.tools.FederatedSegmentStore.Result;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class FederatedSegmentStoreIT {
+
+    private static final long LATENCY = 500;
+
+    private static ReadOnlyFileStore fileStore;
+
+    private static SegmentStore segmentStore;
+
+    private static SegmentStore slowStore;
+
+    private static ExecutorService executor;
+
+    @BeforeClass
+    public static void setup() throws IOException, InvalidFileStoreVersionException, URISyntaxException, InvalidKeyException, StorageException {
+        FileStoreBuilder builder = FileStoreUtil.getFileStoreBuilder();
+        fileStore = builder.buildReadOnly();
+        segmentStore = newSegmentStore(Proc.of(builder.buildProcBackend(fileStore)));
+        slowStore = new LatencySegmentStore(segmentStore, LATENCY);
+        executor = newFixedThreadPool(4);
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        segmentStore = null;
+        slowStore = null;
+        if (executor != null) {
+            executor.shutdown();
+        }
+        if (fileStore != null) {
+            fileStore.close();
+        }
+    }
+
+    private static FederatedSegmentStore federatedStore() {
+        Map<String, SegmentStore> stores = new LinkedHashMap<>();
+        stores.put("slow", slowStore);
+        stores.put("local-1", segmentStore);
+        stores.put("local-2", segmentStore);
+        return newFederatedSegmentStore(stores, executor, 2);
+    }
+
+    private static long slowQuery(SegmentStore store) {
+        if (store == slowStore) {
+            try {
+                Thread.sleep(LATENCY);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return asStream(store.tars()).mapToLong(Tar::size).sum();
+    }
+
+    @Test
+    public void queryTest() {
+        long size = asStream(segmentStore.tars()).mapToLong(Tar::size).sum();
+        List<Result<Long>> results = federatedStore()
+                .query(FederatedSegmentStoreIT::slowQuery)
+                .collect(toList());
+
+        assertEquals(3, results.size());
+        assertEquals("slow", results.get(2).store());
+        for (Result<Long> result : results) {
+            assertEquals(Long.valueOf(size), result.value().orElseThrow(AssertionError::new));
+        }
+    }
+
+    @Test
+    public void queryAllTest() {
+        List<String> tars = asStream(segmentStore.tars()).map(Tar::name).collect(toList());
+        List<Result<String>> results = federatedStore()
+                .queryAll(store -> asStream(store.tars()).map(Tar::name).collect(toList()))
+                .collect(toList());
+
+        assertEquals(3 * tars.size(), results.size());
+        for (String store : federatedStore().stores().keySet()) {
+            assertEquals(tars, results.stream()
+                    .filter(result -> result.store().equals(store))
+                    .map(result -> result.value().orElseThrow(AssertionError::new))
+                    .collect(toList()));
+        }
+    }
+
+    @Test
+    public void timeoutTest() {
+        List<Result<Long>> results = federatedStore()
+                .withTimeout(LATENCY / 2, MILLISECONDS)
+                .query(FederatedSegmentStoreIT::slowQuery)
+                .collect(toList());
+
+        assertEquals(3, results.size());
+        Result<Long> slow = results.get(2);
+        assertEquals("slow", slow.store());
+        assertTrue(slow.failure().orElseThrow(AssertionError::new) instanceof TimeoutException);
+    }
+
+    @Test
+    public void cancelTest() throws InterruptedException {
+        CountDownLatch interrupted = new CountDownLatch(1);
+        List<Result<Long>> results = federatedStore()
+                .withTimeout(LATENCY, MILLISECONDS)
+                .<Long>query(store -> {
+                    if (store == slowStore) {
+                        try {
+                            Thread.sleep(MINUTES.toMillis(1));
+                        } catch (InterruptedException e) {
+                            interrupted.countDown();
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                    return 0L;
+                })
+                .collect(toList());
+
+        assertEquals(3, results.size());
+        assertTrue(results.get(2).failure().orElseThrow(AssertionError::new) instanceof TimeoutException);
+        assertTrue("Timed out query must be interrupted", interrupted.await(10, SECONDS));
+    }
+
+    @Test
+    public void failureTest() {
+        List<Result<Long>> results = federatedStore()
+                .<Long>query(store -> {
+                    throw new IllegalStateException(store.toString());
+                })
+                .collect(toList());
+
+        assertEquals(3, results.size());
+        for (Result<Long> result : results) {
+            assertTrue(result.failure().orElseThrow(AssertionError::new) instanceof IllegalStateException);
+        }
+    }
+
+}
@@ -0,0 +1,104 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jackrabbit.oak.tooling.filestore.tools;
+
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.NodeStateBackedSegmentStore.newSegmentStore;
+import static org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.Streams.asStream;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.security.InvalidKeyException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+import com.microsoft.azure.storage.StorageException;
+import org.apache.jackrabbit.oak.segment.file.FileStoreBuilder;
+import org.apache.jackrabbit.oak.segment.file.InvalidFileStoreVersionException;
+import org.apache.jackrabbit.oak.segment.file.ReadOnlyFileStore;
+import org.apache.jackrabbit.oak.segment.file.proc.Proc;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Segment;
+import org.apache.jackrabbit.oak.tooling.filestore.api.SegmentStore;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Tar;
+import org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.FileStoreUtil;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class GenerationHistogramIT {
+
+    private static ReadOnlyFileStore fileStore;
+
+    private static SegmentStore segmentStore;
+
+    private static ExecutorService executor;
+
+    @BeforeClass
+    public static void setup() throws IOException, InvalidFileStoreVersionException, URISyntaxException, InvalidKeyException, StorageException {
+        FileStoreBuilder builder = FileStoreUtil.getFileStoreBuilder();
+        fileStore = builder.buildReadOnly();
+        segmentStore = newSegmentStore(Proc.of(builder.buildProcBackend(fileStore)));
+        executor = newFixedThreadPool(4);
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        segmentStore = null;
+        if (executor != null) {
+            executor.shutdown();
+        }
+        if (fileStore != null) {
+            fileStore.close();
+        }
+    }
+
+    @Test
+    public void histogramTest() {
+        GenerationHistogram histogram = GenerationHistogram.compute(segmentStore, executor);
+        for (Tar tar : segmentStore.tars()) {
+            GenerationHistogram.TarHistogram tarHistogram = histogram.tars().get(tar.name());
+            long segmentCount = tarHistogram.bulk().segmentCount();
+            long byteCount = tarHistogram.bulk().byteCount();
+            for (GenerationHistogram.Bucket bucket : tarHistogram.buckets().values()) {
+                segmentCount += bucket.segmentCount();
+                byteCount += bucket.byteCount();
+            }
+            assertEquals(asStream(tar.segments()).count(), segmentCount);
+            assertEquals(asStream(tar.segments()).mapToLong(Segment::length).sum(), byteCount);
+        }
+    }
+
+    @Test
+    public void reclaimableTest() {
+        GenerationHistogram histogram = GenerationHistogram.compute(segmentStore, executor);
+
+        List<GenerationHistogram.Reclaimable> all = histogram.reclaimable(generation -> true);
+        assertEquals(histogram.tars().size(), all.size());
+        all.forEach(tar -> assertTrue(tar.isFree()));
+
+        histogram.reclaimable(generation -> false).forEach(tar -> {
+            GenerationHistogram.TarHistogram tarHistogram = histogram.tars().get(tar.name());
+            assertEquals(tarHistogram.buckets().isEmpty(), tar.isFree());
+            assertEquals(tar.isFree() ? tarHistogram.bulk().byteCount() : 0, tar.reclaimableBytes());
+        });
+    }
+
+}
@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jackrabbit.oak.tooling.filestore.tools;
+
+import static org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.NodeStateBackedSegmentStore.newSegmentStore;
+import static org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.Streams.asStream;
+import static org.apache.jackrabbit.oak.tooling.filestore.tools.IndexedJournal.newIndexedJournal;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.security.InvalidKeyException;
+import java.util.Iterator;
+import java.util.Optional;
+
+import com.microsoft.azure.storage.StorageException;
+import org.apache.jackrabbit.oak.segment.file.FileStoreBuilder;
+import org.apache.jackrabbit.oak.segment.file.InvalidFileStoreVersionException;
+import org.apache.jackrabbit.oak.segment.file.ReadOnlyFileStore;
+import org.apache.jackrabbit.oak.segment.file.proc.Proc;
+import org.apache.jackrabbit.oak.tooling.filestore.api.JournalEntry;
+import org.apache.jackrabbit.oak.tooling.filestore.api.SegmentStore;
+import org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.FileStoreUtil;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class IndexedJournalIT {
+
+    private static ReadOnlyFileStore fileStore;
+
+    private static SegmentStore segmentStore;
+
+    @BeforeClass
+    public static void setup() throws IOException, InvalidFileStoreVersionException, URISyntaxException, InvalidKeyException, StorageException {
+        FileStoreBuilder builder = FileStoreUtil.getFileStoreBuilder();
+        fileStore = builder.buildReadOnly();
+        segmentStore = newSegmentStore(Proc.of(builder.buildProcBackend(fileStore)));
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        segmentStore = null;
+        if (fileStore != null) {
+            fileStore.close();
+        }
+    }
+
+    @Test
+    public void getTest() {
+        IndexedJournal journal = newIndexedJournal(segmentStore);
+        assertEquals(asStream(segmentStore.journalEntries()).count(), journal.size());
+
+        Iterator<JournalEntry> entries = segmentStore.journalEntries().iterator();
+        for (int k = 0; k < journal.size(); k++) {
+            assertTrue(entries.hasNext());
+            JournalEntry expected = entries.next();
+            JournalEntry actual = journal.get(k);
+            assertEquals(expected.timestamp(), actual.timestamp());
+            assertEquals(expected.segmentId(), actual.segmentId());
+            assertEquals(expected.recordNumber(), actual.recordNumber());
+        }
+        assertFalse(entries.hasNext());
+    }
+
+    @Test
+    public void rootTest() {
+        IndexedJournal journal = newIndexedJournal(segmentStore);
+        if (journal.size() > 0) {
+            JournalEntry head = segmentStore.journalEntries().iterator().next();
+            assertEquals(head.getRoot(), journal.get(0).getRoot());
+        }
+    }
+
+    @Test
+    public void floorTest() {
+        IndexedJournal journal = newIndexedJournal(segmentStore);
+        assertEquals(-1, journal.floorIndex(Long.MIN_VALUE));
+        assertFalse(journal.floor(Long.MIN_VALUE).isPresent());
+
+        for (int k = 0; k < journal.size(); k++) {
+            long timestamp = journal.timestamp(k);
+            int index = journal.floorIndex(timestamp);
+            assertEquals(timestamp, journal.timestamp(index));
+            assertTrue(index == 0 || journal.timestamp(index - 1) > timestamp);
+
+            Optional<JournalEntry> entry = journal.floor(timestamp);
+            assertTrue(entry.isPresent());
+            assertEquals(timestamp, entry.get().timestamp());
+        }
+    }
+
+}
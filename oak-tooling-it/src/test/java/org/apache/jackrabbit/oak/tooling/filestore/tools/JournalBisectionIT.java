@@ -0,0 +1,104 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jackrabbit.oak.tooling.filestore.tools;
+
+import static org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.NodeStateBackedSegmentStore.newSegmentStore;
+import static org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.Streams.asStream;
+import static org.apache.jackrabbit.oak.tooling.filestore.tools.JournalBisection.newJournalBisection;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.security.InvalidKeyException;
+
+import com.microsoft.azure.storage.StorageException;
+import org.apache.jackrabbit.oak.segment.file.FileStoreBuilder;
+import org.apache.jackrabbit.oak.segment.file.InvalidFileStoreVersionException;
+import org.apache.jackrabbit.oak.segment.file.ReadOnlyFileStore;
+import org.apache.jackrabbit.oak.segment.file.proc.Proc;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.apache.jackrabbit.oak.tooling.filestore.api.SegmentStore;
+import org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.FileStoreUtil;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class JournalBisectionIT {
+
+    private static ReadOnlyFileStore fileStore;
+
+    private static SegmentStore segmentStore;
+
+    @BeforeClass
+    public static void setup() throws IOException, InvalidFileStoreVersionException, URISyntaxException, InvalidKeyException, StorageException {
+        FileStoreBuilder builder = FileStoreUtil.getFileStoreBuilder();
+        fileStore = builder.buildReadOnly();
+        segmentStore = newSegmentStore(Proc.of(builder.buildProcBackend(fileStore)));
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        segmentStore = null;
+        if (fileStore != null) {
+            fileStore.close();
+        }
+    }
+
+    private static int log2(int n) {
+        return 32 - Integer.numberOfLeadingZeros(n);
+    }
+
+    @Test
+    public void alwaysTest() {
+        JournalBisection bisection = newJournalBisection(segmentStore);
+        int size = (int) asStream(segmentStore.journalEntries()).count();
+        assumeTrue(size > 0);
+        assertEquals(size, bisection.size());
+
+        JournalBisection.Result result = bisection.bisect(root -> true);
+        assertEquals(size - 1, result.index());
+        assertTrue(result.entry().isPresent());
+        assertTrue(result.evaluations() <= log2(size));
+    }
+
+    @Test
+    public void neverTest() {
+        JournalBisection bisection = newJournalBisection(segmentStore);
+        JournalBisection.Result result = bisection.bisect(root -> false);
+        assertEquals(-1, result.index());
+        assertFalse(result.entry().isPresent());
+        assertTrue(result.evaluations() <= log2(bisection.size()));
+    }
+
+    @Test
+    public void memoizationTest() {
+        long revisions = asStream(segmentStore.journalEntries())
+                .map(entry -> entry.segmentId() + ":" + entry.recordNumber())
+                .distinct()
+                .count();
+
+        // Entries sharing the root record id are evaluated only once
+        JournalBisection.Result result = newJournalBisection(segmentStore).bisect(NodeState::exists);
+        assertTrue(result.evaluations() <= revisions);
+    }
+
+}
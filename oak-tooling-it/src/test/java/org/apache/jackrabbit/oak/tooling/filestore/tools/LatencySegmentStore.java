@@ -0,0 +1,182 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jackrabbit.oak.tooling.filestore.tools;
+
+import static org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.Streams.asStream;
+
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+
+import org.apache.jackrabbit.oak.api.Blob;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Record;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Segment;
+import org.apache.jackrabbit.oak.tooling.filestore.api.SegmentMetaData;
+import org.apache.jackrabbit.oak.tooling.filestore.api.SegmentStore;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Tar;
+
+/**
+ * A stand-in for a remote segment store. It delegates to a local
+ * segment store and injects a fixed latency into each access to
+ * the data, references and records of a segment. It records the maximal
+ * number of such accesses and of accesses to the data of segments observed
+ * to be in progress concurrently.
+ */
+public class LatencySegmentStore extends ForwardingSegmentStore {
+
+    private final long latencyMillis;
+
+    @Nonnull
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    @Nonnull
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
+    @Nonnull
+    private final AtomicInteger dataInFlight = new AtomicInteger();
+
+    @Nonnull
+    private final AtomicInteger maxDataInFlight = new AtomicInteger();
+
+    public LatencySegmentStore(@Nonnull SegmentStore store, long latencyMillis) {
+        super(store);
+        this.latencyMillis = latencyMillis;
+    }
+
+    /**
+     * @return  the maximal number of delayed accesses observed to be in
+     *          progress concurrently
+     */
+    public int maxInFlight() {
+        return maxInFlight.get();
+    }
+
+    /**
+     * @return  the maximal number of accesses to the data of segments observed
+     *          to be in progress concurrently
+     */
+    public int maxDataInFlight() {
+        return maxDataInFlight.get();
+    }
+
+    private void delay() {
+        maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+        try {
+            Thread.sleep(latencyMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    @Nonnull
+    @Override
+    protected Tar tar(@Nonnull Tar tar) {
+        return new ForwardingTar(tar) {
+            @Nonnull
+            @Override
+            public Iterable<Segment> segments() {
+                return () -> asStream(tar.segments())
+                        .map(LatencySegmentStore.this::delayed)
+                        .iterator();
+            }
+        };
+    }
+
+    @Nonnull
+    private Segment delayed(@Nonnull Segment segment) {
+        return new Segment() {
+            @Nonnull
+            @Override
+            public UUID id() {
+                return segment.id();
+            }
+
+            @Override
+            public boolean exists() {
+                return segment.exists();
+            }
+
+            @Override
+            public long length() {
+                return segment.length();
+            }
+
+            @Nonnull
+            @Override
+            public Type type() {
+                return segment.type();
+            }
+
+            @Nonnull
+            @Override
+            public Iterable<Segment> references() {
+                delay();
+                return segment.references();
+            }
+
+            @Nonnull
+            @Override
+            public Iterable<Record> records() {
+                delay();
+                return segment.records();
+            }
+
+            @Nonnull
+            @Override
+            public Optional<Record> record(int recordNumber) {
+                delay();
+                return segment.record(recordNumber);
+            }
+
+            @Nonnull
+            @Override
+            public Blob data() {
+                maxDataInFlight.accumulateAndGet(dataInFlight.incrementAndGet(), Math::max);
+                try {
+                    delay();
+                    return segment.data();
+                } finally {
+                    dataInFlight.decrementAndGet();
+                }
+            }
+
+            @Nonnull
+            @Override
+            public SegmentMetaData metaData() {
+                return segment.metaData();
+            }
+
+            @Nonnull
+            @Override
+            public String hexDump(boolean includeHeader) {
+                return segment.hexDump(includeHeader);
+            }
+        };
+    }
+
+    @Nonnull
+    @Override
+    public Optional<Segment> segment(@Nonnull UUID id) {
+        return store.segment(id).map(this::delayed);
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jackrabbit.oak.tooling.filestore.tools;
+
+import static org.apache.jackrabbit.oak.tooling.filestore.api.Segment.Type.DATA;
+import static org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.NodeStateBackedSegmentStore.newSegmentStore;
+import static org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.Streams.asStream;
+import static org.apache.jackrabbit.oak.tooling.filestore.tools.MetadataExporter.LENGTH;
+import static org.apache.jackrabbit.oak.tooling.filestore.tools.MetadataExporter.RECORDS;
+import static org.apache.jackrabbit.oak.tooling.filestore.tools.MetadataExporter.RECORD_COUNT;
+import static org.apache.jackrabbit.oak.tooling.filestore.tools.MetadataExporter.RECORD_TYPE;
+import static org.apache.jackrabbit.oak.tooling.filestore.tools.MetadataExporter.SEGMENTS;
+import static org.apache.jackrabbit.oak.tooling.filestore.tools.MetadataExporter.TAR;
+import static org.apache.jackrabbit.oak.tooling.filestore.tools.MetadataExporter.newMetadataExporter;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.security.InvalidKeyException;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.microsoft.azure.storage.StorageException;
+import org.apache.jackrabbit.oak.segment.file.FileStoreBuilder;
+import org.apache.jackrabbit.oak.segment.file.InvalidFileStoreVersionException;
+import org.apache.jackrabbit.oak.segment.file.ReadOnlyFileStore;
+import org.apache.jackrabbit.oak.segment.file.proc.Proc;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Record;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Segment;
+import org.apache.jackrabbit.oak.tooling.filestore.api.SegmentStore;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Tar;
+import org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.FileStoreUtil;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MetadataExporterIT {
+
+    private static ReadOnlyFileStore fileStore;
+
+    private static SegmentStore segmentStore;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder(new File("target"));
+
+    @BeforeClass
+    public static void setup() throws IOException, InvalidFileStoreVersionException, URISyntaxException, InvalidKeyException, StorageException {
+        FileStoreBuilder builder = FileStoreUtil.getFileStoreBuilder();
+        fileStore = builder.buildReadOnly();
+        segmentStore = newSegmentStore(Proc.of(builder.buildProcBackend(fileStore)));
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        segmentStore = null;
+        if (fileStore != null) {
+            fileStore.close();
+        }
+    }
+
+    @Test
+    public void exportTest() throws IOException {
+        File directory = folder.newFolder();
+        MetadataExporter.Summary summary = newMetadataExporter(segmentStore).export(directory);
+
+        Map<String, Long> tarLengths = new HashMap<>();
+        long[] recordCount = new long[1];
+        try (ColumnarFile.Reader segments = ColumnarFile.open(new File(directory, SEGMENTS))) {
+            long rows = segments.forEach(block -> {
+                int[] tars = block.ints(TAR);
+                long[] lengths = block.longs(LENGTH);
+                int[] records = block.ints(RECORD_COUNT);
+                for (int k = 0; k < block.size(); k++) {
+                    tarLengths.merge(segments.string(tars[k]), lengths[k], Long::sum);
+                    recordCount[0] += records[k];
+                }
+            });
+            assertEquals(summary.segmentCount(), rows);
+        }
+        assertEquals(summary.recordCount(), recordCount[0]);
+
+        for (Tar tar : segmentStore.tars()) {
+            long length = asStream(tar.segments()).mapToLong(Segment::length).sum();
+            assertEquals(length, (long) tarLengths.getOrDefault(tar.name(), 0L));
+        }
+
+        long[] histogram = new long[Record.Type.values().length];
+        try (ColumnarFile.Reader records = ColumnarFile.open(new File(directory, RECORDS))) {
+            long rows = records.forEach(block -> {
+                byte[] types = block.bytes(RECORD_TYPE);
+                for (int k = 0; k < block.size(); k++) {
+                    histogram[types[k]]++;
+                }
+            });
+            assertEquals(summary.recordCount(), rows);
+        }
+
+        long nodeRecords = asStream(segmentStore.tars())
+                .flatMap(tar -> asStream(tar.segments()))
+                .filter(Segment.isOfType(DATA))
+                .flatMap(segment -> asStream(segment.records()))
+                .filter(Record.isOfType(Record.Type.NODE))
+                .count();
+        assertEquals(nodeRecords, histogram[Record.Type.NODE.ordinal()]);
+    }
+
+}
@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jackrabbit.oak.tooling.filestore.tools;
+
+import static org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.NodeStateBackedSegmentStore.newSegmentStore;
+import static org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.Streams.asStream;
+import static org.apache.jackrabbit.oak.tooling.filestore.tools.ResumableScan.newResumableScan;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.security.InvalidKeyException;
+import java.util.HashSet;
+import java.util.Set;
+
+import com.microsoft.azure.storage.StorageException;
+import org.apache.jackrabbit.oak.segment.file.FileStoreBuilder;
+import org.apache.jackrabbit.oak.segment.file.InvalidFileStoreVersionException;
+import org.apache.jackrabbit.oak.segment.file.ReadOnlyFileStore;
+import org.apache.jackrabbit.oak.segment.file.proc.Proc;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Segment;
+import org.apache.jackrabbit.oak.tooling.filestore.api.SegmentStore;
+import org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.FileStoreUtil;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ResumableScanIT {
+
+    private static ReadOnlyFileStore fileStore;
+
+    private static SegmentStore segmentStore;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder(new File("target"));
+
+    @BeforeClass
+    public static void setup() throws IOException, InvalidFileStoreVersionException, URISyntaxException, InvalidKeyException, StorageException {
+        FileStoreBuilder builder = FileStoreUtil.getFileStoreBuilder();
+        fileStore = builder.buildReadOnly();
+        segmentStore = newSegmentStore(Proc.of(builder.buildProcBackend(fileStore)));
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        segmentStore = null;
+        if (fileStore != null) {
+            fileStore.close();
+        }
+    }
+
+    public static class Aggregate {
+        long count;
+        long length;
+        Set<String> ids = new HashSet<>();
+
+        void add(Segment segment) {
+            count++;
+            length += segment.length();
+            ids.add(segment.id().toString());
+        }
+    }
+
+    private static class Crash extends RuntimeException {}
+
+    @Test
+    public void resumeTest() throws IOException {
+        long segmentCount = asStream(segmentStore.tars())
+                .flatMap(tar -> asStream(tar.segments()))
+                .count();
+        long length = asStream(segmentStore.tars())
+                .flatMap(tar -> asStream(tar.segments()))
+                .mapToLong(Segment::length)
+                .sum();
+
+        File stateFile = new File(folder.getRoot(), "scan.json");
+        ResumableScan<Aggregate> scan = newResumableScan(segmentStore, stateFile, Aggregate.class, Aggregate::new)
+                .withCheckpointInterval(7);
+
+        long crashAt = segmentCount / 2;
+        long[] visited = new long[1];
+        try {
+            scan.run((aggregate, segment) -> {
+                if (visited[0]++ == crashAt) {
+                    throw new Crash();
+                }
+                aggregate.add(segment);
+            });
+        } catch (Crash expected) {}
+
+        Aggregate aggregate = scan.run(Aggregate::add);
+        assertEquals(segmentCount, aggregate.count);
+        assertEquals(segmentCount, aggregate.ids.size());
+        assertEquals(length, aggregate.length);
+
+        // A completed scan does not visit any segment again
+        Aggregate again = scan.run((a, segment) -> {
+            throw new AssertionError(segment);
+        });
+        assertEquals(segmentCount, again.count);
+    }
+
+}
@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jackrabbit.oak.tooling.filestore.tools;
+
+import static java.util.Collections.singleton;
+import static org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.NodeStateBackedSegmentStore.newSegmentStore;
+import static org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.RecordReader.newRecordReader;
+import static org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.TemplateCache.newTemplateCache;
+import static org.apache.jackrabbit.oak.tooling.filestore.tools.ReversePathIndex.newReversePathIndex;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.security.InvalidKeyException;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.microsoft.azure.storage.StorageException;
+import org.apache.jackrabbit.oak.segment.file.FileStoreBuilder;
+import org.apache.jackrabbit.oak.segment.file.InvalidFileStoreVersionException;
+import org.apache.jackrabbit.oak.segment.file.ReadOnlyFileStore;
+import org.apache.jackrabbit.oak.segment.file.proc.Proc;
+import org.apache.jackrabbit.oak.tooling.filestore.api.JournalEntry;
+import org.apache.jackrabbit.oak.tooling.filestore.api.SegmentStore;
+import org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.FileStoreUtil;
+import org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.NodeRecord;
+import org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.RawSegment.RecordId;
+import org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.RecordReader;
+import org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.TemplateCache;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ReversePathIndexIT {
+
+    private static ReadOnlyFileStore fileStore;
+
+    private static SegmentStore segmentStore;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder(new File("target"));
+
+    @BeforeClass
+    public static void setup() throws IOException, InvalidFileStoreVersionException, URISyntaxException, InvalidKeyException, StorageException {
+        FileStoreBuilder builder = FileStoreUtil.getFileStoreBuilder();
+        fileStore = builder.buildReadOnly();
+        segmentStore = newSegmentStore(Proc.of(builder.buildProcBackend(fileStore)));
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        segmentStore = null;
+        if (fileStore != null) {
+            fileStore.close();
+        }
+    }
+
+    /**
+     * Record ids of the super root and the nodes up to two levels below it by their paths
+     */
+    private static Map<String, RecordId> nodes(JournalEntry entry) {
+        RecordReader reader = newRecordReader(segmentStore, 16);
+        TemplateCache templates = newTemplateCache(reader, 100);
+        RecordId root = new RecordId(entry.segmentId(), entry.recordNumber());
+
+        Map<String, RecordId> nodes = new HashMap<>();
+        nodes.put("/", root);
+        NodeRecord.read(reader, templates, root).forEachChild((name, child) -> {
+            nodes.put('/' + name, child);
+            NodeRecord.read(reader, templates, child).forEachChild((childName, grandChild) ->
+                    nodes.put('/' + name + '/' + childName, grandChild));
+        });
+        return nodes;
+    }
+
+    @Test
+    public void pathsTest() throws IOException {
+        JournalEntry head = segmentStore.journalEntries().iterator().next();
+        Map<String, RecordId> nodes = nodes(head);
+        assertTrue(nodes.containsKey("/root"));
+
+        try (ReversePathIndex.Index index = newReversePathIndex(segmentStore, folder.getRoot()).build()) {
+            assertTrue(index.size() >= nodes.size());
+            Map<RecordId, String> paths = index.paths(nodes.values());
+            assertEquals("/", paths.get(nodes.get("/")));
+            assertEquals("/root", paths.get(nodes.get("/root")));
+
+            // Each node is indexed at its shortest path, which is at most as deep as the path we found it at
+            nodes.forEach((path, id) -> assertEquals(id, nodes.get(paths.get(id))));
+
+            RecordId unknown = new RecordId(head.segmentId(), Integer.MAX_VALUE);
+            assertFalse(index.paths(singleton(unknown)).containsKey(unknown));
+        }
+    }
+
+    @Test
+    public void spillTest() throws IOException {
+        JournalEntry head = segmentStore.journalEntries().iterator().next();
+        Map<String, RecordId> nodes = nodes(head);
+
+        Map<RecordId, String> expected;
+        try (ReversePathIndex.Index index = newReversePathIndex(segmentStore, folder.getRoot()).build(head)) {
+            assertEquals(0, index.spillFileCount());
+            expected = index.paths(nodes.values());
+        }
+
+        try (ReversePathIndex.Index index = newReversePathIndex(segmentStore, folder.getRoot())
+                .withChunkSize(7)
+                .build(head)) {
+            assertTrue(index.spillFileCount() > 0);
+            assertEquals(expected, index.paths(nodes.values()));
+        }
+        assertEquals(0, folder.getRoot().list().length);
+    }
+
+}
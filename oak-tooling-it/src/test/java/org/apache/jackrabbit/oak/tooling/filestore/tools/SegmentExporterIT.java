@@ -0,0 +1,117 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jackrabbit.oak.tooling.filestore.tools;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static org.apache.jackrabbit.oak.tooling.filestore.api.Segment.Type.BULK;
+import static org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.NodeStateBackedSegmentStore.newSegmentStore;
+import static org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.Streams.asStream;
+import static org.apache.jackrabbit.oak.tooling.filestore.tools.SegmentExporter.newSegmentExporter;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.security.InvalidKeyException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.zip.CRC32;
+
+import com.microsoft.azure.storage.StorageException;
+import org.apache.jackrabbit.oak.segment.file.FileStoreBuilder;
+import org.apache.jackrabbit.oak.segment.file.InvalidFileStoreVersionException;
+import org.apache.jackrabbit.oak.segment.file.ReadOnlyFileStore;
+import org.apache.jackrabbit.oak.segment.file.proc.Proc;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Segment;
+import org.apache.jackrabbit.oak.tooling.filestore.api.SegmentStore;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Tar;
+import org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.FileStoreUtil;
+import org.junit.AfterClass;
+import org.junit.AssumptionViolatedException;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SegmentExporterIT {
+
+    private static ReadOnlyFileStore fileStore;
+
+    private static SegmentStore segmentStore;
+
+    private static ExecutorService executor;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder(new File("target"));
+
+    @BeforeClass
+    public static void setup() throws IOException, InvalidFileStoreVersionException, URISyntaxException, InvalidKeyException, StorageException {
+        FileStoreBuilder builder = FileStoreUtil.getFileStoreBuilder();
+        fileStore = builder.buildReadOnly();
+        segmentStore = newSegmentStore(Proc.of(builder.buildProcBackend(fileStore)));
+        executor = newFixedThreadPool(4);
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        segmentStore = null;
+        if (executor != null) {
+            executor.shutdown();
+        }
+        if (fileStore != null) {
+            fileStore.close();
+        }
+    }
+
+    @Test
+    public void exportTest() throws IOException {
+        Tar tar = asStream(segmentStore.tars())
+                .findFirst()
+                .orElseThrow(() ->
+                    new AssumptionViolatedException("Cannot run with empty segment store"));
+
+        File directory = folder.newFolder();
+        SegmentExporter.Summary summary = newSegmentExporter(segmentStore, executor, 8)
+                .withTars(tar.name()::equals)
+                .withSegments(Segment.isOfType(BULK).negate())
+                .export(directory);
+
+        List<String> manifest = Files.readAllLines(
+                directory.toPath().resolve(SegmentExporter.MANIFEST), UTF_8);
+        assertEquals(summary.segmentCount(), manifest.size());
+        assertTrue(summary.byteCount() <= tar.size());
+
+        for (String line : manifest) {
+            String[] fields = line.split("\t");
+            assertEquals(tar.name(), fields[0]);
+            assertEquals("DATA", fields[2]);
+
+            byte[] data = Files.readAllBytes(directory.toPath().resolve(fields[0]).resolve(fields[1]));
+            assertEquals(Long.parseLong(fields[3]), data.length);
+
+            CRC32 crc = new CRC32();
+            crc.update(data);
+            assertEquals(Long.parseLong(fields[4], 16), crc.getValue());
+        }
+    }
+
+}
@@ -0,0 +1,132 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jackrabbit.oak.tooling.filestore.tools;
+
+import static org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.NodeStateBackedSegmentStore.newSegmentStore;
+import static org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.Streams.asStream;
+import static org.apache.jackrabbit.oak.tooling.filestore.tools.SegmentFingerprints.fingerprint;
+import static org.apache.jackrabbit.oak.tooling.filestore.tools.SegmentFingerprints.newSegmentFingerprints;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.security.InvalidKeyException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import com.google.common.hash.Hashing;
+import com.microsoft.azure.storage.StorageException;
+import org.apache.jackrabbit.oak.segment.file.FileStoreBuilder;
+import org.apache.jackrabbit.oak.segment.file.InvalidFileStoreVersionException;
+import org.apache.jackrabbit.oak.segment.file.ReadOnlyFileStore;
+import org.apache.jackrabbit.oak.segment.file.proc.Proc;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Segment;
+import org.apache.jackrabbit.oak.tooling.filestore.api.SegmentStore;
+import org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.FileStoreUtil;
+import org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.LoadedSegment;
+import org.apache.jackrabbit.oak.tooling.filestore.tools.SegmentFingerprints.Comparison;
+import org.apache.jackrabbit.oak.tooling.filestore.tools.SegmentFingerprints.Summary;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SegmentFingerprintsIT {
+
+    private static ReadOnlyFileStore fileStore;
+
+    private static SegmentStore segmentStore;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder(new File("target"));
+
+    @BeforeClass
+    public static void setup() throws IOException, InvalidFileStoreVersionException, URISyntaxException, InvalidKeyException, StorageException {
+        FileStoreBuilder builder = FileStoreUtil.getFileStoreBuilder();
+        fileStore = builder.buildReadOnly();
+        segmentStore = newSegmentStore(Proc.of(builder.buildProcBackend(fileStore)));
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        segmentStore = null;
+        if (fileStore != null) {
+            fileStore.close();
+        }
+    }
+
+    @Test
+    public void fingerprintTest() throws IOException {
+        Segment segment = asStream(segmentStore.tars())
+                .flatMap(tar -> asStream(tar.segments()))
+                .findFirst()
+                .orElseThrow(AssertionError::new);
+        byte[] hash = Hashing.murmur3_128().hashBytes(LoadedSegment.load(segment).bytes()).asBytes();
+        StringBuilder hex = new StringBuilder();
+        for (byte b : hash) {
+            hex.append(String.format("%02x", b));
+        }
+        assertEquals(hex.toString(), fingerprint(segment).toString());
+    }
+
+    @Test
+    public void updateTest() throws IOException {
+        Set<UUID> ids = asStream(segmentStore.tars())
+                .flatMap(tar -> asStream(tar.segments()))
+                .map(Segment::id)
+                .collect(Collectors.toSet());
+
+        File sidecar = new File(folder.getRoot(), "fingerprints");
+        SegmentFingerprints fingerprints = newSegmentFingerprints(segmentStore, sidecar).withChunkSize(10);
+        Summary first = fingerprints.update();
+        assertEquals(ids.size(), first.segmentCount());
+        assertEquals(ids.size(), first.hashCount());
+
+        // The second update takes all fingerprints from the sidecar
+        Summary second = fingerprints.update();
+        assertEquals(ids.size(), second.segmentCount());
+        assertEquals(0, second.hashCount());
+
+        List<UUID> sidecarIds = new ArrayList<>();
+        SegmentFingerprints.read(sidecar, (id, fingerprint) -> sidecarIds.add(id));
+        assertEquals(ids, sidecarIds.stream().collect(Collectors.toSet()));
+        assertEquals(sidecarIds.stream().sorted().collect(Collectors.toList()), sidecarIds);
+    }
+
+    @Test
+    public void compareTest() throws IOException {
+        File left = new File(folder.getRoot(), "left");
+        File right = new File(folder.getRoot(), "right");
+        long segmentCount = newSegmentFingerprints(segmentStore, left).update().segmentCount();
+        newSegmentFingerprints(segmentStore, right).withChunkSize(7).update();
+
+        Comparison comparison = SegmentFingerprints.compare(left, right, 64);
+        assertEquals(segmentCount, comparison.sameContent());
+        assertEquals(0, comparison.differentContent());
+        assertEquals(0, comparison.onlyLeft());
+        assertEquals(0, comparison.onlyRight());
+        assertEquals(1.0, comparison.contentSimilarity(), 0);
+    }
+
+}
@@ -0,0 +1,124 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jackrabbit.oak.tooling.filestore.tools;
+
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static java.util.stream.Collectors.toList;
+import static org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.NodeStateBackedSegmentStore.newSegmentStore;
+import static org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.Streams.asStream;
+import static org.apache.jackrabbit.oak.tooling.filestore.tools.SegmentPrefetcher.prefetch;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.security.InvalidKeyException;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+
+import com.microsoft.azure.storage.StorageException;
+import org.apache.jackrabbit.oak.segment.file.FileStoreBuilder;
+import org.apache.jackrabbit.oak.segment.file.InvalidFileStoreVersionException;
+import org.apache.jackrabbit.oak.segment.file.ReadOnlyFileStore;
+import org.apache.jackrabbit.oak.segment.file.proc.Proc;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Segment;
+import org.apache.jackrabbit.oak.tooling.filestore.api.SegmentStore;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Tar;
+import org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.FileStoreUtil;
+import org.junit.AfterClass;
+import org.junit.AssumptionViolatedException;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class SegmentPrefetcherIT {
+
+    private static final long LATENCY = 20;
+
+    private static ReadOnlyFileStore fileStore;
+
+    private static SegmentStore localStore;
+
+    private static SegmentStore segmentStore;
+
+    private static ExecutorService executor;
+
+    @BeforeClass
+    public static void setup() throws IOException, InvalidFileStoreVersionException, URISyntaxException, InvalidKeyException, StorageException {
+        FileStoreBuilder builder = FileStoreUtil.getFileStoreBuilder();
+        fileStore = builder.buildReadOnly();
+        localStore = newSegmentStore(Proc.of(builder.buildProcBackend(fileStore)));
+        segmentStore = new LatencySegmentStore(localStore, LATENCY);
+        executor = newFixedThreadPool(8);
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        segmentStore = null;
+        localStore = null;
+        if (executor != null) {
+            executor.shutdown();
+        }
+        if (fileStore != null) {
+            fileStore.close();
+        }
+    }
+
+    @Test
+    public void prefetchTest() {
+        LatencySegmentStore remoteStore = new LatencySegmentStore(localStore, LATENCY);
+        Tar tar = asStream(remoteStore.tars())
+                .findFirst()
+                .orElseThrow(() ->
+                    new AssumptionViolatedException("Cannot run with empty segment store"));
+
+        List<UUID> expected = asStream(localStore.tars())
+                .findFirst()
+                .map(Tar::segments)
+                .map(segments -> asStream(segments)
+                        .map(Segment::id)
+                        .collect(toList()))
+                .orElseThrow(AssertionError::new);
+        List<UUID> actual = asStream(prefetch(tar, executor, 8, 16 * 1024 * 1024))
+                .map(Segment::id)
+                .collect(toList());
+
+        assertEquals(expected, actual);
+        assumeTrue("Cannot run with a single segment", expected.size() > 1);
+        assertTrue("Segments must be loaded concurrently", remoteStore.maxDataInFlight() > 1);
+        assertTrue("At most 8 segments must be loaded concurrently", remoteStore.maxDataInFlight() <= 8);
+    }
+
+    @Test
+    public void memoryBudgetTest() {
+        Tar tar = asStream(segmentStore.tars())
+                .findFirst()
+                .orElseThrow(() ->
+                    new AssumptionViolatedException("Cannot run with empty segment store"));
+
+        SegmentPrefetcher prefetcher = (SegmentPrefetcher) prefetch(tar, executor, 8, 1).iterator();
+        while (prefetcher.hasNext()) {
+            // With a budget of a single byte only the next segment is being loaded
+            long pendingBytes = prefetcher.pendingBytes();
+            assertEquals(pendingBytes, prefetcher.next().length());
+        }
+    }
+
+}
@@ -0,0 +1,169 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jackrabbit.oak.tooling.filestore.tools;
+
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static java.util.stream.Collectors.toList;
+import static org.apache.jackrabbit.oak.tooling.filestore.api.Record.Type.NODE;
+import static org.apache.jackrabbit.oak.tooling.filestore.api.Segment.Type.BULK;
+import static org.apache.jackrabbit.oak.tooling.filestore.api.Segment.Type.DATA;
+import static org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.NodeStateBackedSegmentStore.newSegmentStore;
+import static org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.Streams.asStream;
+import static org.apache.jackrabbit.oak.tooling.filestore.tools.SegmentQuery.Execution.PARALLEL;
+import static org.apache.jackrabbit.oak.tooling.filestore.tools.SegmentQuery.Execution.SEQUENTIAL;
+import static org.apache.jackrabbit.oak.tooling.filestore.tools.SegmentQuery.query;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeFalse;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.security.InvalidKeyException;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.stream.Stream;
+
+import com.microsoft.azure.storage.StorageException;
+import org.apache.jackrabbit.oak.segment.file.FileStoreBuilder;
+import org.apache.jackrabbit.oak.segment.file.InvalidFileStoreVersionException;
+import org.apache.jackrabbit.oak.segment.file.ReadOnlyFileStore;
+import org.apache.jackrabbit.oak.segment.file.proc.Proc;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Record;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Segment;
+import org.apache.jackrabbit.oak.tooling.filestore.api.SegmentStore;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Tar;
+import org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.FileStoreUtil;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class SegmentQueryIT {
+
+    private static ReadOnlyFileStore fileStore;
+
+    private static SegmentStore segmentStore;
+
+    private static ExecutorService executor;
+
+    @BeforeClass
+    public static void setup() throws IOException, InvalidFileStoreVersionException, URISyntaxException, InvalidKeyException, StorageException {
+        FileStoreBuilder builder = FileStoreUtil.getFileStoreBuilder();
+        fileStore = builder.buildReadOnly();
+        segmentStore = newSegmentStore(Proc.of(builder.buildProcBackend(fileStore)));
+        executor = newFixedThreadPool(4);
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        segmentStore = null;
+        if (executor != null) {
+            executor.shutdown();
+        }
+        if (fileStore != null) {
+            fileStore.close();
+        }
+    }
+
+    private static List<String> tarNames(Stream<Tar> tars) {
+        return tars.map(Tar::name).collect(toList());
+    }
+
+    private static List<UUID> segmentIds(Stream<Segment> segments) {
+        return segments.map(Segment::id).collect(toList());
+    }
+
+    private static List<String> recordIds(Stream<Record> records) {
+        return records.map(record -> record.segmentId() + ":" + record.number()).collect(toList());
+    }
+
+    private static Stream<Segment> allSegments() {
+        return asStream(segmentStore.tars()).flatMap(asStream(Tar::segments));
+    }
+
+    @Test
+    public void tarsTest() {
+        long maxSize = asStream(segmentStore.tars()).mapToLong(Tar::size).max().orElse(0);
+        SegmentQuery query = query(segmentStore)
+                .withTarName(name -> name.endsWith(".tar"))
+                .withTarSize(size -> size < maxSize)
+                // Segment and record predicates do not apply to tars
+                .withSegment(segment -> false)
+                .withRecord(record -> false);
+
+        assertEquals(
+                tarNames(asStream(segmentStore.tars())
+                        .filter(tar -> tar.name().endsWith(".tar"))
+                        .filter(tar -> tar.size() < maxSize)),
+                tarNames(query.tars()));
+    }
+
+    @Test
+    public void segmentsTest() {
+        SegmentQuery query = query(segmentStore)
+                .withGeneration(generation -> generation >= 0)
+                .withCompacted(false)
+                .withSegment(segment -> segment.length() > 1024)
+                // Record predicates do not apply to segments
+                .withRecord(record -> false);
+
+        List<UUID> expected = segmentIds(allSegments()
+                .filter(segment -> segment.type() == DATA)
+                .filter(segment -> !segment.metaData().compacted())
+                .filter(segment -> segment.length() > 1024));
+        assertEquals(expected, segmentIds(query.segments()));
+        assertEquals(expected, segmentIds(query.withExecutor(executor, 4).withExecution(PARALLEL).segments()));
+    }
+
+    @Test
+    public void segmentTypeTest() {
+        assertEquals(
+                segmentIds(allSegments().filter(segment -> segment.type() == BULK)),
+                segmentIds(query(segmentStore).withSegmentType(BULK).segments()));
+        assertEquals(0, query(segmentStore).withSegmentType(BULK).withGeneration(generation -> true).segments().count());
+        assertEquals(0, query(segmentStore).withSegmentType(BULK).records().count());
+    }
+
+    @Test
+    public void recordsTest() {
+        Tar tar = asStream(segmentStore.tars()).findFirst().orElse(null);
+        assumeFalse("Cannot run with empty segment store", tar == null);
+
+        SegmentQuery query = query(segmentStore)
+                .withTarName(tar.name()::equals)
+                .withGeneration(generation -> generation >= 0)
+                .withRecordType(NODE)
+                .withRecord(record -> record.number() % 2 == 0);
+
+        List<String> expected = recordIds(asStream(tar.segments())
+                .filter(segment -> segment.type() == DATA)
+                .flatMap(asStream(Segment::records))
+                .filter(record -> record.type() == NODE)
+                .filter(record -> record.number() % 2 == 0));
+        assertEquals(expected, recordIds(query.records()));
+        assertEquals(expected, recordIds(query.withExecution(SEQUENTIAL).withExecutor(executor, 4).records()));
+        assertEquals(expected, recordIds(query.withExecutor(executor, 4).records()));
+        assertEquals(expected, recordIds(query.withExecutor(executor, 1).records()));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void parallelWithoutExecutorTest() {
+        query(segmentStore).withExecution(PARALLEL).records();
+    }
+
+}
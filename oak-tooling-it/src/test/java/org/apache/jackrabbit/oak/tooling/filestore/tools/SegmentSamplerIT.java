@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jackrabbit.oak.tooling.filestore.tools;
+
+import static java.util.stream.Collectors.toSet;
+import static org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.NodeStateBackedSegmentStore.newSegmentStore;
+import static org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.Streams.asStream;
+import static org.apache.jackrabbit.oak.tooling.filestore.tools.SegmentSampler.newSegmentSampler;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.security.InvalidKeyException;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import com.microsoft.azure.storage.StorageException;
+import org.apache.jackrabbit.oak.segment.file.FileStoreBuilder;
+import org.apache.jackrabbit.oak.segment.file.InvalidFileStoreVersionException;
+import org.apache.jackrabbit.oak.segment.file.ReadOnlyFileStore;
+import org.apache.jackrabbit.oak.segment.file.proc.Proc;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Record;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Segment;
+import org.apache.jackrabbit.oak.tooling.filestore.api.SegmentStore;
+import org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.FileStoreUtil;
+import org.apache.jackrabbit.oak.tooling.filestore.tools.SegmentSampler.Estimate;
+import org.apache.jackrabbit.oak.tooling.filestore.tools.SegmentSampler.Sample;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class SegmentSamplerIT {
+
+    private static ReadOnlyFileStore fileStore;
+
+    private static SegmentStore segmentStore;
+
+    @BeforeClass
+    public static void setup() throws IOException, InvalidFileStoreVersionException, URISyntaxException, InvalidKeyException, StorageException {
+        FileStoreBuilder builder = FileStoreUtil.getFileStoreBuilder();
+        fileStore = builder.buildReadOnly();
+        segmentStore = newSegmentStore(Proc.of(builder.buildProcBackend(fileStore)));
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        segmentStore = null;
+        if (fileStore != null) {
+            fileStore.close();
+        }
+    }
+
+    private static double recordCount(Segment segment) {
+        return asStream(segment.records()).count();
+    }
+
+    private static double nodeCount(Segment segment) {
+        return asStream(segment.records()).filter(Record.isOfType(Record.Type.NODE)).count();
+    }
+
+    @Test
+    public void fullSampleTest() {
+        List<Segment> segments = asStream(segmentStore.tars())
+                .flatMap(tar -> asStream(tar.segments()))
+                .collect(Collectors.toList());
+        double records = segments.stream().mapToDouble(SegmentSamplerIT::recordCount).sum();
+        double nodes = segments.stream().mapToDouble(SegmentSamplerIT::nodeCount).sum();
+
+        Sample sample = newSegmentSampler(segmentStore).sample(Integer.MAX_VALUE);
+        assertEquals(segments.size(), sample.population());
+        assertEquals(segments.size(), sample.segments().size());
+
+        // Sampling all segments yields exact values
+        Estimate mean = sample.mean(SegmentSamplerIT::recordCount);
+        assertEquals(records / segments.size(), mean.value(), 1e-9);
+        assertEquals(0, mean.standardError(), 1e-9);
+        assertEquals(records, sample.total(SegmentSamplerIT::recordCount).value(), 1e-6);
+        assertEquals(nodes / records,
+                sample.ratio(SegmentSamplerIT::nodeCount, SegmentSamplerIT::recordCount).value(), 1e-9);
+    }
+
+    @Test
+    public void partialSampleTest() {
+        long population = asStream(segmentStore.tars())
+                .flatMap(tar -> asStream(tar.segments()))
+                .count();
+        int size = (int) Math.max(1, population / 2);
+
+        Sample sample = newSegmentSampler(segmentStore).withSeed(42).sample(size);
+        assertEquals(population, sample.population());
+        assertEquals(size, sample.segments().size());
+        assertEquals(size, sample.segments().stream().map(Segment::id).collect(toSet()).size());
+
+        Estimate share = sample.ratio(SegmentSamplerIT::nodeCount, SegmentSamplerIT::recordCount);
+        assertTrue(share.value() >= 0 && share.value() <= 1);
+        assertTrue(share.lower() <= share.value() && share.value() <= share.upper());
+
+        Estimate narrow = sample.mean(SegmentSamplerIT::recordCount);
+        Estimate wide = newSegmentSampler(segmentStore).withSeed(42).withConfidence(0.99)
+                .sample(size).mean(SegmentSamplerIT::recordCount);
+        assertEquals(narrow.value(), wide.value(), 1e-9);
+        assertTrue(wide.upper() - wide.lower() >= narrow.upper() - narrow.lower());
+    }
+
+}
@@ -0,0 +1,86 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jackrabbit.oak.tooling.filestore.tools;
+
+import static org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.Streams.asStream;
+import static org.apache.jackrabbit.oak.tooling.filestore.tools.SegmentStores.PROC_BINDING;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import org.apache.jackrabbit.oak.tooling.filestore.api.JournalEntry;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Segment;
+import org.apache.jackrabbit.oak.tooling.filestore.api.SegmentStore;
+import org.apache.jackrabbit.oak.tooling.filestore.tools.SegmentStores.CloseableSegmentStore;
+import org.apache.jackrabbit.oak.tooling.filestore.tools.SegmentStores.Options;
+import org.junit.Test;
+
+public class SegmentStoresIT {
+
+    private static final String SEGMENT_DIR = System.getProperty("segmentstore", null);
+
+    private static List<UUID> segmentIds(SegmentStore store) {
+        return asStream(store.tars())
+                .flatMap(tar -> asStream(tar.segments()))
+                .map(Segment::id)
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    public void bindingsTest() {
+        assertTrue(SegmentStores.bindings().stream()
+                .anyMatch(binding -> binding.name().equals(PROC_BINDING)));
+    }
+
+    @Test
+    public void openTest() throws IOException {
+        assumeTrue("No segment store directory specified", SEGMENT_DIR != null);
+
+        List<UUID> expected;
+        try (CloseableSegmentStore store = SegmentStores.open(new File(SEGMENT_DIR))) {
+            assertTrue(store.head().isPresent());
+            JournalEntry head = store.journalEntries().iterator().next();
+            assertTrue(store.node(head.segmentId(), head.recordNumber()).isPresent());
+            expected = segmentIds(store);
+        }
+
+        Options options = Options.DEFAULT
+                .withBinding(PROC_BINDING)
+                .withSegmentCacheSize(16)
+                .withMemoryMapping(false)
+                .withRecordCacheSize(0)
+                .withParallelism(2)
+                .withPrefetchDepth(8);
+        try (CloseableSegmentStore store = SegmentStores.open(new File(SEGMENT_DIR), options)) {
+            assertEquals(expected, segmentIds(store));
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void unknownBindingTest() throws IOException {
+        SegmentStores.open(new File("."), Options.DEFAULT.withBinding("unknown"));
+    }
+
+}
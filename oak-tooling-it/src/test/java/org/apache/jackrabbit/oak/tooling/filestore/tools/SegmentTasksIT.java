@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jackrabbit.oak.tooling.filestore.tools;
+
+import static java.util.stream.Collectors.toList;
+import static org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.NodeStateBackedSegmentStore.newSegmentStore;
+import static org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.Streams.asStream;
+import static org.apache.jackrabbit.oak.tooling.filestore.tools.SegmentTasks.newSegmentTasks;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeFalse;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.security.InvalidKeyException;
+import java.util.List;
+
+import com.microsoft.azure.storage.StorageException;
+import org.apache.jackrabbit.oak.segment.file.FileStoreBuilder;
+import org.apache.jackrabbit.oak.segment.file.InvalidFileStoreVersionException;
+import org.apache.jackrabbit.oak.segment.file.ReadOnlyFileStore;
+import org.apache.jackrabbit.oak.segment.file.proc.Proc;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Segment;
+import org.apache.jackrabbit.oak.tooling.filestore.api.SegmentStore;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Tar;
+import org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.FileStoreUtil;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class SegmentTasksIT {
+
+    private static final int SEGMENT_COUNT = 50;
+
+    private static final int MAX_IN_FLIGHT = 8;
+
+    private static final long LATENCY = 20;
+
+    private static ReadOnlyFileStore fileStore;
+
+    private static SegmentStore localStore;
+
+    private static SegmentStore segmentStore;
+
+    @BeforeClass
+    public static void setup() throws IOException, InvalidFileStoreVersionException, URISyntaxException, InvalidKeyException, StorageException {
+        FileStoreBuilder builder = FileStoreUtil.getFileStoreBuilder();
+        fileStore = builder.buildReadOnly();
+        localStore = newSegmentStore(Proc.of(builder.buildProcBackend(fileStore)));
+        segmentStore = new LatencySegmentStore(localStore, LATENCY);
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        segmentStore = null;
+        localStore = null;
+        if (fileStore != null) {
+            fileStore.close();
+        }
+    }
+
+    @Test
+    public void mapTest() {
+        LatencySegmentStore remoteStore = new LatencySegmentStore(localStore, LATENCY);
+        List<Segment> segments = asStream(remoteStore.tars())
+                .flatMap(asStream(Tar::segments))
+                .limit(SEGMENT_COUNT)
+                .collect(toList());
+        assumeFalse("Cannot run with empty segment store", segments.isEmpty());
+
+        List<Long> expected = asStream(localStore.tars())
+                .flatMap(asStream(Tar::segments))
+                .limit(SEGMENT_COUNT)
+                .map(segment -> segment.data().length())
+                .collect(toList());
+
+        List<Long> actual;
+        try (SegmentTasks tasks = newSegmentTasks(MAX_IN_FLIGHT)) {
+            actual = tasks.map(segments, segment -> segment.data().length())
+                    .collect(toList());
+        }
+
+        assertEquals(expected, actual);
+        assertTrue("Segments must be read concurrently", remoteStore.maxDataInFlight() > 1);
+        assertTrue("At most " + MAX_IN_FLIGHT + " segments must be read concurrently",
+                remoteStore.maxDataInFlight() <= MAX_IN_FLIGHT);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void failureTest() {
+        try (SegmentTasks tasks = newSegmentTasks(MAX_IN_FLIGHT)) {
+            tasks.<Long>map(segmentStore, segment -> {
+                throw new IllegalStateException(segment.id().toString());
+            }).count();
+        }
+    }
+
+}
@@ -0,0 +1,207 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jackrabbit.oak.tooling.filestore.tools;
+
+import static java.util.Collections.singletonList;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static org.apache.jackrabbit.oak.tooling.filestore.api.Segment.Type.BULK;
+import static org.apache.jackrabbit.oak.tooling.filestore.api.Segment.Type.DATA;
+import static org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.NodeStateBackedSegmentStore.newSegmentStore;
+import static org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.Streams.asStream;
+import static org.apache.jackrabbit.oak.tooling.filestore.tools.TarSummaryCache.newTarSummaryCache;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.security.InvalidKeyException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import javax.annotation.Nonnull;
+
+import com.microsoft.azure.storage.StorageException;
+import org.apache.jackrabbit.oak.segment.file.FileStoreBuilder;
+import org.apache.jackrabbit.oak.segment.file.InvalidFileStoreVersionException;
+import org.apache.jackrabbit.oak.segment.file.ReadOnlyFileStore;
+import org.apache.jackrabbit.oak.segment.file.proc.Proc;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Record;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Segment;
+import org.apache.jackrabbit.oak.tooling.filestore.api.SegmentStore;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Tar;
+import org.apache.jackrabbit.oak.tooling.filestore.api.TarSummary;
+import org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.FileStoreUtil;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TarSummaryCacheIT {
+
+    private static ReadOnlyFileStore fileStore;
+
+    private static SegmentStore segmentStore;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder(new File("target"));
+
+    @BeforeClass
+    public static void setup() throws IOException, InvalidFileStoreVersionException, URISyntaxException, InvalidKeyException, StorageException {
+        FileStoreBuilder builder = FileStoreUtil.getFileStoreBuilder();
+        fileStore = builder.buildReadOnly();
+        segmentStore = newSegmentStore(Proc.of(builder.buildProcBackend(fileStore)));
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        segmentStore = null;
+        if (fileStore != null) {
+            fileStore.close();
+        }
+    }
+
+    @Test
+    public void summaryTest() {
+        for (Tar tar : segmentStore.tars()) {
+            TarSummary summary = TarSummaries.summary(tar);
+            assertEquals(asStream(tar.segments()).count(), summary.segmentCount());
+            assertEquals(asStream(tar.segments()).filter(Segment.isOfType(BULK)).count(),
+                    summary.segmentCount(BULK));
+            assertEquals(asStream(tar.segments()).filter(Segment.isOfType(DATA)).mapToLong(Segment::length).sum(),
+                    summary.bytes(DATA));
+            assertEquals(asStream(tar.segments())
+                            .flatMap(segment -> asStream(segment.records()))
+                            .filter(Record.isOfType(Record.Type.NODE))
+                            .count(),
+                    summary.recordCount(Record.Type.NODE));
+            assertTrue(summary.minGeneration() <= summary.maxGeneration());
+        }
+    }
+
+    @Test
+    public void cacheTest() throws IOException {
+        File file = new File(folder.getRoot(), "tars.json");
+        TarSummaryCache cache = newTarSummaryCache(file);
+        SegmentStore store = cache.wrap(segmentStore);
+        for (Tar tar : store.tars()) {
+            assertEquals(Optional.of(TarSummaries.compute(tar.segments())), tar.summary());
+        }
+        assertEquals(asStream(segmentStore.tars()).count(), cache.size());
+
+        TarSummaryCache reopened = newTarSummaryCache(file);
+        assertEquals(cache.size(), reopened.size());
+        for (Tar tar : segmentStore.tars()) {
+            assertTrue(reopened.cached(tar).isPresent());
+            assertEquals(cache.cached(tar), reopened.cached(tar));
+        }
+    }
+
+    @Test
+    public void supersededTest() throws IOException {
+        File file = new File(folder.getRoot(), "tars.json");
+        TarSummaryCache cache = newTarSummaryCache(file);
+        for (Tar tar : segmentStore.tars()) {
+            // Summarise the tar as if it had been smaller before
+            cache.summary(new ForwardingTar(tar) {
+                @Override
+                public long size() {
+                    return tar.size() - 1;
+                }
+            });
+            cache.summary(tar);
+        }
+        long tars = asStream(segmentStore.tars()).count();
+        assertEquals(tars, cache.size());
+        assertEquals(2 * tars + 1, Files.readAllLines(file.toPath()).size());
+
+        // Reopening drops superseded entries from the file
+        TarSummaryCache reopened = newTarSummaryCache(file);
+        assertEquals(tars, reopened.size());
+        assertEquals(tars + 1, Files.readAllLines(file.toPath()).size());
+    }
+
+    @Test
+    public void compactTest() throws IOException {
+        File file = new File(folder.getRoot(), "tars.json");
+        TarSummaryCache cache = newTarSummaryCache(file);
+        for (Tar tar : segmentStore.tars()) {
+            cache.summary(tar);
+            // Summarise a tar file as if it had been removed from the store since
+            cache.summary(new ForwardingTar(tar) {
+                @Nonnull
+                @Override
+                public String name() {
+                    return "removed-" + tar.name();
+                }
+            });
+        }
+        long tars = asStream(segmentStore.tars()).count();
+        assertEquals(2 * tars, cache.size());
+
+        cache.compact(segmentStore);
+        assertEquals(tars, cache.size());
+        assertEquals(tars + 1, Files.readAllLines(file.toPath()).size());
+        for (Tar tar : segmentStore.tars()) {
+            assertTrue(cache.cached(tar).isPresent());
+        }
+        assertEquals(tars, newTarSummaryCache(file).size());
+    }
+
+    @Test
+    public void concurrentSummaryTest() throws IOException, InterruptedException, ExecutionException {
+        File file = new File(folder.getRoot(), "tars.json");
+        TarSummaryCache cache = newTarSummaryCache(file);
+        Tar tar = segmentStore.tars().iterator().next();
+        ExecutorService executor = newFixedThreadPool(8);
+        try {
+            List<Future<TarSummary>> summaries = new ArrayList<>();
+            for (int k = 0; k < 32; k++) {
+                summaries.add(executor.submit(() -> cache.summary(tar)));
+            }
+            for (Future<TarSummary> summary : summaries) {
+                assertEquals(cache.cached(tar), Optional.of(summary.get()));
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        // Summarised and appended once
+        assertEquals(2, Files.readAllLines(file.toPath()).size());
+    }
+
+    @Test
+    public void versionTest() throws IOException {
+        File file = new File(folder.getRoot(), "tars.json");
+        Files.write(file.toPath(), singletonList("{\"version\":" + (TarSummaryCache.VERSION + 1) + "}"));
+
+        TarSummaryCache cache = newTarSummaryCache(file);
+        assertEquals(0, cache.size());
+        assertEquals(
+                singletonList("{\"version\":" + TarSummaryCache.VERSION + "}"),
+                Files.readAllLines(file.toPath()));
+    }
+
+}
@@ -0,0 +1,73 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jackrabbit.oak.tooling.filestore.api;
+
+import java.util.Map;
+import java.util.UUID;
+
+import javax.annotation.Nonnull;
+
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+
+/**
+ * An instance of this interface represents a checkpoint of a
+ * revision of the segment store.
+ */
+public interface Checkpoint {
+
+    /**
+     * @return  the name of this checkpoint
+     */
+    @Nonnull
+    String name();
+
+    /**
+     * @return  the time stamp at which this checkpoint was created
+     */
+    long created();
+
+    /**
+     * @return  the time stamp at which this checkpoint expires
+     */
+    long expires();
+
+    /**
+     * @return  the properties associated with this checkpoint
+     */
+    @Nonnull
+    Map<String, String> properties();
+
+    /**
+     * @return  the segment id of the root node of this checkpoint
+     */
+    @Nonnull
+    UUID segmentId();
+
+    /**
+     * @return  the record number of the root node of this checkpoint in the segment
+     *          pointed to by {@link #segmentId()}
+     */
+    int recordNumber();
+
+    /**
+     * @return  the root node state of this checkpoint
+     */
+    @Nonnull
+    NodeState root();
+}
@@ -115,4 +115,15 @@ public interface Segment {
     static Predicate<Segment> isOfType(@Nonnull Type type) {
         return segment -> segment.type() == type;
     }
+
+    /**
+     * @param generation  the garbage collection generation to match the segments on
+     * @return  a {@code Segment} predicate which is {@code true} for all data segments
+     *          with {@code Segment#metaData().generation() == generation}
+     */
+    @Nonnull
+    static Predicate<Segment> isOfGeneration(int generation) {
+        return segment -> segment.type() == Type.DATA
+                && segment.metaData().generation() == generation;
+    }
 }
@@ -18,6 +18,9 @@
 
 package org.apache.jackrabbit.oak.tooling.filestore.api;
 
+import static java.util.Collections.emptyList;
+
+import java.util.Iterator;
 import java.util.Optional;
 import java.util.UUID;
 
@@ -29,6 +32,12 @@ import org.apache.jackrabbit.oak.spi.state.NodeState;
  * An instances of this interface serves as main entry point to the
  * Oak Tooling API. It provides means to access and examine the
  * segment store's underlying storage entities.
+ * <p>
+ * Implementations must be safe for concurrent use: a single instance,
+ * including all entities obtained from it and any indexes or caches it
+ * builds internally, can be shared between any number of threads. The
+ * {@code Iterable}s returned from this API may be shared as well, while
+ * each of their iterators must only be used by a single thread at a time.
  */
 public interface SegmentStore {
 
@@ -70,4 +79,27 @@ public interface SegmentStore {
      */
     @Nonnull
     Iterable<JournalEntry> journalEntries();
-}
\ No newline at end of file
+
+    /**
+     * The default implementation returns the checkpoints of the most recent
+     * entry of the {@link #journalEntries() journal}.
+     * @return  the checkpoints of the head state of this segment store
+     */
+    @Nonnull
+    default Iterable<Checkpoint> checkpoints() {
+        Iterator<JournalEntry> entries = journalEntries().iterator();
+        return entries.hasNext()
+                ? checkpoints(entries.next())
+                : emptyList();
+    }
+
+    /**
+     * Checkpoints are immutable. Checkpoints whose root has the same record id
+     * are equivalent across revisions.
+     *
+     * @param entry  the journal entry of the revision
+     * @return  the checkpoints of the revision of the given journal entry
+     */
+    @Nonnull
+    Iterable<Checkpoint> checkpoints(@Nonnull JournalEntry entry);
+}
@@ -18,6 +18,8 @@
 
 package org.apache.jackrabbit.oak.tooling.filestore.api;
 
+import java.util.Optional;
+
 import javax.annotation.Nonnull;
 
 /**
@@ -42,4 +44,14 @@ public interface Tar {
      */
     @Nonnull
     Iterable<Segment> segments();
+
+    /**
+     * Precomputed summary statistics of this tar file. The default
+     * implementation returns no summary.
+     * @return  the summary of this tar file if readily available
+     */
+    @Nonnull
+    default Optional<TarSummary> summary() {
+        return Optional.empty();
+    }
 }
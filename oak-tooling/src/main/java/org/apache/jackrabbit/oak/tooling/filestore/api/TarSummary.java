@@ -0,0 +1,68 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jackrabbit.oak.tooling.filestore.api;
+
+import javax.annotation.Nonnull;
+
+/**
+ * An instance of this interface represents summary statistics of
+ * the segments and records of a {@link Tar tar file}.
+ */
+public interface TarSummary {
+
+    /**
+     * @return  the number of segments
+     */
+    long segmentCount();
+
+    /**
+     * @param type  a segment type
+     * @return  the number of segments of the given type
+     */
+    long segmentCount(@Nonnull Segment.Type type);
+
+    /**
+     * @param type  a segment type
+     * @return  the total length in bytes of the segments of the given type
+     */
+    long bytes(@Nonnull Segment.Type type);
+
+    /**
+     * @return  the number of records
+     */
+    long recordCount();
+
+    /**
+     * @param type  a record type
+     * @return  the number of records of the given type
+     */
+    long recordCount(@Nonnull Record.Type type);
+
+    /**
+     * @return  the minimal garbage collection generation of the data segments
+     *          or {@code -1} if there are no data segments
+     */
+    int minGeneration();
+
+    /**
+     * @return  the maximal garbage collection generation of the data segments
+     *          or {@code -1} if there are no data segments
+     */
+    int maxGeneration();
+}
@@ -0,0 +1,188 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.unmodifiableList;
+import static org.apache.jackrabbit.oak.tooling.filestore.api.Segment.Type.DATA;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+import javax.annotation.Nonnull;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.jackrabbit.oak.api.Blob;
+import org.apache.jackrabbit.oak.plugins.memory.ArrayBasedBlob;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Record;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Segment;
+import org.apache.jackrabbit.oak.tooling.filestore.api.SegmentMetaData;
+
+/**
+ * A {@link Segment} whose data, references and records have been read
+ * from an underlying segment into memory. Accessing those does not
+ * involve any further I/O. All other calls delegate to the underlying
+ * segment.
+ */
+public class LoadedSegment implements Segment {
+
+    @Nonnull
+    private final Segment segment;
+
+    @Nonnull
+    private final byte[] data;
+
+    @Nonnull
+    private final List<Segment> references;
+
+    @Nonnull
+    private final List<Record> records;
+
+    /**
+     * Read the data, references and records of {@code segment}. This call
+     * blocks until all I/O has completed.
+     * @param segment  the segment to load
+     * @return  a segment that serves data, references and records from memory
+     * @throws UncheckedIOException  if reading the segment's data fails
+     */
+    @Nonnull
+    public static LoadedSegment load(@Nonnull Segment segment) {
+        if (segment instanceof LoadedSegment) {
+            return (LoadedSegment) segment;
+        }
+        boolean isData = segment.type() == DATA;
+        return new LoadedSegment(
+                segment,
+                read(segment.data()),
+                isData ? newArrayList(segment.references()) : emptyList(),
+                isData ? newArrayList(segment.records()) : emptyList());
+    }
+
+    /**
+     * Read the data of {@code segment} without loading its references and records.
+     * @param segment  the segment to read
+     * @return  the raw data of {@code segment}. The returned array must not be
+     *          modified if {@code segment} is a {@code LoadedSegment}.
+     * @throws UncheckedIOException  if reading the segment's data fails
+     */
+    @Nonnull
+    public static byte[] bytes(@Nonnull Segment segment) {
+        return segment instanceof LoadedSegment
+            ? ((LoadedSegment) segment).data
+            : read(segment.data());
+    }
+
+    @Nonnull
+    private static byte[] read(@Nonnull Blob blob) {
+        try (InputStream stream = blob.getNewStream()) {
+            return IOUtils.toByteArray(stream);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private LoadedSegment(
+            @Nonnull Segment segment,
+            @Nonnull byte[] data,
+            @Nonnull List<Segment> references,
+            @Nonnull List<Record> records) {
+        this.segment = segment;
+        this.data = data;
+        this.references = unmodifiableList(references);
+        this.records = unmodifiableList(records);
+    }
+
+    /**
+     * @return  the raw data of this segment. The returned array must not be modified.
+     */
+    @Nonnull
+    public byte[] bytes() {
+        return data;
+    }
+
+    @Nonnull
+    @Override
+    public UUID id() {
+        return segment.id();
+    }
+
+    @Override
+    public boolean exists() {
+        return segment.exists();
+    }
+
+    @Override
+    public long length() {
+        return data.length;
+    }
+
+    @Nonnull
+    @Override
+    public Type type() {
+        return segment.type();
+    }
+
+    @Nonnull
+    @Override
+    public Iterable<Segment> references() {
+        return references;
+    }
+
+    @Nonnull
+    @Override
+    public Iterable<Record> records() {
+        return records;
+    }
+
+    @Nonnull
+    @Override
+    public Optional<Record> record(int recordNumber) {
+        return records.stream()
+                .filter(record -> record.number() == recordNumber)
+                .findFirst();
+    }
+
+    @Nonnull
+    @Override
+    public Blob data() {
+        return new ArrayBasedBlob(data);
+    }
+
+    @Nonnull
+    @Override
+    public SegmentMetaData metaData() {
+        return segment.metaData();
+    }
+
+    @Nonnull
+    @Override
+    public String hexDump(boolean includeHeader) {
+        return segment.hexDump(includeHeader);
+    }
+
+    @Override
+    public String toString() {
+        return segment.toString();
+    }
+}
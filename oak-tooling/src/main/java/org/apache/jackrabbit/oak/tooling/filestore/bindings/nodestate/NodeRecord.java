@@ -0,0 +1,162 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate;
+
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.RawSegment.RECORD_ID_BYTES;
+
+import java.util.List;
+import java.util.function.BiConsumer;
+
+import javax.annotation.Nonnull;
+
+import org.apache.jackrabbit.oak.tooling.filestore.api.Record;
+import org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.RawSegment.RecordId;
+
+/**
+ * A {@link Record.Type#NODE NODE} record decoded from raw segments. This
+ * allows traversing the node tree at the record level, e.g. to determine
+ * the record ids of child nodes and property values, which are not
+ * accessible through the {@code NodeState} API.
+ * <p>
+ * The layout of a node record is:
+ * <pre>
+ * [stable id] [template id] [child node id or child node map id] [property list id]
+ * </pre>
+ * The child node id is only present if the {@link Template template} has child
+ * nodes, the property list id only if it has properties. The property list contains
+ * the record id of each property in the order of the properties of the template.
+ * Single valued properties refer to their value record directly. Multi valued
+ * properties refer to a record containing the number of values followed by
+ * the record id of the list of their values.
+ */
+public final class NodeRecord {
+
+    @Nonnull
+    private final RecordReader reader;
+
+    @Nonnull
+    private final RecordId id;
+
+    @Nonnull
+    private final Template template;
+
+    private NodeRecord(@Nonnull RecordReader reader, @Nonnull RecordId id, @Nonnull Template template) {
+        this.reader = reader;
+        this.id = id;
+        this.template = template;
+    }
+
+    /**
+     * Decode a node record.
+     * @param reader     reader for resolving records referenced from the node
+     * @param templates  cache for decoding the template of the node
+     * @param id         the id of the node record
+     * @return  the decoded node record
+     */
+    @Nonnull
+    public static NodeRecord read(@Nonnull RecordReader reader, @Nonnull TemplateCache templates, @Nonnull RecordId id) {
+        return new NodeRecord(reader, id, templates.nodeTemplate(id));
+    }
+
+    /**
+     * @return  the id of this node record
+     */
+    @Nonnull
+    public RecordId id() {
+        return id;
+    }
+
+    /**
+     * @return  the template of this node
+     */
+    @Nonnull
+    public Template template() {
+        return template;
+    }
+
+    /**
+     * Pass the name and the record id of each child node to {@code consumer}.
+     * @param consumer  the consumer of the child nodes
+     */
+    public void forEachChild(@Nonnull BiConsumer<String, RecordId> consumer) {
+        if (template.hasManyChildNodes()) {
+            reader.readMap(reader.readRecordId(id, 2 * RECORD_ID_BYTES),
+                    (key, value) -> consumer.accept(reader.readString(key), value));
+        } else {
+            template.childName().ifPresent(name ->
+                    consumer.accept(name, reader.readRecordId(id, 2 * RECORD_ID_BYTES)));
+        }
+    }
+
+    /**
+     * @param index  index of a property of the {@link #template() template}
+     * @return  the record ids of the values of the property
+     */
+    @Nonnull
+    public List<RecordId> values(int index) {
+        List<Template.Property> properties = template.properties();
+        checkElementIndex(index, properties.size());
+        RecordId propertyId = reader.readListEntry(propertyListId(), properties.size(), index);
+        return values(properties.get(index), propertyId);
+    }
+
+    /**
+     * Pass each property of the {@link #template() template} together with the
+     * record ids of its values to {@code consumer}.
+     * @param consumer  the consumer of the properties
+     */
+    public void forEachProperty(@Nonnull BiConsumer<Template.Property, List<RecordId>> consumer) {
+        List<Template.Property> properties = template.properties();
+        if (properties.isEmpty()) {
+            return;
+        }
+        List<RecordId> propertyIds = reader.readList(propertyListId(), properties.size());
+        for (int k = 0; k < properties.size(); k++) {
+            consumer.accept(properties.get(k), values(properties.get(k), propertyIds.get(k)));
+        }
+    }
+
+    @Nonnull
+    private RecordId propertyListId() {
+        int offset = (template.hasNoChildNodes() ? 2 : 3) * RECORD_ID_BYTES;
+        return reader.readRecordId(id, offset);
+    }
+
+    @Nonnull
+    private List<RecordId> values(@Nonnull Template.Property property, @Nonnull RecordId propertyId) {
+        if (!property.type().isArray()) {
+            return singletonList(propertyId);
+        }
+
+        RawSegment segment = reader.segment(propertyId.segmentId());
+        int count = segment.readInt(propertyId.number(), 0);
+        if (count == 0) {
+            return emptyList();
+        }
+        return reader.readList(segment.readRecordId(propertyId.number(), 4), count);
+    }
+
+    @Override
+    public String toString() {
+        return "NodeRecord{id=" + id + ", template=" + template + '}';
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate;
+
+import static java.util.Collections.unmodifiableMap;
+import static org.apache.jackrabbit.oak.api.Type.LONG;
+import static org.apache.jackrabbit.oak.api.Type.STRING;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+import javax.annotation.Nonnull;
+
+import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Checkpoint;
+
+/**
+ * An implementation of {@link Checkpoint} based on a {@link NodeState}.
+ * The node state is expected to expose the following properties:
+ * <ul>
+ *     <li>{@code created} of type {@code LONG}</li>
+ *     <li>{@code timestamp} of type {@code LONG}</li>
+ * </ul>
+ * The node state is expected to expose a child node {@code root}
+ * and a child node {@code properties}. The record id of the root is
+ * not accessible through the node state and must be passed explicitly.
+ * <p>
+ * The properties of the node state are decoded once when this instance
+ * is created.
+ */
+public class NodeStateBackedCheckpoint implements Checkpoint {
+
+    @Nonnull
+    private final String name;
+
+    private final long created;
+
+    private final long expires;
+
+    @Nonnull
+    private final Map<String, String> properties;
+
+    @Nonnull
+    private final UUID segmentId;
+
+    private final int recordNumber;
+
+    @Nonnull
+    private final NodeState root;
+
+    /**
+     * @param name          the name of the checkpoint
+     * @param segmentId     the segment id of the root of the checkpoint
+     * @param recordNumber  the record number of the root of the checkpoint
+     * @param node          the node state of the checkpoint
+     * @return  a new {@code NodeStateBackedCheckpoint} instance
+     */
+    @Nonnull
+    public static Checkpoint newCheckpoint(
+            @Nonnull String name, @Nonnull UUID segmentId, int recordNumber, @Nonnull NodeState node) {
+        return new NodeStateBackedCheckpoint(name, segmentId, recordNumber, node);
+    }
+
+    private NodeStateBackedCheckpoint(
+            @Nonnull String name, @Nonnull UUID segmentId, int recordNumber, @Nonnull NodeState node) {
+        this.name = name;
+        this.segmentId = segmentId;
+        this.recordNumber = recordNumber;
+        this.created = Optional.ofNullable(node.getProperty("created"))
+                .map(property -> property.getValue(LONG))
+                .orElseThrow(RuntimeException::new);
+        this.expires = Optional.ofNullable(node.getProperty("timestamp"))
+                .map(property -> property.getValue(LONG))
+                .orElseThrow(RuntimeException::new);
+        this.properties = toMap(node.getChildNode("properties"));
+        this.root = node.getChildNode("root");
+    }
+
+    @Nonnull
+    private static Map<String, String> toMap(@Nonnull NodeState properties) {
+        Map<String, String> map = new LinkedHashMap<>();
+        for (PropertyState property : properties.getProperties()) {
+            map.put(property.getName(), property.getValue(STRING));
+        }
+        return unmodifiableMap(map);
+    }
+
+    @Nonnull
+    @Override
+    public String name() {
+        return name;
+    }
+
+    @Override
+    public long created() {
+        return created;
+    }
+
+    @Override
+    public long expires() {
+        return expires;
+    }
+
+    @Nonnull
+    @Override
+    public Map<String, String> properties() {
+        return properties;
+    }
+
+    @Nonnull
+    @Override
+    public UUID segmentId() {
+        return segmentId;
+    }
+
+    @Override
+    public int recordNumber() {
+        return recordNumber;
+    }
+
+    @Nonnull
+    @Override
+    public NodeState root() {
+        return root;
+    }
+
+    @Override
+    public String toString() {
+        return name + properties;
+    }
+}
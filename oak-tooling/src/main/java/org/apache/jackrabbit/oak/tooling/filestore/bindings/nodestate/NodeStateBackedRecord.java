@@ -27,6 +27,8 @@ public class NodeStateBackedRecord implements Record {
     @Nonnull
     private final NodeState node;
 
+    private volatile Optional<NodeState> root;
+
     @Nonnull
     public static Record newRecord(@Nonnull NodeState node) {
         return new NodeStateBackedRecord(node);
@@ -75,11 +77,22 @@ public class NodeStateBackedRecord implements Record {
                 .orElseThrow(RuntimeException::new);
     }
 
+    /**
+     * The root node is looked up on first access and the same instance is
+     * returned on subsequent calls. It is the node state of the underlying
+     * store, which decodes its template, properties and child nodes on demand
+     * and keeps its own equality and comparison of node states.
+     */
     @Override
     public Optional<NodeState> root() {
-        return node.hasChildNode("root")
-            ? Optional.of(node.getChildNode("root"))
-            : Optional.empty();
+        Optional<NodeState> root = this.root;
+        if (root == null) {
+            root = node.hasChildNode("root")
+                ? Optional.of(node.getChildNode("root"))
+                : Optional.empty();
+            this.root = root;
+        }
+        return root;
     }
 
     @Override
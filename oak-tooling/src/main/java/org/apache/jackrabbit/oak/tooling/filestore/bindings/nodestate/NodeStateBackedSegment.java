@@ -40,19 +40,39 @@ import org.apache.jackrabbit.oak.tooling.filestore.api.SegmentMetaData;
  * </ul>
  * The node state is expected to expose a child node {@code references}
  * and a child node {@code records}.
+ * <p>
+ * Segments obtained from a {@link NodeStateBackedSegmentStore} share the
+ * record cache of the store, such that {@link #record(int)} only looks up
+ * the node state of a record once as long as it stays cached.
  */
 public class NodeStateBackedSegment implements Segment {
 
     @Nonnull
     private final NodeState node;
 
+    @Nonnull
+    private final RecordCache records;
+
+    private final long msb;
+
+    private final long lsb;
+
     @Nonnull
     public static Segment newSegment(@Nonnull NodeState node) {
-        return new NodeStateBackedSegment(node);
+        return new NodeStateBackedSegment(node, RecordCache.DISABLED, 0, 0);
+    }
+
+    @Nonnull
+    static NodeStateBackedSegment newSegment(@Nonnull NodeState node, @Nonnull UUID id, @Nonnull RecordCache records) {
+        return new NodeStateBackedSegment(
+                node, records, id.getMostSignificantBits(), id.getLeastSignificantBits());
     }
 
-    private NodeStateBackedSegment(@Nonnull NodeState node) {
+    private NodeStateBackedSegment(@Nonnull NodeState node, @Nonnull RecordCache records, long msb, long lsb) {
         this.node = node;
+        this.records = records;
+        this.msb = msb;
+        this.lsb = lsb;
     }
 
     @Nonnull
@@ -108,12 +128,23 @@ public class NodeStateBackedSegment implements Segment {
     @Nonnull
     @Override
     public Optional<Record> record(int recordNumber) {
+        Optional<Record> cached = records.get(msb, lsb, recordNumber);
+        return cached.isPresent() ? cached : loadRecord(recordNumber);
+    }
+
+    /**
+     * Look up a record bypassing the record cache and put it into the cache.
+     * @param recordNumber  the number of the record
+     * @return  the record if it exists
+     */
+    @Nonnull
+    Optional<Record> loadRecord(int recordNumber) {
         NodeState record = node
                 .getChildNode("records")
                 .getChildNode(String.valueOf(recordNumber));
 
         if (record.exists()) {
-            return Optional.of(NodeStateBackedRecord.newRecord(record));
+            return records.put(msb, lsb, recordNumber, Optional.of(NodeStateBackedRecord.newRecord(record)));
         } else {
             return Optional.empty();
         }
@@ -18,27 +18,72 @@
 
 package org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate;
 
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.NodeStateBackedCheckpoint.newCheckpoint;
+import static org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.RecordReader.newRecordReader;
 import static org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.Streams.asStream;
+import static org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.TemplateCache.newTemplateCache;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.UUID;
-import java.util.function.Function;
-import java.util.stream.Stream;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.annotation.Nonnull;
 
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import org.apache.jackrabbit.oak.spi.state.ChildNodeEntry;
 import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Checkpoint;
 import org.apache.jackrabbit.oak.tooling.filestore.api.JournalEntry;
 import org.apache.jackrabbit.oak.tooling.filestore.api.Record;
 import org.apache.jackrabbit.oak.tooling.filestore.api.Segment;
 import org.apache.jackrabbit.oak.tooling.filestore.api.SegmentStore;
 import org.apache.jackrabbit.oak.tooling.filestore.api.Tar;
+import org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.RawSegment.RecordId;
 
 /**
  * An implementation of {@link SegmentStore} based on a {@link NodeState}.
  * The node state is expected to expose a child node {@code store}
  * and a child node {@code journal}.
+ * <p>
+ * Checkpoints are read from the {@code checkpoints} child node of the
+ * root of a revision. The record ids of their roots are determined by
+ * decoding the node records of the revision with a {@link RecordReader}.
+ * The most recently used checkpoints are cached by name and root record
+ * id such that checkpoints shared across revisions are only decoded once.
+ * <p>
+ * Segments are looked up by id through an index, which is built
+ * by enumerating the segments of all tars on first lookup. The index
+ * follows a store that is still being written to: looking up a segment
+ * missing from the index {@link #refresh() refreshes} it, which only
+ * enumerates the segments of tars that have been added or have grown since.
+ * Such refreshes happen at most once per {@value #MIN_REFRESH_INTERVAL_MILLIS}
+ * milliseconds, so looking up many missing segments does not enumerate the
+ * tars for each of them.
+ * <p>
+ * Records resolved through {@link #node(UUID, int)} or through
+ * {@link Segment#record(int)} of a segment obtained from
+ * {@link #segment(UUID)} are kept in a
+ * bounded {@link RecordCache} keyed by segment id and record number.
+ * Together with the roots kept by cached records this makes repeatedly
+ * resolving the same record ids cheap. As records are immutable, the cache
+ * is kept when tars are removed from the store. The size of the cache is configurable
+ * and its hit rate is exposed through {@link #recordCacheStats()}.
+ * <p>
+ * Instances are safe for concurrent use as long as the underlying node
+ * state is, which is the case for the node states exposed by
+ * {@code Proc}. The segment index is built by the first thread looking
+ * up a segment while concurrent lookups wait for it. Later refreshes are
+ * serialised and update the index entry by entry, so lookups of indexed
+ * segments proceed concurrently and never miss a segment of a tar that is
+ * still part of the store. The record
+ * cache, the checkpoint cache and the roots of records tolerate
+ * concurrent initialisation, in which case the same value might be decoded
+ * twice.
  */
 public class NodeStateBackedSegmentStore implements SegmentStore {
 
@@ -46,14 +91,98 @@ public class NodeStateBackedSegmentStore implements SegmentStore {
     private final NodeState tars;
     private final NodeState journal;
 
+    @Nonnull
+    private final SegmentIndex segmentIndex;
+
+    @Nonnull
+    private final RecordCache recordCache;
+
+    @Nonnull
+    private final ConcurrentMap<CheckpointKey, Checkpoint> checkpoints = CacheBuilder.newBuilder()
+            .maximumSize(CHECKPOINT_CACHE_SIZE)
+            .<CheckpointKey, Checkpoint>build()
+            .asMap();
+
+    @Nonnull
+    private final RecordReader reader = newRecordReader(this, SEGMENT_CACHE_SIZE);
+
+    @Nonnull
+    private final TemplateCache templates = newTemplateCache(reader, TEMPLATE_CACHE_SIZE);
+
+    /**
+     * Default number of records kept in the record cache
+     */
+    public static final int DEFAULT_RECORD_CACHE_SIZE = 1 << 16;
+
+    /**
+     * Minimal time between refreshes of the segment index caused by lookup misses
+     */
+    public static final long MIN_REFRESH_INTERVAL_MILLIS = 1000;
+
+    private static final int CHECKPOINT_CACHE_SIZE = 1024;
+
+    private static final int SEGMENT_CACHE_SIZE = 16;
+
+    private static final int TEMPLATE_CACHE_SIZE = 1024;
+
     @Nonnull
     public static SegmentStore newSegmentStore(@Nonnull NodeState node) {
-        return new NodeStateBackedSegmentStore(node);
+        return newSegmentStore(node, DEFAULT_RECORD_CACHE_SIZE);
+    }
+
+    /**
+     * @param node             the node state to expose as segment store
+     * @param recordCacheSize  maximal number of records kept in the record cache.
+     *                         {@code 0} disables the cache.
+     * @return  a new {@code NodeStateBackedSegmentStore} instance
+     */
+    @Nonnull
+    public static NodeStateBackedSegmentStore newSegmentStore(@Nonnull NodeState node, int recordCacheSize) {
+        return new NodeStateBackedSegmentStore(node, RecordCache.newRecordCache(recordCacheSize));
     }
 
-    private NodeStateBackedSegmentStore(@Nonnull NodeState node) {
+    private NodeStateBackedSegmentStore(@Nonnull NodeState node, @Nonnull RecordCache recordCache) {
         this.tars = node.getChildNode("store");
         this.journal = node.getChildNode("journal");
+        this.recordCache = recordCache;
+        this.segmentIndex = new SegmentIndex(tars);
+    }
+
+    /**
+     * Statistics of the record cache. Each record id resolved through
+     * {@link #node(UUID, int)} or {@link Segment#record(int)} counts as a
+     * hit if the record was cached and as a miss otherwise.
+     * @return  the statistics of the record cache
+     */
+    @Nonnull
+    public CacheStats recordCacheStats() {
+        return recordCache.stats();
+    }
+
+    /**
+     * Bring the segment index up to date with the tars of the store. Tars
+     * are identified by their name and size. Only segments of tars that
+     * are new or have changed their size are enumerated. Segments of tars
+     * that have been removed are dropped from the index.
+     * <p>
+     * Calling this method is only necessary for picking up changes eagerly,
+     * as the index is also refreshed when looking up a segment not in it.
+     * @return  the number of tars whose segments have been enumerated
+     */
+    public int refresh() {
+        return segmentIndex.refresh();
+    }
+
+    @Nonnull
+    private Optional<NodeState> segmentNode(@Nonnull UUID id) {
+        Optional<NodeState> segment = segmentIndex.segment(id);
+        if (!segment.isPresent()) {
+            // Look up again even if this refresh found nothing new, as a concurrent
+            // refresh might have completed in the meantime
+            segmentIndex.refresh(MILLISECONDS.toNanos(MIN_REFRESH_INTERVAL_MILLIS));
+            segment = segmentIndex.segment(id);
+        }
+        return segment;
     }
 
     @Nonnull
@@ -68,10 +197,8 @@ public class NodeStateBackedSegmentStore implements SegmentStore {
     @Nonnull
     @Override
     public Optional<Segment> segment(@Nonnull UUID id) {
-        return asStream(tars())
-                .flatMap(NodeStateBackedSegmentStore::getSegments)
-                .filter(segment -> id.equals(segment.id()))
-                .findFirst();
+        return segmentNode(id)
+                .map(node -> NodeStateBackedSegment.newSegment(node, id, recordCache));
     }
 
     @Nonnull
@@ -85,19 +212,13 @@ public class NodeStateBackedSegmentStore implements SegmentStore {
     @Nonnull
     @Override
     public Optional<NodeState> node(@Nonnull UUID segmentId, int recordNumber) {
-        return segment(segmentId)
-                .flatMap(getNode(recordNumber));
-    }
-
-    @Nonnull
-    private Function<Segment, Optional<NodeState>> getNode(int recordNumber) {
-        return segment -> segment.record(recordNumber)
-                .flatMap(Record::root);
-    }
-
-    @Nonnull
-    private static Stream<Segment> getSegments(@Nonnull Tar tar) {
-        return asStream(tar.segments());
+        Optional<Record> record = recordCache.get(segmentId, recordNumber);
+        if (!record.isPresent()) {
+            record = segmentNode(segmentId)
+                    .map(node -> NodeStateBackedSegment.newSegment(node, segmentId, recordCache))
+                    .flatMap(segment -> segment.loadRecord(recordNumber));
+        }
+        return record.flatMap(Record::root);
     }
 
     @Nonnull
@@ -109,4 +230,67 @@ public class NodeStateBackedSegmentStore implements SegmentStore {
                         .iterator();
     }
 
+    @Nonnull
+    @Override
+    public Iterable<Checkpoint> checkpoints(@Nonnull JournalEntry entry) {
+        NodeState node = entry.getRoot().getChildNode("checkpoints");
+        RecordId superRoot = new RecordId(entry.segmentId(), entry.recordNumber());
+        return () -> checkpointRoots(superRoot).entrySet().stream()
+                        .map(root -> checkpoints.computeIfAbsent(
+                                new CheckpointKey(root.getKey(), root.getValue()),
+                                key -> newCheckpoint(key.name, key.root.segmentId(), key.root.number(),
+                                        node.getChildNode(key.name))))
+                        .iterator();
+    }
+
+    @Nonnull
+    private Map<String, RecordId> checkpointRoots(@Nonnull RecordId superRoot) {
+        Map<String, RecordId> roots = new LinkedHashMap<>();
+        childId(superRoot, "checkpoints").ifPresent(checkpoints ->
+                NodeRecord.read(reader, templates, checkpoints).forEachChild((name, checkpoint) ->
+                        childId(checkpoint, "root").ifPresent(root -> roots.put(name, root))));
+        return roots;
+    }
+
+    @Nonnull
+    private Optional<RecordId> childId(@Nonnull RecordId node, @Nonnull String name) {
+        RecordId[] child = new RecordId[1];
+        NodeRecord.read(reader, templates, node).forEachChild((childName, childId) -> {
+            if (name.equals(childName)) {
+                child[0] = childId;
+            }
+        });
+        return Optional.ofNullable(child[0]);
+    }
+
+    private static final class CheckpointKey {
+        @Nonnull
+        final String name;
+
+        @Nonnull
+        final RecordId root;
+
+        CheckpointKey(@Nonnull String name, @Nonnull RecordId root) {
+            this.name = name;
+            this.root = root;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (other == null || getClass() != other.getClass()) {
+                return false;
+            }
+            CheckpointKey that = (CheckpointKey) other;
+            return name.equals(that.name) && root.equals(that.root);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(name, root);
+        }
+    }
+
 }
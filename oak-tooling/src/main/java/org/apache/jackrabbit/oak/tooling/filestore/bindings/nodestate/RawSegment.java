@@ -0,0 +1,422 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.UUID;
+
+import javax.annotation.Nonnull;
+
+import org.apache.jackrabbit.oak.tooling.filestore.api.Record;
+
+/**
+ * A read only view on the raw data of a segment. Provides access to the
+ * segment header, the references, the record table and the content of
+ * individual records without going through the {@link Record} API.
+ * <p>
+ * Bulk segments have neither header, references nor record table. They
+ * consist of {@link Record.Type#BLOCK BLOCK} records only, whose record number
+ * is their offset.
+ * <p>
+ * The layout of a segment is:
+ * <pre>
+ * +--------+-----------------------+---------------------------+-----  ----+
+ * | header | references (16 bytes) | record table (9 bytes)    | .. data ..|
+ * +--------+-----------------------+---------------------------+-----  ----+
+ * </pre>
+ * The data of a record is located relative to the end of the segment: a record
+ * with offset {@code o} in the record table starts at {@code length - (MAX_SEGMENT_SIZE - o)}.
+ * <p>
+ * Record ids are stored as a 2 byte index into the references, where {@code 0}
+ * refers to the segment itself, followed by a 4 byte record number.
+ */
+public final class RawSegment {
+
+    /**
+     * Size of the segment header
+     */
+    public static final int HEADER_SIZE = 32;
+
+    /**
+     * Maximal size of a segment
+     */
+    public static final int MAX_SEGMENT_SIZE = 1 << 18;
+
+    /**
+     * Number of bytes of a serialised record id
+     */
+    public static final int RECORD_ID_BYTES = 6;
+
+    /**
+     * Oldest segment version supported. Earlier versions use a different record layout.
+     */
+    public static final int MIN_VERSION = 12;
+
+    /**
+     * Newest segment version supported
+     */
+    public static final int MAX_VERSION = 13;
+
+    private static final int VERSION_OFFSET = 3;
+
+    private static final int FULL_GENERATION_OFFSET = 4;
+
+    private static final int GENERATION_OFFSET = 10;
+
+    private static final int REFERENCE_COUNT_OFFSET = 14;
+
+    private static final int RECORD_COUNT_OFFSET = 18;
+
+    private static final int REFERENCE_SIZE = 16;
+
+    private static final int RECORD_TABLE_ENTRY_SIZE = 9;
+
+    private static final Record.Type[] RECORD_TYPES = Record.Type.values();
+
+    @Nonnull
+    private final UUID id;
+
+    @Nonnull
+    private final ByteBuffer data;
+
+    private final boolean bulk;
+
+    private final int referenceCount;
+
+    /**
+     * Record table indexed by record number: the offset of the record, or -1 if there is no such record
+     */
+    @Nonnull
+    private final int[] offsets;
+
+    /**
+     * Record table indexed by record number: the ordinal of the record type
+     */
+    @Nonnull
+    private final byte[] types;
+
+    private RawSegment(@Nonnull UUID id, @Nonnull ByteBuffer data, boolean bulk) {
+        this.id = id;
+        this.data = data;
+        this.bulk = bulk;
+        this.referenceCount = bulk ? 0 : data.getInt(REFERENCE_COUNT_OFFSET);
+
+        int length = data.limit();
+        int recordCount = bulk ? 0 : data.getInt(RECORD_COUNT_OFFSET);
+        int table = HEADER_SIZE + referenceCount * REFERENCE_SIZE;
+        checkArgument(referenceCount >= 0 && recordCount >= 0
+                && (long) table + (long) recordCount * RECORD_TABLE_ENTRY_SIZE <= length,
+                "Invalid reference count %s or record count %s in segment %s", referenceCount, recordCount, id);
+
+        int maxNumber = -1;
+        for (int k = 0; k < recordCount; k++) {
+            int entry = table + k * RECORD_TABLE_ENTRY_SIZE;
+            int number = data.getInt(entry);
+            checkArgument(number >= 0 && number < MAX_SEGMENT_SIZE,
+                    "Invalid record number %s in segment %s", number, id);
+            int type = data.get(entry + 4);
+            checkArgument(type >= 0 && type < RECORD_TYPES.length,
+                    "Invalid type %s of record %s in segment %s", type, number, id);
+            int offset = data.getInt(entry + 5);
+            checkArgument(offset >= MAX_SEGMENT_SIZE - length && offset < MAX_SEGMENT_SIZE,
+                    "Invalid offset %s of record %s in segment %s", offset, number, id);
+            maxNumber = Math.max(maxNumber, number);
+        }
+
+        this.offsets = new int[maxNumber + 1];
+        this.types = new byte[maxNumber + 1];
+        Arrays.fill(offsets, -1);
+        for (int k = 0; k < recordCount; k++) {
+            int entry = table + k * RECORD_TABLE_ENTRY_SIZE;
+            int number = data.getInt(entry);
+            types[number] = data.get(entry + 4);
+            offsets[number] = data.getInt(entry + 5);
+        }
+    }
+
+    /**
+     * Parse the raw data of a segment. Whether the segment is a data or a bulk
+     * segment is determined from its id.
+     * @param id    the id of the segment
+     * @param data  the raw data of the segment. The array must not be modified afterwards.
+     * @return  a new {@code RawSegment} backed by {@code data}
+     * @throws IllegalArgumentException  if {@code id} is the id of a data segment but
+     *                                   {@code data} is not the data of a data segment,
+     *                                   its version is not supported or its header or
+     *                                   record table is corrupt
+     */
+    @Nonnull
+    public static RawSegment parse(@Nonnull UUID id, @Nonnull byte[] data) {
+        boolean bulk = isBulkSegmentId(id);
+        checkArgument(bulk || data.length >= HEADER_SIZE
+                && data[0] == '0' && data[1] == 'a' && data[2] == 'K',
+                "Not a data segment: %s", id);
+        checkArgument(bulk || data[VERSION_OFFSET] >= MIN_VERSION && data[VERSION_OFFSET] <= MAX_VERSION,
+                "Unsupported version %s of segment %s", bulk ? 0 : data[VERSION_OFFSET], id);
+        return new RawSegment(id, ByteBuffer.wrap(data).asReadOnlyBuffer(), bulk);
+    }
+
+    /**
+     * @param id  a segment id
+     * @return  {@code true} iff {@code id} is the id of a bulk segment
+     */
+    public static boolean isBulkSegmentId(@Nonnull UUID id) {
+        return (id.getLeastSignificantBits() >>> 60) == 0xBL;
+    }
+
+    /**
+     * @return  {@code true} iff this is a bulk segment
+     */
+    public boolean isBulk() {
+        return bulk;
+    }
+
+    /**
+     * @return  the id of this segment
+     */
+    @Nonnull
+    public UUID id() {
+        return id;
+    }
+
+    /**
+     * @return  the length of this segment in bytes
+     */
+    public int length() {
+        return data.limit();
+    }
+
+    /**
+     * @return  the segment version
+     */
+    public int version() {
+        return data.get(VERSION_OFFSET);
+    }
+
+    /**
+     * @return  the garbage collection generation
+     */
+    public int generation() {
+        return data.getInt(GENERATION_OFFSET);
+    }
+
+    /**
+     * @return  the full garbage collection generation
+     */
+    public int fullGeneration() {
+        return data.getInt(FULL_GENERATION_OFFSET) & 0x7fffffff;
+    }
+
+    /**
+     * @return  {@code true} iff this segment has been written by the compactor
+     */
+    public boolean compacted() {
+        return data.getInt(FULL_GENERATION_OFFSET) < 0;
+    }
+
+    /**
+     * @return  the number of segments referenced from this segment
+     */
+    public int referenceCount() {
+        return referenceCount;
+    }
+
+    /**
+     * @param index  index of the reference, from {@code 0} to {@code referenceCount() - 1}
+     * @return  the id of the referenced segment
+     */
+    @Nonnull
+    public UUID reference(int index) {
+        checkArgument(index >= 0 && index < referenceCount, "Invalid reference index %s", index);
+        int position = HEADER_SIZE + index * REFERENCE_SIZE;
+        return new UUID(data.getLong(position), data.getLong(position + 8));
+    }
+
+    /**
+     * @return  the upper bound (exclusive) of the record numbers in the record
+     *          table of this segment. Always {@code 0} for bulk segments.
+     */
+    public int recordNumberLimit() {
+        return offsets.length;
+    }
+
+    /**
+     * @param number  a record number
+     * @return  {@code true} iff this segment contains a record with the given number
+     */
+    public boolean hasRecord(int number) {
+        if (bulk) {
+            return number >= MAX_SEGMENT_SIZE - length() && number < MAX_SEGMENT_SIZE;
+        }
+        return number >= 0 && number < offsets.length && offsets[number] >= 0;
+    }
+
+    /**
+     * @param number  a record number
+     * @return  the type of the record
+     */
+    @Nonnull
+    public Record.Type recordType(int number) {
+        checkRecord(number);
+        return bulk ? Record.Type.BLOCK : RECORD_TYPES[types[number]];
+    }
+
+    /**
+     * @param number  a record number
+     * @return  the position of the record within the raw data of this segment
+     */
+    public int position(int number) {
+        checkRecord(number);
+        return length() - (MAX_SEGMENT_SIZE - (bulk ? number : offsets[number]));
+    }
+
+    private int checkRecord(int number) {
+        checkArgument(hasRecord(number), "No record %s in segment %s", number, id);
+        return number;
+    }
+
+    public byte readByte(int number, int offset) {
+        return data.get(position(number) + offset);
+    }
+
+    public short readShort(int number, int offset) {
+        return data.getShort(position(number) + offset);
+    }
+
+    public int readInt(int number, int offset) {
+        return data.getInt(position(number) + offset);
+    }
+
+    public long readLong(int number, int offset) {
+        return data.getLong(position(number) + offset);
+    }
+
+    /**
+     * @param number  a record number
+     * @param offset  offset within the record
+     * @param length  number of bytes to read
+     * @return  a copy of {@code length} bytes of the record starting at {@code offset}
+     */
+    @Nonnull
+    public byte[] readBytes(int number, int offset, int length) {
+        byte[] bytes = new byte[length];
+        ByteBuffer buffer = data.duplicate();
+        buffer.position(position(number) + offset);
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * @param number  a record number
+     * @param offset  offset within the record
+     * @param length  number of bytes to decode
+     * @return  the UTF-8 decoded {@code length} bytes of the record starting at {@code offset}
+     */
+    @Nonnull
+    public String readString(int number, int offset, int length) {
+        return new String(readBytes(number, offset, length), UTF_8);
+    }
+
+    /**
+     * Read a record id stored in a record of this segment
+     * @param number  a record number
+     * @param offset  offset of the record id within the record
+     * @return  the record id
+     */
+    @Nonnull
+    public RecordId readRecordId(int number, int offset) {
+        int position = position(number) + offset;
+        int index = data.getShort(position) & 0xffff;
+        int recordNumber = data.getInt(position + 2);
+        UUID segmentId = index == 0 ? id : reference(index - 1);
+        return new RecordId(segmentId, recordNumber);
+    }
+
+    /**
+     * @param number  a record number
+     * @return  the id of the record with the given number in this segment
+     */
+    @Nonnull
+    public RecordId recordId(int number) {
+        return new RecordId(id, number);
+    }
+
+    @Override
+    public String toString() {
+        return "RawSegment{id=" + id + ", length=" + length() + '}';
+    }
+
+    /**
+     * The id of a record: the id of the segment containing the record and
+     * the number of the record within that segment.
+     */
+    public static final class RecordId {
+        private final long msb;
+        private final long lsb;
+        private final int number;
+
+        public RecordId(@Nonnull UUID segmentId, int number) {
+            this.msb = segmentId.getMostSignificantBits();
+            this.lsb = segmentId.getLeastSignificantBits();
+            this.number = number;
+        }
+
+        /**
+         * @return  the id of the segment containing the record
+         */
+        @Nonnull
+        public UUID segmentId() {
+            return new UUID(msb, lsb);
+        }
+
+        /**
+         * @return  the number of the record within its segment
+         */
+        public int number() {
+            return number;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (other == null || getClass() != other.getClass()) {
+                return false;
+            }
+            RecordId that = (RecordId) other;
+            return msb == that.msb && lsb == that.lsb && number == that.number;
+        }
+
+        @Override
+        public int hashCode() {
+            long h = msb * 31 + lsb;
+            return (int) (h ^ (h >>> 32)) * 31 + number;
+        }
+
+        @Override
+        public String toString() {
+            return segmentId() + ":" + number;
+        }
+    }
+}
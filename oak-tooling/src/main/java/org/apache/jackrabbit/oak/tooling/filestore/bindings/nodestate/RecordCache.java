@@ -0,0 +1,189 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.Nonnull;
+
+import com.google.common.cache.CacheStats;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Record;
+
+/**
+ * A bounded cache of {@link Record records} keyed by the most and least
+ * significant bits of their segment id and their record number. Probing
+ * the cache does not allocate.
+ * <p>
+ * The cache is two way set associative: each key maps to a set of two
+ * adjacent slots. A record put into a full set takes the first slot,
+ * moving the record there to the second slot and evicting the record
+ * previously in the second slot. The number of slots is the requested size
+ * rounded up to the next power of two (and at least two). A cache of size
+ * {@code 0} never caches anything.
+ * <p>
+ * Instances are safe for concurrent use.
+ */
+class RecordCache {
+
+    /**
+     * A cache of size {@code 0}
+     */
+    static final RecordCache DISABLED = new RecordCache(0);
+
+    @Nonnull
+    private final AtomicReferenceArray<Entry> entries;
+
+    private final int mask;
+
+    @Nonnull
+    private final LongAdder hitCount = new LongAdder();
+
+    @Nonnull
+    private final LongAdder missCount = new LongAdder();
+
+    @Nonnull
+    private final LongAdder evictionCount = new LongAdder();
+
+    private RecordCache(int capacity) {
+        this.entries = new AtomicReferenceArray<>(capacity);
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * @param size  the maximal number of cached records
+     * @return  a new {@code RecordCache} instance
+     */
+    @Nonnull
+    static RecordCache newRecordCache(int size) {
+        checkArgument(size >= 0 && size <= 1 << 30, "Invalid cache size %s", size);
+        return size == 0
+            ? DISABLED
+            : new RecordCache(Math.max(2, Integer.highestOneBit(size) == size ? size : Integer.highestOneBit(size) << 1));
+    }
+
+    /**
+     * @return  the number of slots of this cache
+     */
+    int capacity() {
+        return entries.length();
+    }
+
+    /**
+     * @param segmentId  id of the segment containing the record
+     * @param number     number of the record
+     * @return  the cached record if any
+     */
+    @Nonnull
+    Optional<Record> get(@Nonnull UUID segmentId, int number) {
+        return get(segmentId.getMostSignificantBits(), segmentId.getLeastSignificantBits(), number);
+    }
+
+    /**
+     * @param msb     most significant bits of the id of the segment containing the record
+     * @param lsb     least significant bits of the id of the segment containing the record
+     * @param number  number of the record
+     * @return  the cached record if any
+     */
+    @Nonnull
+    Optional<Record> get(long msb, long lsb, int number) {
+        if (mask < 0) {
+            return Optional.empty();
+        }
+        int slot = slot(msb, lsb, number);
+        for (int k = 0; k < 2; k++) {
+            Entry entry = entries.get(slot ^ k);
+            if (entry != null && entry.matches(msb, lsb, number)) {
+                hitCount.increment();
+                return entry.record;
+            }
+        }
+        missCount.increment();
+        return Optional.empty();
+    }
+
+    /**
+     * Cache a record, evicting the least recently put record of its set if the
+     * set is full.
+     * @param msb     most significant bits of the id of the segment containing the record
+     * @param lsb     least significant bits of the id of the segment containing the record
+     * @param number  number of the record
+     * @param record  the record
+     * @return  {@code record}
+     */
+    @Nonnull
+    Optional<Record> put(long msb, long lsb, int number, @Nonnull Optional<Record> record) {
+        if (mask >= 0 && record.isPresent()) {
+            int slot = slot(msb, lsb, number);
+            Entry first = entries.getAndSet(slot, new Entry(msb, lsb, number, record));
+            if (first != null && !first.matches(msb, lsb, number)) {
+                Entry second = entries.getAndSet(slot ^ 1, first);
+                if (second != null && !second.matches(msb, lsb, number)) {
+                    evictionCount.increment();
+                }
+            }
+        }
+        return record;
+    }
+
+    /**
+     * Cache statistics. Each lookup of a cached record counts as a hit, each
+     * other lookup as a miss. Load counts and times are not tracked.
+     * @return  the statistics of this cache
+     */
+    @Nonnull
+    CacheStats stats() {
+        return new CacheStats(hitCount.sum(), missCount.sum(), 0, 0, 0, evictionCount.sum());
+    }
+
+    private int slot(long msb, long lsb, int number) {
+        long h = (msb * 0x9e3779b97f4a7c15L) ^ (lsb * 0xc2b2ae3d27d4eb4fL) ^ number;
+        h ^= h >>> 29;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    @Override
+    public String toString() {
+        CacheStats stats = stats();
+        return "RecordCache{capacity=" + capacity() + ", hits=" + stats.hitCount() +
+                ", misses=" + stats.missCount() + ", hitRate=" + stats.hitRate() + '}';
+    }
+
+    private static final class Entry {
+        private final long msb;
+        private final long lsb;
+        private final int number;
+        @Nonnull private final Optional<Record> record;
+
+        Entry(long msb, long lsb, int number, @Nonnull Optional<Record> record) {
+            this.msb = msb;
+            this.lsb = lsb;
+            this.number = number;
+            this.record = record;
+        }
+
+        boolean matches(long msb, long lsb, int number) {
+            return this.msb == msb && this.lsb == lsb && this.number == number;
+        }
+    }
+}
@@ -0,0 +1,323 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import javax.annotation.Nonnull;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import org.apache.jackrabbit.oak.tooling.filestore.api.SegmentStore;
+import org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.RawSegment.RecordId;
+
+/**
+ * Reader for records spanning one or more {@link RawSegment raw segments}.
+ * Resolves record ids to segments and decodes values, lists and maps.
+ * <p>
+ * Readers created from a segment store are safe for concurrent use, readers
+ * created from a function are if the function is.
+ */
+public class RecordReader {
+
+    /**
+     * Size of a list bucket
+     */
+    public static final int LEVEL_SIZE = 255;
+
+    /**
+     * Size of a block of a long value
+     */
+    public static final int BLOCK_SIZE = 4096;
+
+    private static final int SMALL_LIMIT = 1 << 7;
+
+    private static final int MEDIUM_LIMIT = (1 << 14) + SMALL_LIMIT;
+
+    private static final int MAP_SIZE_BITS = 28;
+
+    private static final int MAP_BUCKETS_PER_LEVEL = 32;
+
+    private static final int MAP_MAX_LEVELS = 7;
+
+    @Nonnull
+    private final Function<UUID, Optional<RawSegment>> segments;
+
+    /**
+     * Create a new reader reading segments from a segment store. The most
+     * recently used raw segments are cached.
+     * @param store      the segment store
+     * @param cacheSize  maximal number of cached segments
+     * @return  a new {@code RecordReader} instance
+     */
+    @Nonnull
+    public static RecordReader newRecordReader(@Nonnull SegmentStore store, int cacheSize) {
+        LoadingCache<UUID, Optional<RawSegment>> cache = CacheBuilder.newBuilder()
+                .maximumSize(cacheSize)
+                .build(new CacheLoader<UUID, Optional<RawSegment>>() {
+                    @Override
+                    public Optional<RawSegment> load(@Nonnull UUID id) {
+                        return store.segment(id)
+                                .map(segment -> RawSegment.parse(id, LoadedSegment.bytes(segment)));
+                    }
+                });
+        return new RecordReader(cache::getUnchecked);
+    }
+
+    /**
+     * Create a new reader resolving segments through a function.
+     * @param segments  function resolving segment ids to raw segments
+     * @return  a new {@code RecordReader} instance
+     */
+    @Nonnull
+    public static RecordReader newRecordReader(@Nonnull Function<UUID, Optional<RawSegment>> segments) {
+        return new RecordReader(segments);
+    }
+
+    private RecordReader(@Nonnull Function<UUID, Optional<RawSegment>> segments) {
+        this.segments = segments;
+    }
+
+    /**
+     * @param id  a segment id
+     * @return  the raw segment with the given id
+     * @throws IllegalStateException  if no segment with the given id exists
+     */
+    @Nonnull
+    public RawSegment segment(@Nonnull UUID id) {
+        return segments.apply(id)
+                .orElseThrow(() -> new IllegalStateException("Segment not found: " + id));
+    }
+
+    /**
+     * Read a record id stored in a record.
+     * @param id      the id of the record containing the record id
+     * @param offset  the offset of the record id within the record
+     * @return  the record id
+     */
+    @Nonnull
+    public RecordId readRecordId(@Nonnull RecordId id, int offset) {
+        return segment(id.segmentId()).readRecordId(id.number(), offset);
+    }
+
+    /**
+     * @param id  the id of a value record
+     * @return  {@code true} iff the value is stored in the segment store, {@code false}
+     *          if the value record only contains a reference to an external binary.
+     */
+    public boolean isInlineValue(@Nonnull RecordId id) {
+        return (segment(id.segmentId()).readByte(id.number(), 0) & 0xe0) != 0xe0;
+    }
+
+    /**
+     * @param id  the id of a value record
+     * @return  the length in bytes of the value
+     */
+    public long readLength(@Nonnull RecordId id) {
+        RawSegment segment = segment(id.segmentId());
+        int number = id.number();
+        byte head = segment.readByte(number, 0);
+        if ((head & 0x80) == 0) {
+            return head;
+        } else if ((head & 0xc0) == 0x80) {
+            return (segment.readShort(number, 0) & 0x3fff) + SMALL_LIMIT;
+        } else if ((head & 0xe0) == 0xc0) {
+            return (segment.readLong(number, 0) & 0x1fffffffffffffffL) + MEDIUM_LIMIT;
+        } else {
+            throw new IllegalStateException("Not an inline value: " + id);
+        }
+    }
+
+    /**
+     * @param id  the id of a value record
+     * @return  the ids of the block records of a long value or an empty list
+     *          for values stored inline.
+     */
+    @Nonnull
+    public List<RecordId> readBlocks(@Nonnull RecordId id) {
+        long length = readLength(id);
+        if (length < MEDIUM_LIMIT) {
+            return new ArrayList<>();
+        }
+        int blockCount = (int) ((length + BLOCK_SIZE - 1) / BLOCK_SIZE);
+        return readList(readRecordId(id, 8), blockCount);
+    }
+
+    /**
+     * @param id  the id of a value record
+     * @return  the bytes of the value
+     */
+    @Nonnull
+    public byte[] readValue(@Nonnull RecordId id) {
+        RawSegment segment = segment(id.segmentId());
+        int number = id.number();
+        long length = readLength(id);
+        if (length < SMALL_LIMIT) {
+            return segment.readBytes(number, 1, (int) length);
+        } else if (length < MEDIUM_LIMIT) {
+            return segment.readBytes(number, 2, (int) length);
+        }
+
+        checkArgument(length <= Integer.MAX_VALUE, "Value too large: %s", id);
+        byte[] value = new byte[(int) length];
+        int position = 0;
+        for (RecordId block : readBlocks(id)) {
+            int n = Math.min(BLOCK_SIZE, value.length - position);
+            System.arraycopy(segment(block.segmentId()).readBytes(block.number(), 0, n), 0, value, position, n);
+            position += n;
+        }
+        return value;
+    }
+
+    /**
+     * @param id  the id of a value record
+     * @return  the UTF-8 decoded value
+     */
+    @Nonnull
+    public String readString(@Nonnull RecordId id) {
+        return new String(readValue(id), UTF_8);
+    }
+
+    /**
+     * @param id     the id of a list record
+     * @param size   the number of elements of the list
+     * @param index  the index of the element
+     * @return  the record id at {@code index} of the list
+     */
+    @Nonnull
+    public RecordId readListEntry(@Nonnull RecordId id, int size, int index) {
+        checkArgument(index >= 0 && index < size, "Index %s out of bounds [0, %s)", index, size);
+        while (size > 1) {
+            int bucketSize = bucketSize(size);
+            int bucketIndex = index / bucketSize;
+            id = readRecordId(id, bucketIndex * RawSegment.RECORD_ID_BYTES);
+            size = Math.min(bucketSize, size - bucketIndex * bucketSize);
+            index = index % bucketSize;
+        }
+        return id;
+    }
+
+    /**
+     * @param id    the id of a list record
+     * @param size  the number of elements of the list
+     * @return  all record ids of the list
+     */
+    @Nonnull
+    public List<RecordId> readList(@Nonnull RecordId id, int size) {
+        List<RecordId> list = new ArrayList<>(size);
+        readList(id, size, list);
+        return list;
+    }
+
+    private void readList(@Nonnull RecordId id, int size, @Nonnull List<RecordId> list) {
+        if (size == 1) {
+            list.add(id);
+            return;
+        }
+        int bucketSize = bucketSize(size);
+        int bucketCount = (size + bucketSize - 1) / bucketSize;
+        RawSegment segment = segment(id.segmentId());
+        for (int k = 0; k < bucketCount; k++) {
+            RecordId bucket = segment.readRecordId(id.number(), k * RawSegment.RECORD_ID_BYTES);
+            int n = Math.min(bucketSize, size - k * bucketSize);
+            if (bucketSize == 1) {
+                list.add(bucket);
+            } else {
+                readList(bucket, n, list);
+            }
+        }
+    }
+
+    /**
+     * Read all entries of a map record. The order of the entries is
+     * unspecified.
+     * @param id        the id of a map record
+     * @param consumer  consumer receiving the record ids of the key and
+     *                  the value of each entry. Keys are string value records.
+     */
+    public void readMap(@Nonnull RecordId id, @Nonnull BiConsumer<RecordId, RecordId> consumer) {
+        readMap(id, (hash, key, value) -> consumer.accept(key, value));
+    }
+
+    private interface MapEntryConsumer {
+        void accept(int hash, @Nonnull RecordId key, @Nonnull RecordId value);
+    }
+
+    private void readMap(@Nonnull RecordId id, @Nonnull MapEntryConsumer consumer) {
+        RawSegment segment = segment(id.segmentId());
+        int number = id.number();
+        int head = segment.readInt(number, 0);
+
+        if (head == -1) {
+            // Diff against a base map: replaces the value of a single key
+            int hash = segment.readInt(number, 4);
+            RecordId key = segment.readRecordId(number, 8);
+            RecordId value = segment.readRecordId(number, 8 + RawSegment.RECORD_ID_BYTES);
+            RecordId base = segment.readRecordId(number, 8 + 2 * RawSegment.RECORD_ID_BYTES);
+            String name = readString(key);
+            readMap(base, (h, k, v) -> {
+                if (h != hash || !(k.equals(key) || name.equals(readString(k)))) {
+                    consumer.accept(h, k, v);
+                }
+            });
+            consumer.accept(hash, key, value);
+            return;
+        }
+
+        int level = head >>> MAP_SIZE_BITS;
+        int size = head & ((1 << MAP_SIZE_BITS) - 1);
+        if (size == 0) {
+            return;
+        }
+
+        if (size > MAP_BUCKETS_PER_LEVEL && level < MAP_MAX_LEVELS) {
+            int bitmap = segment.readInt(number, 4);
+            int bucketCount = Integer.bitCount(bitmap);
+            for (int k = 0; k < bucketCount; k++) {
+                readMap(segment.readRecordId(number, 8 + k * RawSegment.RECORD_ID_BYTES), consumer);
+            }
+        } else {
+            int entries = 4 + size * 4;
+            for (int k = 0; k < size; k++) {
+                int offset = entries + k * 2 * RawSegment.RECORD_ID_BYTES;
+                consumer.accept(
+                        segment.readInt(number, 4 + k * 4),
+                        segment.readRecordId(number, offset),
+                        segment.readRecordId(number, offset + RawSegment.RECORD_ID_BYTES));
+            }
+        }
+    }
+
+    private static int bucketSize(int size) {
+        int bucketSize = 1;
+        while (bucketSize * LEVEL_SIZE < size) {
+            bucketSize *= LEVEL_SIZE;
+        }
+        return bucketSize;
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate;
+
+import static java.util.Collections.emptyMap;
+import static org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.Streams.asStream;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Nonnull;
+
+import org.apache.jackrabbit.oak.spi.state.ChildNodeEntry;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+
+/**
+ * An index from segment ids to the name of the child node of the tar
+ * containing the segment. The index is built on first access by
+ * enumerating the segments of all tars once. Subsequent lookups only
+ * need to access the single tar containing the segment.
+ * <p>
+ * The index is maintained incrementally for stores that keep growing
+ * while being inspected: {@link #refresh()} compares the names and sizes
+ * of the tars with those seen by the previous refresh and only enumerates
+ * the segments of tars that are new or whose size changed. Entries of tars
+ * that have been removed, e.g. by a cleanup, are dropped from the index.
+ * Refreshing on lookup misses is rate limited by {@link #refresh(long)}.
+ * <p>
+ * Segments are expected to be child nodes of their tar named by their
+ * segment id. Lookups fall back to scanning the tar otherwise.
+ * <p>
+ * Instances are safe for concurrent use. Refreshes are serialised, while
+ * lookups proceed concurrently with a refresh. Segments are added to the
+ * index before entries of removed tars are dropped, such that lookups of
+ * segments moved to a new tar do not miss while a refresh is in progress.
+ */
+class SegmentIndex {
+
+    @Nonnull
+    private final NodeState tars;
+
+    @Nonnull
+    private final ConcurrentMap<UUID, String> index = new ConcurrentHashMap<>();
+
+    /**
+     * Sizes of the tars by name as of the last refresh or {@code null} before the first one
+     */
+    private volatile Map<String, Long> tarSizes;
+
+    /**
+     * Time of the last refresh in nanoseconds as returned by {@link System#nanoTime()}
+     */
+    private volatile long lastRefresh;
+
+    /**
+     * @param tars  the node state containing the tars
+     */
+    SegmentIndex(@Nonnull NodeState tars) {
+        this.tars = tars;
+    }
+
+    @Nonnull
+    private Map<UUID, String> index() {
+        if (tarSizes == null) {
+            refresh();
+        }
+        return index;
+    }
+
+    /**
+     * Bring the index up to date with the tars unless it has been refreshed
+     * less than {@code minInterval} nanoseconds ago. A call waiting for a
+     * concurrent refresh does not refresh again unless that refresh is
+     * already older than {@code minInterval}.
+     * @param minInterval  minimal time between refreshes in nanoseconds
+     * @return  the number of tars whose segments have been enumerated
+     */
+    int refresh(long minInterval) {
+        if (tarSizes != null && System.nanoTime() - lastRefresh < minInterval) {
+            return 0;
+        }
+        synchronized (this) {
+            if (tarSizes != null && System.nanoTime() - lastRefresh < minInterval) {
+                return 0;
+            }
+            return refresh();
+        }
+    }
+
+    /**
+     * Bring the index up to date with the tars.
+     * @return  the number of tars whose segments have been enumerated
+     */
+    synchronized int refresh() {
+        Map<String, Long> current = new LinkedHashMap<>();
+        for (ChildNodeEntry tar : tars.getChildNodeEntries()) {
+            current.put(tar.getName(), NodeBackedTar.newTar(tar.getNodeState()).size());
+        }
+
+        Map<String, Long> previous = tarSizes == null ? emptyMap() : tarSizes;
+        Set<String> removed = new HashSet<>(previous.keySet());
+        removed.removeAll(current.keySet());
+
+        int scanned = 0;
+        for (Map.Entry<String, Long> tar : current.entrySet()) {
+            String name = tar.getKey();
+            if (!Objects.equals(previous.get(name), tar.getValue())) {
+                for (ChildNodeEntry segment : tars.getChildNode(name).getChildNodeEntries()) {
+                    // Prefer tars scanned earlier unless the segment has moved out of a removed tar
+                    index.merge(NodeStateBackedSegment.newSegment(segment.getNodeState()).id(), name,
+                            (indexed, added) -> removed.contains(indexed) ? added : indexed);
+                }
+                scanned++;
+            }
+        }
+        if (!removed.isEmpty()) {
+            index.values().removeIf(removed::contains);
+        }
+        tarSizes = current;
+        lastRefresh = System.nanoTime();
+        return scanned;
+    }
+
+    /**
+     * @return  the number of segments in the index
+     */
+    int size() {
+        return index().size();
+    }
+
+    /**
+     * @param id  segment id
+     * @return  {@code true} iff a segment with the given id exists in any tar
+     */
+    boolean contains(@Nonnull UUID id) {
+        return index().containsKey(id);
+    }
+
+    /**
+     * @param id  segment id
+     * @return  the node state of the segment with the given id
+     */
+    @Nonnull
+    Optional<NodeState> segment(@Nonnull UUID id) {
+        String name = index().get(id);
+        if (name == null) {
+            return Optional.empty();
+        }
+
+        NodeState tar = tars.getChildNode(name);
+        NodeState segment = tar.getChildNode(id.toString());
+        if (segment.exists()) {
+            return Optional.of(segment);
+        }
+
+        return asStream(tar.getChildNodeEntries())
+                .map(ChildNodeEntry::getNodeState)
+                .filter(node -> id.equals(NodeStateBackedSegment.newSegment(node).id()))
+                .findFirst();
+    }
+}
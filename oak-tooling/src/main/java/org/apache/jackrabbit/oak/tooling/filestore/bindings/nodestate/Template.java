@@ -0,0 +1,212 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate;
+
+import static java.util.Collections.unmodifiableList;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import javax.annotation.Nonnull;
+
+import org.apache.jackrabbit.oak.api.Type;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Record;
+import org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.RawSegment.RecordId;
+
+/**
+ * A decoded {@link Record.Type#TEMPLATE TEMPLATE} record. A template describes
+ * the primary type, the mixin types, the names and types of the properties
+ * and the shape of the child nodes shared by all nodes referring to it.
+ * <p>
+ * The layout of a template record is:
+ * <pre>
+ * head (int): primary type (bit 31), mixins (bit 30), zero child nodes (bit 29),
+ *             many child nodes (bit 28), mixin count (bits 18-27), property count (bits 0-17)
+ * [primary type id] [mixin ids]* [child name id] [property names list id] [property type]*
+ * </pre>
+ */
+public final class Template {
+
+    private final String primaryType;
+
+    @Nonnull
+    private final List<String> mixins;
+
+    private final boolean manyChildNodes;
+
+    private final String childName;
+
+    @Nonnull
+    private final List<Property> properties;
+
+    private Template(
+            String primaryType,
+            @Nonnull List<String> mixins,
+            boolean manyChildNodes,
+            String childName,
+            @Nonnull List<Property> properties) {
+        this.primaryType = primaryType;
+        this.mixins = unmodifiableList(mixins);
+        this.manyChildNodes = manyChildNodes;
+        this.childName = childName;
+        this.properties = unmodifiableList(properties);
+    }
+
+    /**
+     * Decode a template record.
+     * @param reader  reader for resolving records referenced from the template
+     * @param id      the id of the template record
+     * @return  the decoded template
+     */
+    @Nonnull
+    public static Template read(@Nonnull RecordReader reader, @Nonnull RecordId id) {
+        RawSegment segment = reader.segment(id.segmentId());
+        int number = id.number();
+        int head = segment.readInt(number, 0);
+        boolean hasPrimaryType = (head & (1 << 31)) != 0;
+        boolean hasMixins = (head & (1 << 30)) != 0;
+        boolean zeroChildNodes = (head & (1 << 29)) != 0;
+        boolean manyChildNodes = (head & (1 << 28)) != 0;
+        int mixinCount = (head >> 18) & ((1 << 10) - 1);
+        int propertyCount = head & ((1 << 18) - 1);
+
+        int offset = 4;
+        String primaryType = null;
+        if (hasPrimaryType) {
+            primaryType = reader.readString(segment.readRecordId(number, offset));
+            offset += RawSegment.RECORD_ID_BYTES;
+        }
+
+        List<String> mixins = new ArrayList<>(mixinCount);
+        if (hasMixins) {
+            for (int k = 0; k < mixinCount; k++) {
+                mixins.add(reader.readString(segment.readRecordId(number, offset)));
+                offset += RawSegment.RECORD_ID_BYTES;
+            }
+        }
+
+        String childName = null;
+        if (!zeroChildNodes && !manyChildNodes) {
+            childName = reader.readString(segment.readRecordId(number, offset));
+            offset += RawSegment.RECORD_ID_BYTES;
+        }
+
+        List<Property> properties = new ArrayList<>(propertyCount);
+        if (propertyCount > 0) {
+            List<RecordId> names = reader.readList(segment.readRecordId(number, offset), propertyCount);
+            offset += RawSegment.RECORD_ID_BYTES;
+            for (int k = 0; k < propertyCount; k++) {
+                byte type = segment.readByte(number, offset++);
+                properties.add(new Property(
+                        reader.readString(names.get(k)),
+                        Type.fromTag(Math.abs(type), type < 0)));
+            }
+        }
+
+        return new Template(primaryType, mixins, manyChildNodes, childName, properties);
+    }
+
+    /**
+     * @return  the primary type
+     */
+    @Nonnull
+    public Optional<String> primaryType() {
+        return Optional.ofNullable(primaryType);
+    }
+
+    /**
+     * @return  the mixin types
+     */
+    @Nonnull
+    public List<String> mixins() {
+        return mixins;
+    }
+
+    /**
+     * @return  {@code true} iff nodes of this template have no child nodes
+     */
+    public boolean hasNoChildNodes() {
+        return !manyChildNodes && childName == null;
+    }
+
+    /**
+     * @return  {@code true} iff nodes of this template have more than one
+     *          child node, which are stored in a map record.
+     */
+    public boolean hasManyChildNodes() {
+        return manyChildNodes;
+    }
+
+    /**
+     * @return  the name of the single child node. Empty if nodes of this
+     *          template have no or many child nodes.
+     */
+    @Nonnull
+    public Optional<String> childName() {
+        return Optional.ofNullable(childName);
+    }
+
+    /**
+     * @return  the names and types of the properties in the order their
+     *          values are stored in the node records
+     */
+    @Nonnull
+    public List<Property> properties() {
+        return properties;
+    }
+
+    @Override
+    public String toString() {
+        return "Template{primaryType=" + primaryType + ", mixins=" + mixins +
+                ", childNodes=" + (manyChildNodes ? "<many>" : childName == null ? "<none>" : childName) +
+                ", properties=" + properties + '}';
+    }
+
+    /**
+     * Name and type of a property of a template.
+     */
+    public static final class Property {
+        @Nonnull
+        private final String name;
+
+        @Nonnull
+        private final Type<?> type;
+
+        Property(@Nonnull String name, @Nonnull Type<?> type) {
+            this.name = name;
+            this.type = type;
+        }
+
+        @Nonnull
+        public String name() {
+            return name;
+        }
+
+        @Nonnull
+        public Type<?> type() {
+            return type;
+        }
+
+        @Override
+        public String toString() {
+            return name + '(' + type + ')';
+        }
+    }
+}
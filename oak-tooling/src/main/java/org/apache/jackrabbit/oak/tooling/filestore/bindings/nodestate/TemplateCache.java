@@ -0,0 +1,140 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate;
+
+import static org.apache.jackrabbit.oak.tooling.filestore.api.Record.Type.NODE;
+import static org.apache.jackrabbit.oak.tooling.filestore.api.Record.Type.TEMPLATE;
+
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+
+import javax.annotation.Nonnull;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Record;
+import org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.RawSegment.RecordId;
+
+/**
+ * A cache of decoded {@link Template templates} keyed by the id of their
+ * template record. Templates are heavily shared between nodes, such that a
+ * traversal decoding the template of each node through this cache only
+ * decodes each distinct template once.
+ * <p>
+ * The cache only applies to record level decoding, e.g. through {@link NodeRecord}.
+ * Node states obtained through the API, e.g. from {@link Record#root()}, are
+ * decoded by the binding and do not use this cache.
+ * <p>
+ * Instances are safe for concurrent use.
+ */
+public class TemplateCache {
+
+    @Nonnull
+    private final RecordReader reader;
+
+    @Nonnull
+    private final Cache<RecordId, Template> cache;
+
+    /**
+     * Create a new template cache.
+     * @param reader       reader for decoding template records
+     * @param maximumSize  maximal number of cached templates
+     * @return  a new {@code TemplateCache} instance
+     */
+    @Nonnull
+    public static TemplateCache newTemplateCache(@Nonnull RecordReader reader, long maximumSize) {
+        return new TemplateCache(reader, maximumSize);
+    }
+
+    private TemplateCache(@Nonnull RecordReader reader, long maximumSize) {
+        this.reader = reader;
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * @param id  the id of a template record
+     * @return  the decoded template
+     */
+    @Nonnull
+    public Template template(@Nonnull RecordId id) {
+        try {
+            return cache.get(id, () -> Template.read(reader, id));
+        } catch (UncheckedExecutionException e) {
+            throw (RuntimeException) e.getCause();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * @param id  the id of a node record
+     * @return  the decoded template of the node
+     */
+    @Nonnull
+    public Template nodeTemplate(@Nonnull RecordId id) {
+        // The template id follows the stable id of the node
+        return template(reader.readRecordId(id, RawSegment.RECORD_ID_BYTES));
+    }
+
+    /**
+     * @param record  a record of type {@link Record.Type#TEMPLATE} or {@link Record.Type#NODE}
+     * @return  the template decoded from {@code record} if it is a template record,
+     *          the template of the node if it is a node record and empty otherwise.
+     */
+    @Nonnull
+    public Optional<Template> template(@Nonnull Record record) {
+        RecordId id = new RecordId(record.segmentId(), record.number());
+        if (record.type() == TEMPLATE) {
+            return Optional.of(template(id));
+        } else if (record.type() == NODE) {
+            return Optional.of(nodeTemplate(id));
+        } else {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * @return  number of cached templates
+     */
+    public long size() {
+        return cache.size();
+    }
+
+    /**
+     * Cache statistics. Lookups of templates already present in the cache count
+     * as hits, each decoded template counts as a miss.
+     * @return  the statistics of this cache
+     */
+    @Nonnull
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    @Override
+    public String toString() {
+        CacheStats stats = cache.stats();
+        return "TemplateCache{size=" + cache.size() + ", hits=" + stats.hitCount() +
+                ", misses=" + stats.missCount() + ", hitRate=" + stats.hitRate() + '}';
+    }
+}
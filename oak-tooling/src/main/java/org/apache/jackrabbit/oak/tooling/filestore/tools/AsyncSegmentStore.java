@@ -0,0 +1,179 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jackrabbit.oak.tooling.filestore.tools;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.collect.Lists.newArrayList;
+import static org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.Streams.asStream;
+
+import java.util.Iterator;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import javax.annotation.Nonnull;
+
+import org.apache.jackrabbit.oak.tooling.filestore.api.Segment;
+import org.apache.jackrabbit.oak.tooling.filestore.api.SegmentStore;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Tar;
+import org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.LoadedSegment;
+
+/**
+ * An asynchronous facade to a {@link SegmentStore}. All I/O is performed
+ * on an {@link Executor} and the number of concurrently executing requests
+ * is limited to {@code maxInFlight}. Requests exceeding that limit are
+ * queued instead of blocking the caller.
+ * <p>
+ * Segments returned from this class are {@link LoadedSegment}s: their data,
+ * references and records have already been read into memory by the time
+ * the corresponding future completes.
+ * <p>
+ * This is mainly useful with high latency backends like remote persistence
+ * where keeping many requests in flight is key to throughput.
+ */
+public class AsyncSegmentStore {
+
+    @Nonnull
+    private final SegmentStore store;
+
+    @Nonnull
+    private final BoundedExecutor executor;
+
+    private final int prefetch;
+
+    /**
+     * Create a new asynchronous facade to a segment store.
+     * @param store        the underlying segment store
+     * @param executor     the executor to run requests on
+     * @param maxInFlight  maximal number of requests to run concurrently
+     * @param prefetch     number of segments to request ahead of the consumer
+     *                     when streaming segments.
+     * @return  a new {@code AsyncSegmentStore} instance
+     */
+    @Nonnull
+    public static AsyncSegmentStore newAsyncSegmentStore(
+            @Nonnull SegmentStore store,
+            @Nonnull Executor executor,
+            int maxInFlight,
+            int prefetch) {
+        checkArgument(maxInFlight > 0, "maxInFlight must be positive");
+        checkArgument(prefetch >= 0, "prefetch must not be negative");
+        return new AsyncSegmentStore(store, executor, maxInFlight, prefetch);
+    }
+
+    private AsyncSegmentStore(
+            @Nonnull SegmentStore store,
+            @Nonnull Executor executor,
+            int maxInFlight,
+            int prefetch) {
+        this.store = store;
+        this.executor = new BoundedExecutor(executor, maxInFlight);
+        this.prefetch = prefetch;
+    }
+
+    /**
+     * @return  the underlying segment store
+     */
+    @Nonnull
+    public SegmentStore store() {
+        return store;
+    }
+
+    /**
+     * @return  the number of requests currently executing
+     */
+    public int inFlight() {
+        return executor.inFlight();
+    }
+
+    /**
+     * @return  the number of requests waiting for execution
+     */
+    public int pending() {
+        return executor.pending();
+    }
+
+    /**
+     * Read a segment from the store asynchronously.
+     * @param id  the uuid of the segment to read.
+     * @return  a future completing with an optional segment with the given uuid
+     */
+    @Nonnull
+    public CompletableFuture<Optional<Segment>> segment(@Nonnull UUID id) {
+        return submit(() -> store.segment(id).map(LoadedSegment::load));
+    }
+
+    /**
+     * Load a segment asynchronously.
+     * @param segment  the segment to load
+     * @return  a future completing with the loaded segment
+     */
+    @Nonnull
+    public CompletableFuture<Segment> load(@Nonnull Segment segment) {
+        return submit(() -> LoadedSegment.load(segment));
+    }
+
+    /**
+     * @return  a future completing with the tar files of the segment store
+     *          in reverse chronological order.
+     */
+    @Nonnull
+    public CompletableFuture<Iterable<Tar>> tars() {
+        return submit(() -> newArrayList(store.tars()));
+    }
+
+    /**
+     * Stream the segments of a tar file. Up to {@code prefetch} segments
+     * ahead of the consumer are loaded concurrently.
+     * @param tar  the tar file
+     * @return  the loaded segments of {@code tar} in reverse chronological order.
+     */
+    @Nonnull
+    public Stream<Segment> segments(@Nonnull Tar tar) {
+        return asStream(() -> prefetch(tar.segments().iterator()));
+    }
+
+    /**
+     * Stream the segments of all tar files. Up to {@code prefetch} segments
+     * ahead of the consumer are loaded concurrently.
+     * @return  the loaded segments of all tar files in the order of
+     *          {@link SegmentStore#tars()} and {@link Tar#segments()}.
+     */
+    @Nonnull
+    public Stream<Segment> segments() {
+        return asStream(() -> prefetch(
+                asStream(store.tars())
+                    .flatMap(tar -> asStream(tar.segments()))
+                    .iterator()));
+    }
+
+    @Nonnull
+    private Iterator<Segment> prefetch(@Nonnull Iterator<Segment> segments) {
+        return new SegmentPrefetcher(segments, this::load, prefetch + 1, Long.MAX_VALUE);
+    }
+
+    @Nonnull
+    private <T> CompletableFuture<T> submit(@Nonnull Supplier<T> request) {
+        return executor.submit(request);
+    }
+
+}
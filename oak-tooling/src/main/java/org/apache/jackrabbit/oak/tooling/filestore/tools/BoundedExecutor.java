@@ -0,0 +1,146 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jackrabbit.oak.tooling.filestore.tools;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Runs at most {@code maxInFlight} tasks concurrently on an underlying
+ * {@link Executor}. Tasks exceeding that limit are queued instead of
+ * blocking the caller.
+ * <p>
+ * Tasks are handed to the underlying executor by whichever thread frees a
+ * slot, so that is where the underlying executor rejects them. A rejected
+ * task releases its slot and completes its future exceptionally instead of
+ * failing the thread handing it over.
+ */
+class BoundedExecutor {
+
+    @Nonnull
+    private final Executor executor;
+
+    private final int maxInFlight;
+
+    @Nonnull
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    @Nonnull
+    private final Queue<Submission<?>> pending = new ConcurrentLinkedQueue<>();
+
+    BoundedExecutor(@Nonnull Executor executor, int maxInFlight) {
+        checkArgument(maxInFlight > 0, "maxInFlight must be positive");
+        this.executor = executor;
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * @return  the number of tasks currently executing
+     */
+    int inFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * @return  the number of tasks waiting for execution
+     */
+    int pending() {
+        return pending.size();
+    }
+
+    /**
+     * Run {@code request} on this executor.
+     * @return  a future completing with the value returned from {@code request}
+     *          or exceptionally with the exception thrown from it or with a
+     *          {@code RejectedExecutionException} if the underlying executor
+     *          rejected it.
+     */
+    @Nonnull
+    <T> CompletableFuture<T> submit(@Nonnull Supplier<T> request) {
+        Submission<T> submission = new Submission<>(request);
+        pending.add(submission);
+        drain();
+        return submission.result;
+    }
+
+    private void drain() {
+        while (!pending.isEmpty()) {
+            int n = inFlight.get();
+            if (n >= maxInFlight) {
+                return;
+            }
+            if (inFlight.compareAndSet(n, n + 1)) {
+                Submission<?> task = pending.poll();
+                if (task == null) {
+                    inFlight.decrementAndGet();
+                } else {
+                    dispatch(task);
+                }
+            }
+        }
+    }
+
+    private void dispatch(@Nonnull Submission<?> task) {
+        try {
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    inFlight.decrementAndGet();
+                    drain();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.decrementAndGet();
+            task.result.completeExceptionally(e);
+        }
+    }
+
+    private static class Submission<T> implements Runnable {
+
+        @Nonnull
+        private final Supplier<T> request;
+
+        @Nonnull
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+
+        Submission(@Nonnull Supplier<T> request) {
+            this.request = request;
+        }
+
+        @Override
+        public void run() {
+            try {
+                result.complete(request.get());
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        }
+    }
+
+}
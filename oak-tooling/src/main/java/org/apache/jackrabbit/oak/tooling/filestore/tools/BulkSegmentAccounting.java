@@ -0,0 +1,340 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jackrabbit.oak.tooling.filestore.tools;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Collections.unmodifiableList;
+import static java.util.Comparator.comparingLong;
+import static org.apache.jackrabbit.oak.tooling.filestore.api.Record.Type.VALUE;
+import static org.apache.jackrabbit.oak.tooling.filestore.api.Segment.Type.BULK;
+import static org.apache.jackrabbit.oak.tooling.filestore.api.Segment.Type.DATA;
+import static org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.RecordReader.newRecordReader;
+import static org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.TemplateCache.newTemplateCache;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+
+import javax.annotation.Nonnull;
+import javax.jcr.PropertyType;
+
+import org.apache.jackrabbit.oak.tooling.filestore.api.JournalEntry;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Segment;
+import org.apache.jackrabbit.oak.tooling.filestore.api.SegmentStore;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Tar;
+import org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.LoadedSegment;
+import org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.NodeRecord;
+import org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.RawSegment;
+import org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.RawSegment.RecordId;
+import org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.RecordReader;
+import org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.TemplateCache;
+
+/**
+ * Attribute the content of {@link Segment.Type#BULK BULK} segments to the
+ * {@link org.apache.jackrabbit.oak.tooling.filestore.api.Record.Type#VALUE VALUE}
+ * records referencing it and optionally to the paths of the binary properties
+ * having those values.
+ * <p>
+ * A single pass over the raw data segments collects the block lists of all long
+ * values and builds a reverse map from bulk segments to the values whose blocks
+ * they contain. Paths are resolved by a single traversal of the node records
+ * reachable from the head of the journal. Paths are relative to the super root,
+ * i.e. they start with {@code /root} or {@code /checkpoints}. Subtrees shared
+ * between several paths are only traversed once, such that a value is only
+ * attributed to the first path it is found at within a shared subtree.
+ */
+public class BulkSegmentAccounting {
+
+    @Nonnull
+    private final SegmentStore store;
+
+    private final int maxPaths;
+
+    /**
+     * Create a new bulk segment accounting for a segment store, which does not resolve paths.
+     * @param store  the segment store
+     * @return  a new {@code BulkSegmentAccounting} instance
+     */
+    @Nonnull
+    public static BulkSegmentAccounting newBulkSegmentAccounting(@Nonnull SegmentStore store) {
+        return new BulkSegmentAccounting(store, 0);
+    }
+
+    private BulkSegmentAccounting(@Nonnull SegmentStore store, int maxPaths) {
+        this.store = store;
+        this.maxPaths = maxPaths;
+    }
+
+    /**
+     * @param maxPaths  maximal number of paths to resolve per value. {@code 0}
+     *                  disables the traversal resolving paths.
+     * @return  a new accounting resolving up to {@code maxPaths} paths per value
+     */
+    @Nonnull
+    public BulkSegmentAccounting withPaths(int maxPaths) {
+        checkArgument(maxPaths >= 0, "maxPaths must not be negative");
+        return new BulkSegmentAccounting(store, maxPaths);
+    }
+
+    /**
+     * Run the accounting.
+     * @return  the bulk segments of the store with the values referencing them
+     * @throws IllegalStateException  if paths are to be resolved but the journal is empty
+     */
+    @Nonnull
+    public Report analyse() {
+        Map<UUID, BulkSegment> bulkSegments = new LinkedHashMap<>();
+        Map<RecordId, List<ValueReference>> values = new HashMap<>();
+        RecordReader storeReader = newRecordReader(store, 64);
+
+        for (Tar tar : store.tars()) {
+            for (Segment segment : tar.segments()) {
+                if (segment.type() == BULK) {
+                    bulkSegments.computeIfAbsent(segment.id(), BulkSegment::new).length = segment.length();
+                }
+            }
+        }
+
+        for (Tar tar : store.tars()) {
+            for (Segment segment : tar.segments()) {
+                if (segment.type() != DATA) {
+                    continue;
+                }
+                RawSegment raw = RawSegment.parse(segment.id(), LoadedSegment.bytes(segment));
+                RecordReader reader = newRecordReader(id -> id.equals(raw.id())
+                        ? Optional.of(raw)
+                        : Optional.of(storeReader.segment(id)));
+                for (int number = 0; number < raw.recordNumberLimit(); number++) {
+                    if (raw.hasRecord(number) && raw.recordType(number) == VALUE) {
+                        collect(reader, raw.recordId(number), bulkSegments, values);
+                    }
+                }
+            }
+        }
+
+        if (maxPaths > 0 && !values.isEmpty()) {
+            Iterator<JournalEntry> entries = store.journalEntries().iterator();
+            if (!entries.hasNext()) {
+                throw new IllegalStateException("Empty journal");
+            }
+            JournalEntry head = entries.next();
+            resolvePaths(storeReader, new RecordId(head.segmentId(), head.recordNumber()), values);
+        }
+
+        List<BulkSegment> segments = new ArrayList<>(bulkSegments.values());
+        segments.forEach(segment -> segment.references.sort(comparingLong(ValueReference::byteCount).reversed()));
+        segments.sort(comparingLong(BulkSegment::length).reversed());
+        return new Report(segments);
+    }
+
+    private static void collect(
+            @Nonnull RecordReader reader,
+            @Nonnull RecordId id,
+            @Nonnull Map<UUID, BulkSegment> bulkSegments,
+            @Nonnull Map<RecordId, List<ValueReference>> values) {
+        if (!reader.isInlineValue(id)) {
+            return;
+        }
+        List<RecordId> blocks = reader.readBlocks(id);
+        if (blocks.isEmpty()) {
+            return;
+        }
+
+        long remaining = reader.readLength(id);
+        Map<UUID, ValueReference> references = new LinkedHashMap<>();
+        for (RecordId block : blocks) {
+            long n = Math.min(RecordReader.BLOCK_SIZE, remaining);
+            remaining -= n;
+            UUID segmentId = block.segmentId();
+            if (RawSegment.isBulkSegmentId(segmentId)) {
+                references.computeIfAbsent(segmentId, s -> new ValueReference(id)).byteCount += n;
+            }
+        }
+
+        references.forEach((segmentId, reference) -> {
+            bulkSegments.computeIfAbsent(segmentId, BulkSegment::new).references.add(reference);
+            values.computeIfAbsent(id, v -> new ArrayList<>()).add(reference);
+        });
+    }
+
+    private void resolvePaths(
+            @Nonnull RecordReader reader,
+            @Nonnull RecordId root,
+            @Nonnull Map<RecordId, List<ValueReference>> values) {
+        TemplateCache templates = newTemplateCache(reader, 10000);
+        Set<RecordId> visited = new HashSet<>();
+        Deque<Map.Entry<String, RecordId>> stack = new ArrayDeque<>();
+        stack.push(new HashMap.SimpleImmutableEntry<>("", root));
+
+        while (!stack.isEmpty()) {
+            Map.Entry<String, RecordId> entry = stack.pop();
+            String path = entry.getKey();
+            if (!visited.add(entry.getValue())) {
+                continue;
+            }
+
+            NodeRecord node = NodeRecord.read(reader, templates, entry.getValue());
+            node.forEachProperty((property, valueIds) -> {
+                if (property.type().tag() != PropertyType.BINARY) {
+                    return;
+                }
+                for (RecordId valueId : valueIds) {
+                    List<ValueReference> references = values.get(valueId);
+                    if (references != null) {
+                        for (ValueReference reference : references) {
+                            if (reference.paths.size() < maxPaths) {
+                                reference.paths.add(path + '/' + property.name());
+                            }
+                        }
+                    }
+                }
+            });
+            node.forEachChild((name, child) -> stack.push(
+                    new HashMap.SimpleImmutableEntry<>(path + '/' + name, child)));
+        }
+    }
+
+    /**
+     * A value record referencing a bulk segment.
+     */
+    public static final class ValueReference {
+        @Nonnull private final RecordId recordId;
+        @Nonnull private final List<String> paths = new ArrayList<>();
+        private long byteCount;
+
+        ValueReference(@Nonnull RecordId recordId) {
+            this.recordId = recordId;
+        }
+
+        /**
+         * @return  the id of the value record
+         */
+        @Nonnull
+        public RecordId recordId() {
+            return recordId;
+        }
+
+        /**
+         * @return  number of bytes of the value stored in the bulk segment
+         */
+        public long byteCount() {
+            return byteCount;
+        }
+
+        /**
+         * @return  paths of binary properties having the value. Empty if paths
+         *          were not resolved or the value is not reachable from the head.
+         */
+        @Nonnull
+        public List<String> paths() {
+            return unmodifiableList(paths);
+        }
+
+        @Override
+        public String toString() {
+            return recordId + " (bytes=" + byteCount + ", paths=" + paths + ')';
+        }
+    }
+
+    /**
+     * A bulk segment and the value records referencing it.
+     */
+    public static final class BulkSegment {
+        @Nonnull private final UUID segmentId;
+        @Nonnull private final List<ValueReference> references = new ArrayList<>();
+        private long length;
+
+        BulkSegment(@Nonnull UUID segmentId) {
+            this.segmentId = segmentId;
+        }
+
+        @Nonnull
+        public UUID segmentId() {
+            return segmentId;
+        }
+
+        /**
+         * @return  the length of the bulk segment in bytes
+         */
+        public long length() {
+            return length;
+        }
+
+        /**
+         * @return  the value records referencing this bulk segment in descending
+         *          order of the number of bytes they store in this bulk segment.
+         */
+        @Nonnull
+        public List<ValueReference> references() {
+            return unmodifiableList(references);
+        }
+
+        @Override
+        public String toString() {
+            return segmentId + " (length=" + length + ", references=" + references + ')';
+        }
+    }
+
+    /**
+     * Result of the accounting.
+     */
+    public static final class Report {
+        @Nonnull private final List<BulkSegment> bulkSegments;
+
+        Report(@Nonnull List<BulkSegment> bulkSegments) {
+            this.bulkSegments = unmodifiableList(bulkSegments);
+        }
+
+        /**
+         * @return  all bulk segments in descending order of their length
+         */
+        @Nonnull
+        public List<BulkSegment> bulkSegments() {
+            return bulkSegments;
+        }
+
+        /**
+         * @return  the bulk segments not referenced by any value record
+         */
+        @Nonnull
+        public List<BulkSegment> unreferenced() {
+            List<BulkSegment> unreferenced = new ArrayList<>();
+            for (BulkSegment segment : bulkSegments) {
+                if (segment.references.isEmpty()) {
+                    unreferenced.add(segment);
+                }
+            }
+            return unreferenced;
+        }
+
+        @Override
+        public String toString() {
+            return "Report{bulkSegments=" + bulkSegments + '}';
+        }
+    }
+}
@@ -0,0 +1,517 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jackrabbit.oak.tooling.filestore.tools;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A minimal columnar file format for fixed width primitive columns.
+ * <p>
+ * A file consists of a header, a sequence of blocks and a trailer. The
+ * header contains a magic number, the names and types of all columns.
+ * Each block contains the number of rows in the block followed by the
+ * values of each column for those rows stored contiguously. The trailer
+ * is a block with zero rows followed by a dictionary of strings. Columns
+ * of type {@link ColumnType#INT} can refer to strings in the dictionary
+ * by their index.
+ * <p>
+ * Blocks are read into primitive arrays, which are reused across blocks.
+ * Consumers process the values of a column of a whole block at once.
+ */
+public final class ColumnarFile {
+
+    private static final int MAGIC = 0x4f434d31; // OCM1
+
+    /**
+     * Number of rows per block
+     */
+    public static final int BLOCK_SIZE = 4096;
+
+    private ColumnarFile() {}
+
+    /**
+     * Type of a column
+     */
+    public enum ColumnType {
+        BYTE(1), INT(4), LONG(8);
+
+        private final int width;
+
+        ColumnType(int width) {
+            this.width = width;
+        }
+    }
+
+    /**
+     * Create a new columnar file.
+     * @param file     the file to write to. An existing file is overwritten.
+     * @param columns  the names and types of the columns
+     * @return  a writer for the file
+     * @throws IOException  if creating the file fails
+     */
+    @Nonnull
+    public static Writer create(@Nonnull File file, @Nonnull Map<String, ColumnType> columns) throws IOException {
+        return new Writer(file, columns);
+    }
+
+    /**
+     * Open an existing columnar file.
+     * @param file  the file to read from.
+     * @return  a reader for the file
+     * @throws IOException  if opening the file fails
+     */
+    @Nonnull
+    public static Reader open(@Nonnull File file) throws IOException {
+        return new Reader(file);
+    }
+
+    private static void write(@Nonnull FileChannel channel, @Nonnull ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private static void writeString(@Nonnull ByteBuffer buffer, @Nonnull String string) {
+        byte[] bytes = string.getBytes(UTF_8);
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    @Nonnull
+    private static String readString(@Nonnull ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private static final class Column {
+        @Nonnull final String name;
+        @Nonnull final ColumnType type;
+        @Nonnull final Object values;
+
+        Column(@Nonnull String name, @Nonnull ColumnType type) {
+            this.name = name;
+            this.type = type;
+            switch (type) {
+                case BYTE: values = new byte[BLOCK_SIZE]; break;
+                case INT: values = new int[BLOCK_SIZE]; break;
+                default: values = new long[BLOCK_SIZE]; break;
+            }
+        }
+
+        void write(@Nonnull ByteBuffer buffer, int count) {
+            switch (type) {
+                case BYTE:
+                    buffer.put((byte[]) values, 0, count);
+                    break;
+                case INT:
+                    buffer.asIntBuffer().put((int[]) values, 0, count);
+                    buffer.position(buffer.position() + count * type.width);
+                    break;
+                default:
+                    buffer.asLongBuffer().put((long[]) values, 0, count);
+                    buffer.position(buffer.position() + count * type.width);
+                    break;
+            }
+        }
+
+        void read(@Nonnull ByteBuffer buffer, int count) {
+            switch (type) {
+                case BYTE:
+                    buffer.get((byte[]) values, 0, count);
+                    break;
+                case INT:
+                    buffer.asIntBuffer().get((int[]) values, 0, count);
+                    buffer.position(buffer.position() + count * type.width);
+                    break;
+                default:
+                    buffer.asLongBuffer().get((long[]) values, 0, count);
+                    buffer.position(buffer.position() + count * type.width);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Writer for columnar files. Values are appended row by row: set the
+     * value of every column of the current row and call {@link #endRow()}.
+     */
+    public static final class Writer implements Closeable {
+
+        @Nonnull
+        private final FileChannel channel;
+
+        @Nonnull
+        private final List<Column> columns = new ArrayList<>();
+
+        @Nonnull
+        private final Map<String, Column> columnsByName = new HashMap<>();
+
+        @Nonnull
+        private final Map<String, Integer> dictionary = new LinkedHashMap<>();
+
+        @Nonnull
+        private final ByteBuffer buffer;
+
+        private int row;
+
+        private long rowCount;
+
+        private Writer(@Nonnull File file, @Nonnull Map<String, ColumnType> columns) throws IOException {
+            checkArgument(!columns.isEmpty(), "No columns");
+            int rowWidth = 0;
+            for (Map.Entry<String, ColumnType> column : columns.entrySet()) {
+                Column c = new Column(column.getKey(), column.getValue());
+                this.columns.add(c);
+                this.columnsByName.put(c.name, c);
+                rowWidth += c.type.width;
+            }
+            this.buffer = ByteBuffer.allocate(4 + BLOCK_SIZE * rowWidth);
+            this.channel = FileChannel.open(file.toPath(), CREATE, WRITE, TRUNCATE_EXISTING);
+
+            buffer.putInt(MAGIC);
+            buffer.putInt(this.columns.size());
+            for (Column column : this.columns) {
+                writeString(buffer, column.name);
+                buffer.put((byte) column.type.ordinal());
+            }
+            write(channel, buffer);
+        }
+
+        @Nonnull
+        private Column column(@Nonnull String name, @Nonnull ColumnType type) {
+            Column column = columnsByName.get(name);
+            checkArgument(column != null, "No such column %s", name);
+            checkArgument(column.type == type, "Column %s is of type %s", name, column.type);
+            return column;
+        }
+
+        /**
+         * @param string  a string
+         * @return  the index of {@code string} in the dictionary of this file
+         */
+        public int intern(@Nonnull String string) {
+            return dictionary.computeIfAbsent(string, s -> dictionary.size());
+        }
+
+        public void setByte(@Nonnull String column, byte value) {
+            ((byte[]) column(column, ColumnType.BYTE).values)[row] = value;
+        }
+
+        public void setInt(@Nonnull String column, int value) {
+            ((int[]) column(column, ColumnType.INT).values)[row] = value;
+        }
+
+        public void setLong(@Nonnull String column, long value) {
+            ((long[]) column(column, ColumnType.LONG).values)[row] = value;
+        }
+
+        /**
+         * Complete the current row.
+         * @throws IOException  if writing a block fails
+         */
+        public void endRow() throws IOException {
+            rowCount++;
+            if (++row == BLOCK_SIZE) {
+                flush();
+            }
+        }
+
+        /**
+         * @return  the number of rows written so far
+         */
+        public long rowCount() {
+            return rowCount;
+        }
+
+        private void flush() throws IOException {
+            buffer.putInt(row);
+            for (Column column : columns) {
+                column.write(buffer, row);
+            }
+            write(channel, buffer);
+            row = 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (row > 0) {
+                    flush();
+                }
+                buffer.putInt(0);
+                write(channel, buffer);
+
+                ByteBuffer strings = ByteBuffer.allocate(4 + dictionary.keySet().stream()
+                        .mapToInt(string -> 4 + string.getBytes(UTF_8).length)
+                        .sum());
+                strings.putInt(dictionary.size());
+                for (String string : dictionary.keySet()) {
+                    writeString(strings, string);
+                }
+                write(channel, strings);
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * A block of rows of a columnar file.
+     */
+    public static final class Block {
+
+        @Nonnull
+        private final Map<String, Column> columns;
+
+        private int size;
+
+        private Block(@Nonnull Map<String, Column> columns) {
+            this.columns = columns;
+        }
+
+        @Nonnull
+        private Column column(@Nonnull String name, @Nonnull ColumnType type) {
+            Column column = columns.get(name);
+            checkArgument(column != null, "No such column %s", name);
+            checkArgument(column.type == type, "Column %s is of type %s", name, column.type);
+            return column;
+        }
+
+        /**
+         * @return  number of rows in this block
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * @param column  name of a column of type {@link ColumnType#BYTE}
+         * @return  the values of the column. Only the first {@link #size()}
+         *          elements are valid. The array is reused for the next block.
+         */
+        @Nonnull
+        public byte[] bytes(@Nonnull String column) {
+            return (byte[]) column(column, ColumnType.BYTE).values;
+        }
+
+        /**
+         * @param column  name of a column of type {@link ColumnType#INT}
+         * @return  the values of the column. Only the first {@link #size()}
+         *          elements are valid. The array is reused for the next block.
+         */
+        @Nonnull
+        public int[] ints(@Nonnull String column) {
+            return (int[]) column(column, ColumnType.INT).values;
+        }
+
+        /**
+         * @param column  name of a column of type {@link ColumnType#LONG}
+         * @return  the values of the column. Only the first {@link #size()}
+         *          elements are valid. The array is reused for the next block.
+         */
+        @Nonnull
+        public long[] longs(@Nonnull String column) {
+            return (long[]) column(column, ColumnType.LONG).values;
+        }
+    }
+
+    /**
+     * Block wise consumer of the rows of a columnar file.
+     */
+    public interface BlockConsumer {
+        void accept(@Nonnull Block block) throws IOException;
+    }
+
+    /**
+     * Reader for columnar files.
+     */
+    public static final class Reader implements Closeable {
+
+        @Nonnull
+        private final FileChannel channel;
+
+        @Nonnull
+        private final List<Column> columns = new ArrayList<>();
+
+        @Nonnull
+        private final Map<String, ColumnType> columnTypes = new LinkedHashMap<>();
+
+        @Nonnull
+        private final ByteBuffer buffer;
+
+        private final long dataPosition;
+
+        private final int rowWidth;
+
+        @Nonnull
+        private final List<String> dictionary;
+
+        private Reader(@Nonnull File file) throws IOException {
+            this.channel = FileChannel.open(file.toPath(), READ);
+            ByteBuffer header = ByteBuffer.allocate((int) Math.min(channel.size(), 64 * 1024));
+            read(header, 0);
+            checkState(header.getInt() == MAGIC, "Not a columnar file: %s", file);
+            int count = header.getInt();
+            int rowWidth = 0;
+            for (int k = 0; k < count; k++) {
+                String name = readString(header);
+                ColumnType type = ColumnType.values()[header.get()];
+                columns.add(new Column(name, type));
+                columnTypes.put(name, type);
+                rowWidth += type.width;
+            }
+            this.dataPosition = header.position();
+            this.rowWidth = rowWidth;
+            this.buffer = ByteBuffer.allocate(BLOCK_SIZE * rowWidth);
+            this.dictionary = readDictionary();
+        }
+
+        private void read(@Nonnull ByteBuffer buffer, long position) throws IOException {
+            while (buffer.hasRemaining()) {
+                int n = channel.read(buffer, position);
+                if (n < 0) {
+                    break;
+                }
+                position += n;
+            }
+            buffer.flip();
+        }
+
+        private void readFully(@Nonnull ByteBuffer buffer, long position) throws IOException {
+            int expected = buffer.remaining();
+            read(buffer, position);
+            if (buffer.remaining() != expected) {
+                throw new EOFException();
+            }
+        }
+
+        /**
+         * @return  the names and types of the columns of this file
+         */
+        @Nonnull
+        public Map<String, ColumnType> columns() {
+            return Collections.unmodifiableMap(columnTypes);
+        }
+
+        /**
+         * Pass each block of this file to {@code consumer}.
+         * @param consumer  the consumer of the blocks
+         * @return  the total number of rows
+         * @throws IOException  if reading fails
+         */
+        public long forEach(@Nonnull BlockConsumer consumer) throws IOException {
+            Map<String, Column> columnsByName = new HashMap<>();
+            columns.forEach(column -> columnsByName.put(column.name, column));
+            Block block = new Block(columnsByName);
+
+            long rows = 0;
+            long position = dataPosition;
+            ByteBuffer count = ByteBuffer.allocate(4);
+            while (true) {
+                count.clear();
+                readFully(count, position);
+                position += 4;
+                int size = count.getInt();
+                if (size == 0) {
+                    break;
+                }
+
+                buffer.clear();
+                int length = size * rowWidth;
+                buffer.limit(length);
+                readFully(buffer, position);
+                position += length;
+
+                for (Column column : columns) {
+                    column.read(buffer, size);
+                }
+                block.size = size;
+                consumer.accept(block);
+                rows += size;
+            }
+            return rows;
+        }
+
+        /**
+         * Skip over all blocks without reading their values and read
+         * the dictionary following the last block.
+         */
+        @Nonnull
+        private List<String> readDictionary() throws IOException {
+            long position = dataPosition;
+            ByteBuffer count = ByteBuffer.allocate(4);
+            while (true) {
+                count.clear();
+                readFully(count, position);
+                int size = count.getInt();
+                position += 4 + (long) size * rowWidth;
+                if (size == 0) {
+                    break;
+                }
+            }
+
+            ByteBuffer strings = ByteBuffer.allocate((int) (channel.size() - position));
+            readFully(strings, position);
+            int size = strings.getInt();
+            List<String> dictionary = new ArrayList<>(size);
+            for (int k = 0; k < size; k++) {
+                dictionary.add(readString(strings));
+            }
+            return dictionary;
+        }
+
+        /**
+         * @param index  index of a string in the dictionary of this file
+         * @return  the string at {@code index}
+         */
+        @Nonnull
+        public String string(int index) {
+            return dictionary.get(index);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,368 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jackrabbit.oak.tooling.filestore.tools;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Collections.unmodifiableMap;
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.Streams.asStream;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.apache.jackrabbit.oak.tooling.filestore.api.SegmentStore;
+
+/**
+ * A facade to a number of named {@link SegmentStore}s for running the same
+ * query against all of them. Queries are fanned out to all stores on an
+ * {@link Executor}, where the number of concurrently executing queries is
+ * limited to {@code maxInFlight}.
+ * <p>
+ * Results are streamed in the order they become available, tagged with the
+ * name of the store they originate from. A slow store thus only delays its
+ * own results. Failing stores do not fail the query: their exception is
+ * returned as a {@link Result#failure() failure} result instead. Stores not
+ * completing within the {@link #withTimeout(long, TimeUnit) timeout} are reported
+ * as failures with a {@link TimeoutException}. Their queries are cancelled: queries
+ * not started yet are skipped and running queries are interrupted. A cancelled
+ * query keeps its slot of the executor until it reacts to the interrupt.
+ */
+public class FederatedSegmentStore {
+
+    @Nonnull
+    private final Map<String, SegmentStore> stores;
+
+    @Nonnull
+    private final BoundedExecutor executor;
+
+    private final long timeoutNanos;
+
+    /**
+     * Default time to wait for the results of a query: 10 minutes
+     */
+    public static final long DEFAULT_TIMEOUT_NANOS = MINUTES.toNanos(10);
+
+    /**
+     * Create a new facade to a number of segment stores.
+     * @param stores       the segment stores by their name
+     * @param executor     the executor to run queries on
+     * @param maxInFlight  maximal number of queries to run concurrently
+     * @return  a new {@code FederatedSegmentStore} instance with the
+     *          {@link #DEFAULT_TIMEOUT_NANOS default timeout}
+     */
+    @Nonnull
+    public static FederatedSegmentStore newFederatedSegmentStore(
+            @Nonnull Map<String, SegmentStore> stores,
+            @Nonnull Executor executor,
+            int maxInFlight) {
+        return new FederatedSegmentStore(
+                unmodifiableMap(new LinkedHashMap<>(stores)),
+                new BoundedExecutor(executor, maxInFlight),
+                DEFAULT_TIMEOUT_NANOS);
+    }
+
+    private FederatedSegmentStore(
+            @Nonnull Map<String, SegmentStore> stores,
+            @Nonnull BoundedExecutor executor,
+            long timeoutNanos) {
+        this.stores = stores;
+        this.executor = executor;
+        this.timeoutNanos = timeoutNanos;
+    }
+
+    /**
+     * @param timeout  maximal time to wait for the results of a query
+     * @param unit     time unit of {@code timeout}
+     * @return  a new facade to the same stores sharing the executor of this
+     *          instance, whose queries time out after {@code timeout}.
+     */
+    @Nonnull
+    public FederatedSegmentStore withTimeout(long timeout, @Nonnull TimeUnit unit) {
+        checkArgument(timeout > 0, "timeout must be positive");
+        return new FederatedSegmentStore(stores, executor, unit.toNanos(timeout));
+    }
+
+    /**
+     * @return  the segment stores of this facade by their name
+     */
+    @Nonnull
+    public Map<String, SegmentStore> stores() {
+        return stores;
+    }
+
+    /**
+     * Run a query against all stores.
+     * @param query  the query
+     * @return  one result per store in the order of completion
+     */
+    @Nonnull
+    public <T> Stream<Result<T>> query(@Nonnull Function<SegmentStore, T> query) {
+        return queryAll(store -> () -> new Iterator<T>() {
+            private boolean done;
+
+            @Override
+            public boolean hasNext() {
+                return !done;
+            }
+
+            @Override
+            public T next() {
+                if (done) {
+                    throw new NoSuchElementException();
+                }
+                done = true;
+                return requireNonNull(query.apply(store));
+            }
+        });
+    }
+
+    /**
+     * Run a query returning multiple elements against all stores. The elements
+     * of the individual stores are streamed as they are produced, such that
+     * the elements of different stores are interleaved. Elements are buffered
+     * without bound when they are produced faster than the stream is consumed.
+     * A failure while iterating the elements of a store results in a single
+     * failure result for that store following the elements produced so far.
+     * Interrupting the thread consuming the stream cancels the queries still
+     * running and ends the stream, leaving the thread's interrupt flag set.
+     * @param query  the query
+     * @return  the elements returned from the query tagged with their store
+     */
+    @Nonnull
+    public <T> Stream<Result<T>> queryAll(@Nonnull Function<SegmentStore, Iterable<T>> query) {
+        BlockingQueue<Result<T>> results = new LinkedBlockingQueue<>();
+        Map<String, Task> tasks = new LinkedHashMap<>();
+        for (Map.Entry<String, SegmentStore> store : stores.entrySet()) {
+            String name = store.getKey();
+            Task task = new Task();
+            tasks.put(name, task);
+            executor.submit(() -> {
+                if (!task.start()) {
+                    // Timed out before it started
+                    return null;
+                }
+                try {
+                    for (T value : query.apply(store.getValue())) {
+                        if (task.isCancelled()) {
+                            return null;
+                        }
+                        results.add(new Result<>(name, requireNonNull(value), null));
+                    }
+                    results.add(new Result<>(name, null, null));
+                } catch (Throwable e) {
+                    results.add(new Result<>(name, null, e));
+                } finally {
+                    task.finish();
+                }
+                return null;
+            }).exceptionally(e -> {
+                // Rejected by the executor
+                results.add(new Result<>(name, null, e));
+                return null;
+            });
+        }
+        return asStream(() -> new ResultIterator<>(results, tasks, timeoutNanos));
+    }
+
+    /**
+     * The execution of a query against a single store. Cancelling interrupts
+     * the thread executing the query, if any, and prevents it from starting
+     * otherwise.
+     */
+    private static class Task {
+        private boolean cancelled;
+
+        private Thread thread;
+
+        synchronized boolean start() {
+            if (!cancelled) {
+                thread = Thread.currentThread();
+            }
+            return !cancelled;
+        }
+
+        synchronized boolean isCancelled() {
+            return cancelled;
+        }
+
+        synchronized void finish() {
+            thread = null;
+            if (cancelled) {
+                // Don't leak an interrupt from cancel() to the next task of this thread
+                Thread.interrupted();
+            }
+        }
+
+        synchronized void cancel() {
+            cancelled = true;
+            if (thread != null) {
+                thread.interrupt();
+            }
+        }
+    }
+
+    /**
+     * Iterator over the results of a query. Each store terminates its results
+     * with either a failure or an end marker, which has neither a value nor a
+     * failure and is not returned from this iterator.
+     */
+    private static class ResultIterator<T> implements Iterator<Result<T>> {
+
+        @Nonnull
+        private final BlockingQueue<Result<T>> results;
+
+        @Nonnull
+        private final Map<String, Task> tasks;
+
+        @Nonnull
+        private final Set<String> running;
+
+        private final long deadline;
+
+        private Result<T> next;
+
+        ResultIterator(@Nonnull BlockingQueue<Result<T>> results, @Nonnull Map<String, Task> tasks, long timeoutNanos) {
+            this.results = results;
+            this.tasks = tasks;
+            this.running = new LinkedHashSet<>(tasks.keySet());
+            long now = System.nanoTime();
+            this.deadline = timeoutNanos > Long.MAX_VALUE - now
+                    ? Long.MAX_VALUE
+                    : now + timeoutNanos;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && !running.isEmpty()) {
+                Result<T> result = poll();
+                if (result == null) {
+                    // Interrupted
+                    break;
+                }
+                if (!running.contains(result.store)) {
+                    // Late result of a store that has already timed out
+                    continue;
+                }
+                if (result.value == null) {
+                    running.remove(result.store);
+                }
+                if (result.value != null || result.failure != null) {
+                    next = result;
+                }
+            }
+            return next != null;
+        }
+
+        /**
+         * @return  the next result, a timeout failure for a running store if
+         *          the deadline passed or {@code null} if interrupted, in which
+         *          case all running stores are cancelled.
+         */
+        @CheckForNull
+        private Result<T> poll() {
+            try {
+                Result<T> result = results.poll(deadline - System.nanoTime(), NANOSECONDS);
+                if (result != null) {
+                    return result;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                running.forEach(store -> tasks.get(store).cancel());
+                running.clear();
+                return null;
+            }
+            String store = running.iterator().next();
+            tasks.get(store).cancel();
+            return new Result<>(store, null, new TimeoutException("No result from " + store));
+        }
+
+        @Override
+        public Result<T> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Result<T> result = next;
+            next = null;
+            return result;
+        }
+    }
+
+    /**
+     * A result of a query tagged with the name of the store it originates
+     * from. Either has a value or a failure.
+     */
+    public static final class Result<T> {
+        @Nonnull private final String store;
+        private final T value;
+        private final Throwable failure;
+
+        Result(@Nonnull String store, T value, Throwable failure) {
+            this.store = store;
+            this.value = value;
+            this.failure = failure;
+        }
+
+        /**
+         * @return  the name of the store this result originates from
+         */
+        @Nonnull
+        public String store() {
+            return store;
+        }
+
+        /**
+         * @return  the value of this result or empty if this is a failure
+         */
+        @Nonnull
+        public Optional<T> value() {
+            return Optional.ofNullable(value);
+        }
+
+        /**
+         * @return  the exception thrown by the store or empty if this
+         *          result has a value
+         */
+        @Nonnull
+        public Optional<Throwable> failure() {
+            return Optional.ofNullable(failure);
+        }
+
+        @Override
+        public String toString() {
+            return store + ": " + (failure == null ? value : failure);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jackrabbit.oak.tooling.filestore.tools;
+
+import static org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.Streams.asStream;
+
+import java.util.Optional;
+import java.util.UUID;
+
+import javax.annotation.Nonnull;
+
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Checkpoint;
+import org.apache.jackrabbit.oak.tooling.filestore.api.JournalEntry;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Segment;
+import org.apache.jackrabbit.oak.tooling.filestore.api.SegmentStore;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Tar;
+
+/**
+ * A {@code SegmentStore} forwarding all calls to another store. Subclasses
+ * override the methods they decorate and {@link #tar(Tar)} to decorate the
+ * tar files returned from {@link #tars()}.
+ */
+class ForwardingSegmentStore implements SegmentStore {
+
+    @Nonnull
+    protected final SegmentStore store;
+
+    ForwardingSegmentStore(@Nonnull SegmentStore store) {
+        this.store = store;
+    }
+
+    /**
+     * @param tar  a tar file of the underlying store
+     * @return  the tar file to return from {@link #tars()} in place of {@code tar}.
+     *          This implementation returns {@code tar}.
+     */
+    @Nonnull
+    protected Tar tar(@Nonnull Tar tar) {
+        return tar;
+    }
+
+    @Nonnull
+    @Override
+    public Iterable<Tar> tars() {
+        return () -> asStream(store.tars())
+                .map(this::tar)
+                .iterator();
+    }
+
+    @Nonnull
+    @Override
+    public Optional<Segment> segment(@Nonnull UUID id) {
+        return store.segment(id);
+    }
+
+    @Nonnull
+    @Override
+    public Optional<NodeState> head() {
+        return store.head();
+    }
+
+    @Nonnull
+    @Override
+    public Optional<NodeState> node(@Nonnull UUID segmentId, int recordNumber) {
+        return store.node(segmentId, recordNumber);
+    }
+
+    @Nonnull
+    @Override
+    public Iterable<JournalEntry> journalEntries() {
+        return store.journalEntries();
+    }
+
+    @Nonnull
+    @Override
+    public Iterable<Checkpoint> checkpoints() {
+        return store.checkpoints();
+    }
+
+    @Nonnull
+    @Override
+    public Iterable<Checkpoint> checkpoints(@Nonnull JournalEntry entry) {
+        return store.checkpoints(entry);
+    }
+
+    @Override
+    public String toString() {
+        return store.toString();
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jackrabbit.oak.tooling.filestore.tools;
+
+import java.util.Optional;
+
+import javax.annotation.Nonnull;
+
+import org.apache.jackrabbit.oak.tooling.filestore.api.Segment;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Tar;
+import org.apache.jackrabbit.oak.tooling.filestore.api.TarSummary;
+
+/**
+ * A {@code Tar} forwarding all calls to another tar file. Subclasses
+ * override the methods they decorate.
+ */
+class ForwardingTar implements Tar {
+
+    @Nonnull
+    protected final Tar tar;
+
+    ForwardingTar(@Nonnull Tar tar) {
+        this.tar = tar;
+    }
+
+    @Nonnull
+    @Override
+    public String name() {
+        return tar.name();
+    }
+
+    @Override
+    public long size() {
+        return tar.size();
+    }
+
+    @Nonnull
+    @Override
+    public Iterable<Segment> segments() {
+        return tar.segments();
+    }
+
+    @Nonnull
+    @Override
+    public Optional<TarSummary> summary() {
+        return tar.summary();
+    }
+
+    @Override
+    public String toString() {
+        return tar.toString();
+    }
+}
@@ -0,0 +1,402 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jackrabbit.oak.tooling.filestore.tools;
+
+import static java.util.Collections.unmodifiableMap;
+import static java.util.concurrent.CompletableFuture.supplyAsync;
+import static java.util.stream.Collectors.toList;
+import static org.apache.jackrabbit.oak.tooling.filestore.api.Segment.Type.DATA;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Predicate;
+
+import javax.annotation.Nonnull;
+
+import org.apache.jackrabbit.oak.tooling.filestore.api.Segment;
+import org.apache.jackrabbit.oak.tooling.filestore.api.SegmentMetaData;
+import org.apache.jackrabbit.oak.tooling.filestore.api.SegmentStore;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Tar;
+
+/**
+ * Histogram of the number of segments and bytes per garbage collection
+ * generation for each tar of a {@link SegmentStore}.
+ * <p>
+ * The histogram is computed in a single pass over all segments, where the
+ * tars are processed concurrently on an {@link Executor}. Only the generation,
+ * full generation and compacted flag of each data segment are accessed.
+ * In particular {@link SegmentMetaData#info()} is never decoded.
+ * <p>
+ * {@link #reclaimable(Predicate)} uses the histogram to determine how much
+ * each tar would shrink if segments of certain generations were removed
+ * and which tars would be freed entirely.
+ */
+public class GenerationHistogram {
+
+    @Nonnull
+    private final Map<String, TarHistogram> tars;
+
+    private GenerationHistogram(@Nonnull Map<String, TarHistogram> tars) {
+        this.tars = tars;
+    }
+
+    /**
+     * Compute the generation histogram of a segment store.
+     * @param store     the segment store
+     * @param executor  the executor to process the tars on
+     * @return  the generation histogram of {@code store}
+     */
+    @Nonnull
+    public static GenerationHistogram compute(@Nonnull SegmentStore store, @Nonnull Executor executor) {
+        List<CompletableFuture<TarHistogram>> futures = new ArrayList<>();
+        for (Tar tar : store.tars()) {
+            futures.add(supplyAsync(() -> TarHistogram.compute(tar), executor));
+        }
+
+        Map<String, TarHistogram> tars = new LinkedHashMap<>();
+        for (CompletableFuture<TarHistogram> future : futures) {
+            TarHistogram histogram = future.join();
+            tars.put(histogram.name(), histogram);
+        }
+        return new GenerationHistogram(unmodifiableMap(tars));
+    }
+
+    /**
+     * @return  the histograms of all tars by tar name in the order of {@link SegmentStore#tars()}
+     */
+    @Nonnull
+    public Map<String, TarHistogram> tars() {
+        return tars;
+    }
+
+    /**
+     * @return  the histogram over all tars
+     */
+    @Nonnull
+    public Map<Generation, Bucket> total() {
+        Map<Generation, Bucket> total = new TreeMap<>();
+        for (TarHistogram tar : tars.values()) {
+            tar.buckets().forEach((generation, bucket) ->
+                    total.merge(generation, bucket, Bucket::add));
+        }
+        return total;
+    }
+
+    /**
+     * Determine how much could be reclaimed from each tar by removing the data
+     * segments whose generation matches {@code reclaimable}. Bulk segments are
+     * considered reclaimable if the tar contains no data segments to retain.
+     * <p>
+     * E.g. to determine the effect of a cleanup retaining all generations
+     * from {@code g} on: {@code reclaimable(generation -> generation.generation() < g)}.
+     * @param reclaimable  the generations to remove
+     * @return  the reclaimable amount per tar, tars that would be freed
+     *          entirely first followed by the others in descending order of reclaimable bytes.
+     */
+    @Nonnull
+    public List<Reclaimable> reclaimable(@Nonnull Predicate<Generation> reclaimable) {
+        return tars.values().stream()
+                .map(tar -> tar.reclaimable(reclaimable))
+                .sorted((r1, r2) -> r1.isFree() != r2.isFree()
+                        ? Boolean.compare(r2.isFree(), r1.isFree())
+                        : Long.compare(r2.reclaimableBytes(), r1.reclaimableBytes()))
+                .collect(toList());
+    }
+
+    @Override
+    public String toString() {
+        return "GenerationHistogram" + tars.values();
+    }
+
+    /**
+     * A garbage collection generation.
+     */
+    public static final class Generation implements Comparable<Generation> {
+        private final int generation;
+        private final int fullGeneration;
+        private final boolean compacted;
+
+        Generation(int generation, int fullGeneration, boolean compacted) {
+            this.generation = generation;
+            this.fullGeneration = fullGeneration;
+            this.compacted = compacted;
+        }
+
+        /**
+         * @return  the generation
+         * @see SegmentMetaData#generation()
+         */
+        public int generation() {
+            return generation;
+        }
+
+        /**
+         * @return  the full generation
+         * @see SegmentMetaData#fullGeneration()
+         */
+        public int fullGeneration() {
+            return fullGeneration;
+        }
+
+        /**
+         * @return  the compacted flag
+         * @see SegmentMetaData#compacted()
+         */
+        public boolean compacted() {
+            return compacted;
+        }
+
+        @Override
+        public int compareTo(@Nonnull Generation that) {
+            int c = Integer.compare(generation, that.generation);
+            if (c == 0) {
+                c = Integer.compare(fullGeneration, that.fullGeneration);
+            }
+            if (c == 0) {
+                c = Boolean.compare(compacted, that.compacted);
+            }
+            return c;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (other == null || getClass() != other.getClass()) {
+                return false;
+            }
+            Generation that = (Generation) other;
+            return generation == that.generation
+                && fullGeneration == that.fullGeneration
+                && compacted == that.compacted;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(generation, fullGeneration, compacted);
+        }
+
+        @Override
+        public String toString() {
+            return "(generation=" + generation + ", full generation=" + fullGeneration +
+                    ", compacted=" + compacted + ')';
+        }
+    }
+
+    /**
+     * Number of segments and bytes of a bucket of the histogram.
+     */
+    public static final class Bucket {
+        private final long segmentCount;
+        private final long byteCount;
+
+        Bucket(long segmentCount, long byteCount) {
+            this.segmentCount = segmentCount;
+            this.byteCount = byteCount;
+        }
+
+        @Nonnull
+        Bucket add(@Nonnull Bucket that) {
+            return new Bucket(segmentCount + that.segmentCount, byteCount + that.byteCount);
+        }
+
+        /**
+         * @return  number of segments
+         */
+        public long segmentCount() {
+            return segmentCount;
+        }
+
+        /**
+         * @return  number of bytes
+         */
+        public long byteCount() {
+            return byteCount;
+        }
+
+        @Override
+        public String toString() {
+            return "(segments=" + segmentCount + ", bytes=" + byteCount + ')';
+        }
+    }
+
+    /**
+     * Generation histogram of a single tar.
+     */
+    public static final class TarHistogram {
+        @Nonnull
+        private final String name;
+
+        private final long size;
+
+        @Nonnull
+        private final Map<Generation, Bucket> buckets;
+
+        @Nonnull
+        private final Bucket bulk;
+
+        private TarHistogram(@Nonnull String name, long size, @Nonnull Map<Generation, Bucket> buckets, @Nonnull Bucket bulk) {
+            this.name = name;
+            this.size = size;
+            this.buckets = buckets;
+            this.bulk = bulk;
+        }
+
+        @Nonnull
+        static TarHistogram compute(@Nonnull Tar tar) {
+            Map<Generation, long[]> counts = new TreeMap<>();
+            long bulkSegments = 0;
+            long bulkBytes = 0;
+            for (Segment segment : tar.segments()) {
+                if (segment.type() == DATA) {
+                    SegmentMetaData metaData = segment.metaData();
+                    Generation generation = new Generation(
+                            metaData.generation(), metaData.fullGeneration(), metaData.compacted());
+                    long[] count = counts.computeIfAbsent(generation, g -> new long[2]);
+                    count[0]++;
+                    count[1] += segment.length();
+                } else {
+                    bulkSegments++;
+                    bulkBytes += segment.length();
+                }
+            }
+
+            Map<Generation, Bucket> buckets = new TreeMap<>();
+            counts.forEach((generation, count) -> buckets.put(generation, new Bucket(count[0], count[1])));
+            return new TarHistogram(tar.name(), tar.size(), unmodifiableMap(buckets), new Bucket(bulkSegments, bulkBytes));
+        }
+
+        /**
+         * @return  name of the tar
+         */
+        @Nonnull
+        public String name() {
+            return name;
+        }
+
+        /**
+         * @return  size of the tar in bytes
+         */
+        public long size() {
+            return size;
+        }
+
+        /**
+         * @return  number of data segments and bytes per generation
+         */
+        @Nonnull
+        public Map<Generation, Bucket> buckets() {
+            return buckets;
+        }
+
+        /**
+         * @return  number of bulk segments and bytes
+         */
+        @Nonnull
+        public Bucket bulk() {
+            return bulk;
+        }
+
+        @Nonnull
+        Reclaimable reclaimable(@Nonnull Predicate<Generation> reclaimable) {
+            long reclaimableBytes = 0;
+            long retainedSegments = 0;
+            for (Map.Entry<Generation, Bucket> bucket : buckets.entrySet()) {
+                if (reclaimable.test(bucket.getKey())) {
+                    reclaimableBytes += bucket.getValue().byteCount();
+                } else {
+                    retainedSegments += bucket.getValue().segmentCount();
+                }
+            }
+            boolean free = retainedSegments == 0;
+            if (free) {
+                reclaimableBytes += bulk.byteCount();
+            }
+            return new Reclaimable(name, size, reclaimableBytes, free);
+        }
+
+        @Override
+        public String toString() {
+            return name + buckets + "(bulk=" + bulk + ')';
+        }
+    }
+
+    /**
+     * The amount of data that could be reclaimed from a tar.
+     */
+    public static final class Reclaimable {
+        @Nonnull
+        private final String name;
+
+        private final long size;
+
+        private final long reclaimableBytes;
+
+        private final boolean free;
+
+        Reclaimable(@Nonnull String name, long size, long reclaimableBytes, boolean free) {
+            this.name = name;
+            this.size = size;
+            this.reclaimableBytes = reclaimableBytes;
+            this.free = free;
+        }
+
+        /**
+         * @return  name of the tar
+         */
+        @Nonnull
+        public String name() {
+            return name;
+        }
+
+        /**
+         * @return  size of the tar in bytes
+         */
+        public long size() {
+            return size;
+        }
+
+        /**
+         * @return  number of bytes of segments that could be removed from the tar
+         */
+        public long reclaimableBytes() {
+            return reclaimableBytes;
+        }
+
+        /**
+         * @return  {@code true} iff no segment of the tar would be retained, in
+         *          which case the tar could be removed entirely.
+         */
+        public boolean isFree() {
+            return free;
+        }
+
+        @Override
+        public String toString() {
+            return name + "(size=" + size + ", reclaimable=" + reclaimableBytes + ", free=" + free + ')';
+        }
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jackrabbit.oak.tooling.filestore.tools;
+
+import static com.google.common.base.Preconditions.checkElementIndex;
+
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.UUID;
+
+import javax.annotation.Nonnull;
+
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.apache.jackrabbit.oak.tooling.filestore.api.JournalEntry;
+import org.apache.jackrabbit.oak.tooling.filestore.api.SegmentStore;
+import org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.RawSegment.RecordId;
+
+/**
+ * Random access to the journal of a segment store. The journal is indexed
+ * once into primitive arrays holding the time stamp and the record id of
+ * the root of each entry, which takes 28 bytes per entry.
+ * <p>
+ * Entries are indexed in the order of {@link SegmentStore#journalEntries()},
+ * i.e. in reverse chronological order. The root of an entry returned from
+ * this class is resolved through {@link SegmentStore#node(UUID, int)}.
+ * <p>
+ * Instances are safe for concurrent use.
+ */
+public class IndexedJournal {
+
+    @Nonnull
+    private final SegmentStore store;
+
+    @Nonnull
+    private final long[] timestamps;
+
+    @Nonnull
+    private final long[] msbs;
+
+    @Nonnull
+    private final long[] lsbs;
+
+    @Nonnull
+    private final int[] numbers;
+
+    private IndexedJournal(
+            @Nonnull SegmentStore store,
+            @Nonnull long[] timestamps,
+            @Nonnull long[] msbs,
+            @Nonnull long[] lsbs,
+            @Nonnull int[] numbers) {
+        this.store = store;
+        this.timestamps = timestamps;
+        this.msbs = msbs;
+        this.lsbs = lsbs;
+        this.numbers = numbers;
+    }
+
+    /**
+     * Index the journal of a store.
+     * @param store  the segment store
+     * @return  a new {@code IndexedJournal} instance
+     */
+    @Nonnull
+    public static IndexedJournal newIndexedJournal(@Nonnull SegmentStore store) {
+        int size = 0;
+        long[] timestamps = new long[1024];
+        long[] msbs = new long[1024];
+        long[] lsbs = new long[1024];
+        int[] numbers = new int[1024];
+        for (JournalEntry entry : store.journalEntries()) {
+            if (size == timestamps.length) {
+                int capacity = 2 * size;
+                timestamps = Arrays.copyOf(timestamps, capacity);
+                msbs = Arrays.copyOf(msbs, capacity);
+                lsbs = Arrays.copyOf(lsbs, capacity);
+                numbers = Arrays.copyOf(numbers, capacity);
+            }
+            UUID segmentId = entry.segmentId();
+            timestamps[size] = entry.timestamp();
+            msbs[size] = segmentId.getMostSignificantBits();
+            lsbs[size] = segmentId.getLeastSignificantBits();
+            numbers[size] = entry.recordNumber();
+            size++;
+        }
+        return new IndexedJournal(
+                store,
+                Arrays.copyOf(timestamps, size),
+                Arrays.copyOf(msbs, size),
+                Arrays.copyOf(lsbs, size),
+                Arrays.copyOf(numbers, size));
+    }
+
+    /**
+     * @return  the number of journal entries
+     */
+    public int size() {
+        return timestamps.length;
+    }
+
+    /**
+     * @param index  index of a journal entry, where {@code 0} is the most recent one
+     * @return  the journal entry at {@code index}
+     */
+    @Nonnull
+    public JournalEntry get(int index) {
+        checkElementIndex(index, size());
+        return new IndexedEntry(index);
+    }
+
+    /**
+     * @param index  index of a journal entry
+     * @return  the time stamp of the journal entry at {@code index}
+     */
+    public long timestamp(int index) {
+        checkElementIndex(index, size());
+        return timestamps[index];
+    }
+
+    /**
+     * @param index  index of a journal entry
+     * @return  the record id of the root of the journal entry at {@code index}
+     */
+    @Nonnull
+    public RecordId recordId(int index) {
+        checkElementIndex(index, size());
+        return new RecordId(new UUID(msbs[index], lsbs[index]), numbers[index]);
+    }
+
+    /**
+     * Find the most recent entry not newer than a given time stamp. Time stamps
+     * are expected to not increase along the journal.
+     * @param timestamp  a time stamp
+     * @return  the index of the most recent entry with a time stamp less than
+     *          or equal to {@code timestamp} or {@code -1} if there is none
+     */
+    public int floorIndex(long timestamp) {
+        // Invariant: entries in [0, lo) are newer than timestamp, entries in [hi, size) are not
+        int lo = 0;
+        int hi = size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (timestamps[mid] > timestamp) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo == size() ? -1 : lo;
+    }
+
+    /**
+     * @param timestamp  a time stamp
+     * @return  the most recent entry with a time stamp less than or equal to
+     *          {@code timestamp} if any.
+     * @see #floorIndex(long)
+     */
+    @Nonnull
+    public Optional<JournalEntry> floor(long timestamp) {
+        int index = floorIndex(timestamp);
+        return index < 0 ? Optional.empty() : Optional.of(get(index));
+    }
+
+    private class IndexedEntry implements JournalEntry {
+        private final int index;
+
+        IndexedEntry(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public long timestamp() {
+            return timestamps[index];
+        }
+
+        @Nonnull
+        @Override
+        public UUID segmentId() {
+            return new UUID(msbs[index], lsbs[index]);
+        }
+
+        @Override
+        public int recordNumber() {
+            return numbers[index];
+        }
+
+        @Nonnull
+        @Override
+        public NodeState getRoot() {
+            return store.node(segmentId(), recordNumber())
+                    .orElseThrow(() -> new IllegalStateException(
+                            "Root of journal entry " + this + " not found"));
+        }
+
+        @Override
+        public String toString() {
+            return "JournalEntry{index=" + index + ", timestamp=" + timestamp() +
+                    ", root=" + segmentId() + ':' + recordNumber() + '}';
+        }
+    }
+}
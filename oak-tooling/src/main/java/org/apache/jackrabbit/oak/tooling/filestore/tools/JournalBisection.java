@@ -0,0 +1,178 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jackrabbit.oak.tooling.filestore.tools;
+
+import static org.apache.jackrabbit.oak.tooling.filestore.tools.IndexedJournal.newIndexedJournal;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Predicate;
+
+import javax.annotation.Nonnull;
+
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.apache.jackrabbit.oak.tooling.filestore.api.JournalEntry;
+import org.apache.jackrabbit.oak.tooling.filestore.api.SegmentStore;
+import org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.RawSegment.RecordId;
+
+/**
+ * Binary search over the journal of a segment store for the revision in
+ * which a condition first became true, e.g. when a node first appeared.
+ * <p>
+ * The condition is a predicate over the roots of the revisions, which must
+ * be monotonic: once it holds for a revision it must hold for all later
+ * revisions. Then the journal, which is in reverse chronological order,
+ * consists of a prefix of entries for which the predicate holds followed
+ * by entries for which it doesn't. The bisection finds the boundary with
+ * a logarithmic number of evaluations of the predicate.
+ * <p>
+ * Journal entries referring to the same root record share a single
+ * evaluation: results are memoized by the record id of the root, such that
+ * a revision probed again through another entry is not decoded twice. The
+ * bisection still probes entries one at a time and does not skip runs of
+ * entries for the same revision.
+ */
+public class JournalBisection {
+
+    @Nonnull
+    private final IndexedJournal journal;
+
+    /**
+     * Create a new bisection over the journal of a store. The journal
+     * is {@link IndexedJournal indexed} once.
+     * @param store  the segment store
+     * @return  a new {@code JournalBisection} instance
+     */
+    @Nonnull
+    public static JournalBisection newJournalBisection(@Nonnull SegmentStore store) {
+        return new JournalBisection(newIndexedJournal(store));
+    }
+
+    /**
+     * Create a new bisection over an indexed journal.
+     * @param journal  the indexed journal
+     * @return  a new {@code JournalBisection} instance
+     */
+    @Nonnull
+    public static JournalBisection newJournalBisection(@Nonnull IndexedJournal journal) {
+        return new JournalBisection(journal);
+    }
+
+    private JournalBisection(@Nonnull IndexedJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * @return  the number of journal entries
+     */
+    public int size() {
+        return journal.size();
+    }
+
+    /**
+     * Find the oldest revision of the newest run of revisions whose roots satisfy
+     * {@code predicate}.
+     * @param predicate  a predicate over roots, which is monotonic in time
+     * @return  the result of the bisection
+     */
+    @Nonnull
+    public Result bisect(@Nonnull Predicate<NodeState> predicate) {
+        Evaluator evaluator = new Evaluator(journal, predicate);
+
+        // Invariant: entries in [0, lo) satisfy the predicate, entries in [hi, size) don't
+        int lo = 0;
+        int hi = journal.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (evaluator.test(mid)) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+
+        return lo == 0
+                ? new Result(-1, Optional.empty(), evaluator.evaluations)
+                : new Result(lo - 1, Optional.of(journal.get(lo - 1)), evaluator.evaluations);
+    }
+
+    private static class Evaluator {
+        @Nonnull private final IndexedJournal journal;
+        @Nonnull private final Predicate<NodeState> predicate;
+        @Nonnull private final Map<RecordId, Boolean> results = new HashMap<>();
+        private int evaluations;
+
+        Evaluator(@Nonnull IndexedJournal journal, @Nonnull Predicate<NodeState> predicate) {
+            this.journal = journal;
+            this.predicate = predicate;
+        }
+
+        boolean test(int index) {
+            return results.computeIfAbsent(journal.recordId(index), id -> {
+                evaluations++;
+                return predicate.test(journal.get(index).getRoot());
+            });
+        }
+    }
+
+    /**
+     * Result of a bisection.
+     */
+    public static final class Result {
+        private final int index;
+        @Nonnull private final Optional<JournalEntry> entry;
+        private final int evaluations;
+
+        Result(int index, @Nonnull Optional<JournalEntry> entry, int evaluations) {
+            this.index = index;
+            this.entry = entry;
+            this.evaluations = evaluations;
+        }
+
+        /**
+         * @return  the oldest journal entry of the newest run of entries whose
+         *          roots satisfy the predicate. Empty if the root of the newest
+         *          entry does not satisfy the predicate.
+         */
+        @Nonnull
+        public Optional<JournalEntry> entry() {
+            return entry;
+        }
+
+        /**
+         * @return  the index of {@link #entry()} in the journal or {@code -1} if empty
+         */
+        public int index() {
+            return index;
+        }
+
+        /**
+         * @return  the number of times the predicate has been evaluated
+         */
+        public int evaluations() {
+            return evaluations;
+        }
+
+        @Override
+        public String toString() {
+            return "Result{index=" + index + ", entry=" + entry + ", evaluations=" + evaluations + '}';
+        }
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jackrabbit.oak.tooling.filestore.tools;
+
+import static org.apache.jackrabbit.oak.tooling.filestore.api.Segment.Type.DATA;
+import static org.apache.jackrabbit.oak.tooling.filestore.tools.ColumnarFile.ColumnType.BYTE;
+import static org.apache.jackrabbit.oak.tooling.filestore.tools.ColumnarFile.ColumnType.INT;
+import static org.apache.jackrabbit.oak.tooling.filestore.tools.ColumnarFile.ColumnType.LONG;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import javax.annotation.Nonnull;
+
+import org.apache.jackrabbit.oak.tooling.filestore.api.Record;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Segment;
+import org.apache.jackrabbit.oak.tooling.filestore.api.SegmentMetaData;
+import org.apache.jackrabbit.oak.tooling.filestore.api.SegmentStore;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Tar;
+
+/**
+ * Export the metadata of the tars, segments and records of a {@link SegmentStore}
+ * into {@link ColumnarFile columnar files} for offline analysis. The export
+ * consists of two files in the target directory:
+ * <ul>
+ *     <li>{@link #SEGMENTS} has a row per segment. Tar names are stored in the
+ *     dictionary of the file. The garbage collection columns are {@code -1} for
+ *     bulk segments.</li>
+ *     <li>{@link #RECORDS} has a row per record of each data segment. The tar and
+ *     garbage collection columns are repeated from the segment containing the record.</li>
+ * </ul>
+ * Segment ids are stored as two {@code long} columns for the most and least
+ * significant bits. Segment and record types are stored as the ordinals of
+ * {@link Segment.Type} and {@link Record.Type}.
+ * <p>
+ * Example: a histogram of record types
+ * <pre>
+ * long[] histogram = new long[Record.Type.values().length];
+ * try (ColumnarFile.Reader reader = ColumnarFile.open(new File(directory, RECORDS))) {
+ *     reader.forEach(block -&gt; {
+ *         byte[] types = block.bytes(RECORD_TYPE);
+ *         for (int k = 0; k &lt; block.size(); k++) {
+ *             histogram[types[k]]++;
+ *         }
+ *     });
+ * }
+ * </pre>
+ */
+public class MetadataExporter {
+
+    /**
+     * Name of the file containing segment metadata
+     */
+    public static final String SEGMENTS = "segments.col";
+
+    /**
+     * Name of the file containing record metadata
+     */
+    public static final String RECORDS = "records.col";
+
+    public static final String SEGMENT_MSB = "segmentMsb";
+    public static final String SEGMENT_LSB = "segmentLsb";
+    public static final String TAR = "tar";
+    public static final String SEGMENT_TYPE = "segmentType";
+    public static final String LENGTH = "length";
+    public static final String GENERATION = "generation";
+    public static final String FULL_GENERATION = "fullGeneration";
+    public static final String COMPACTED = "compacted";
+    public static final String RECORD_COUNT = "recordCount";
+    public static final String RECORD_NUMBER = "recordNumber";
+    public static final String OFFSET = "offset";
+    public static final String RECORD_TYPE = "recordType";
+
+    @Nonnull
+    private final SegmentStore store;
+
+    /**
+     * Create a new exporter exporting the metadata of a segment store.
+     * @param store  the segment store to export the metadata of
+     * @return  a new {@code MetadataExporter} instance
+     */
+    @Nonnull
+    public static MetadataExporter newMetadataExporter(@Nonnull SegmentStore store) {
+        return new MetadataExporter(store);
+    }
+
+    private MetadataExporter(@Nonnull SegmentStore store) {
+        this.store = store;
+    }
+
+    @Nonnull
+    private static Map<String, ColumnarFile.ColumnType> segmentColumns() {
+        Map<String, ColumnarFile.ColumnType> columns = new LinkedHashMap<>();
+        columns.put(SEGMENT_MSB, LONG);
+        columns.put(SEGMENT_LSB, LONG);
+        columns.put(TAR, INT);
+        columns.put(SEGMENT_TYPE, BYTE);
+        columns.put(LENGTH, LONG);
+        columns.put(GENERATION, INT);
+        columns.put(FULL_GENERATION, INT);
+        columns.put(COMPACTED, BYTE);
+        columns.put(RECORD_COUNT, INT);
+        return columns;
+    }
+
+    @Nonnull
+    private static Map<String, ColumnarFile.ColumnType> recordColumns() {
+        Map<String, ColumnarFile.ColumnType> columns = new LinkedHashMap<>();
+        columns.put(SEGMENT_MSB, LONG);
+        columns.put(SEGMENT_LSB, LONG);
+        columns.put(TAR, INT);
+        columns.put(GENERATION, INT);
+        columns.put(FULL_GENERATION, INT);
+        columns.put(COMPACTED, BYTE);
+        columns.put(RECORD_NUMBER, INT);
+        columns.put(OFFSET, INT);
+        columns.put(RECORD_TYPE, BYTE);
+        return columns;
+    }
+
+    /**
+     * Export the metadata into {@code directory}. Existing files are overwritten.
+     * @param directory  the target directory
+     * @return  a summary of the export
+     * @throws IOException  if writing the export fails
+     */
+    @Nonnull
+    public Summary export(@Nonnull File directory) throws IOException {
+        Files.createDirectories(directory.toPath());
+        try (ColumnarFile.Writer segments = ColumnarFile.create(new File(directory, SEGMENTS), segmentColumns());
+             ColumnarFile.Writer records = ColumnarFile.create(new File(directory, RECORDS), recordColumns())) {
+            for (Tar tar : store.tars()) {
+                String tarName = tar.name();
+                int segmentsTar = segments.intern(tarName);
+                int recordsTar = records.intern(tarName);
+                for (Segment segment : tar.segments()) {
+                    UUID id = segment.id();
+                    int generation = -1;
+                    int fullGeneration = -1;
+                    byte compacted = -1;
+                    int recordCount = 0;
+                    if (segment.type() == DATA) {
+                        SegmentMetaData metaData = segment.metaData();
+                        generation = metaData.generation();
+                        fullGeneration = metaData.fullGeneration();
+                        compacted = (byte) (metaData.compacted() ? 1 : 0);
+                        for (Record record : segment.records()) {
+                            records.setLong(SEGMENT_MSB, id.getMostSignificantBits());
+                            records.setLong(SEGMENT_LSB, id.getLeastSignificantBits());
+                            records.setInt(TAR, recordsTar);
+                            records.setInt(GENERATION, generation);
+                            records.setInt(FULL_GENERATION, fullGeneration);
+                            records.setByte(COMPACTED, compacted);
+                            records.setInt(RECORD_NUMBER, record.number());
+                            records.setInt(OFFSET, record.offset());
+                            records.setByte(RECORD_TYPE, (byte) record.type().ordinal());
+                            records.endRow();
+                            recordCount++;
+                        }
+                    }
+
+                    segments.setLong(SEGMENT_MSB, id.getMostSignificantBits());
+                    segments.setLong(SEGMENT_LSB, id.getLeastSignificantBits());
+                    segments.setInt(TAR, segmentsTar);
+                    segments.setByte(SEGMENT_TYPE, (byte) segment.type().ordinal());
+                    segments.setLong(LENGTH, segment.length());
+                    segments.setInt(GENERATION, generation);
+                    segments.setInt(FULL_GENERATION, fullGeneration);
+                    segments.setByte(COMPACTED, compacted);
+                    segments.setInt(RECORD_COUNT, recordCount);
+                    segments.endRow();
+                }
+            }
+            return new Summary(segments.rowCount(), records.rowCount());
+        }
+    }
+
+    /**
+     * Summary of an export.
+     */
+    public static class Summary {
+        private final long segmentCount;
+        private final long recordCount;
+
+        Summary(long segmentCount, long recordCount) {
+            this.segmentCount = segmentCount;
+            this.recordCount = recordCount;
+        }
+
+        /**
+         * @return  the number of exported segments
+         */
+        public long segmentCount() {
+            return segmentCount;
+        }
+
+        /**
+         * @return  the number of exported records
+         */
+        public long recordCount() {
+            return recordCount;
+        }
+
+        @Override
+        public String toString() {
+            return "Summary{segmentCount=" + segmentCount + ", recordCount=" + recordCount + '}';
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jackrabbit.oak.tooling.filestore.tools;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+import javax.annotation.Nonnull;
+
+/**
+ * An iterator over the results of an asynchronous function applied to the
+ * elements of an underlying iterator ahead of the consumer. At most
+ * {@code depth} results are pending at any time and the total weight of
+ * their elements is bounded by {@code budget}. A single element exceeding
+ * that budget is still submitted, but only once no other results are pending.
+ * <p>
+ * The iteration order is the same as the one of the underlying elements.
+ * A failed result is rethrown from {@link #next()}: unchecked exceptions
+ * as they are, checked exceptions wrapped into a {@code CompletionException}.
+ */
+class OrderedWindow<S, T> implements Iterator<T> {
+
+    @Nonnull
+    private final Iterator<S> elements;
+
+    @Nonnull
+    private final Function<S, CompletableFuture<T>> submit;
+
+    private final int depth;
+
+    @Nonnull
+    private final ToLongFunction<S> weight;
+
+    private final long budget;
+
+    @Nonnull
+    private final ArrayDeque<Pending<T>> window = new ArrayDeque<>();
+
+    private long pendingWeight;
+
+    private S next;
+
+    private boolean hasNextElement;
+
+    OrderedWindow(
+            @Nonnull Iterator<S> elements,
+            @Nonnull Function<S, CompletableFuture<T>> submit,
+            int depth,
+            @Nonnull ToLongFunction<S> weight,
+            long budget) {
+        this.elements = elements;
+        this.submit = submit;
+        this.depth = depth;
+        this.weight = weight;
+        this.budget = budget;
+    }
+
+    /**
+     * @return  the total weight of the elements whose results are pending
+     */
+    long pendingWeight() {
+        return pendingWeight;
+    }
+
+    private void fill() {
+        while (window.size() < depth && hasNextElement()) {
+            long w = weight.applyAsLong(next);
+            if (!window.isEmpty() && pendingWeight + w > budget) {
+                return;
+            }
+            window.add(new Pending<>(w, submit.apply(next)));
+            pendingWeight += w;
+            next = null;
+            hasNextElement = false;
+        }
+    }
+
+    private boolean hasNextElement() {
+        if (!hasNextElement && elements.hasNext()) {
+            next = elements.next();
+            hasNextElement = true;
+        }
+        return hasNextElement;
+    }
+
+    @Override
+    public boolean hasNext() {
+        fill();
+        return !window.isEmpty();
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Pending<T> pending = window.remove();
+        pendingWeight -= pending.weight;
+        fill();
+        try {
+            return pending.result.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException
+                ? (RuntimeException) e.getCause()
+                : e;
+        }
+    }
+
+    private static class Pending<T> {
+        final long weight;
+
+        @Nonnull
+        final CompletableFuture<T> result;
+
+        Pending(long weight, @Nonnull CompletableFuture<T> result) {
+            this.weight = weight;
+            this.result = result;
+        }
+    }
+}
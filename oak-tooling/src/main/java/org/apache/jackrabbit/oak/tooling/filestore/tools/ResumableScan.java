@@ -0,0 +1,226 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jackrabbit.oak.tooling.filestore.tools;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.collect.Lists.newArrayList;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+import javax.annotation.Nonnull;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Segment;
+import org.apache.jackrabbit.oak.tooling.filestore.api.SegmentStore;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Tar;
+
+/**
+ * A scan over all segments of a segment store, which periodically persists
+ * its progress together with a partial aggregate to a state file. Running a
+ * scan with an existing state file resumes it from the last checkpoint.
+ * <p>
+ * The aggregate is a mutable object of type {@code S}, which is passed to
+ * the visitor together with each segment and must be serialisable by
+ * {@link Gson}. It is persisted at the same position as the progress such
+ * that segments are accounted exactly once as long as the visitor only
+ * modifies the aggregate.
+ * <p>
+ * Progress is recorded per tar file by name. Tar files added in the meantime
+ * are scanned, tar files removed in the meantime remain accounted in the
+ * aggregate. As {@link Tar#segments()} returns the segments in reverse
+ * chronological order, segments appended to a tar file show up at the front.
+ * Progress within a tar file is thus recorded as the number of its segments at
+ * the time of the checkpoint together with the number of completed segments
+ * and the id of the last completed segment. When resuming, segments added
+ * in front are visited before the remaining ones.
+ * <p>
+ * A completed scan leaves its state file in place: running it again only
+ * scans the segments added since. Delete the state file to start over.
+ */
+public class ResumableScan<S> {
+
+    @Nonnull
+    private final SegmentStore store;
+
+    @Nonnull
+    private final File stateFile;
+
+    @Nonnull
+    private final Class<S> type;
+
+    @Nonnull
+    private final Supplier<S> initial;
+
+    private final int checkpointInterval;
+
+    @Nonnull
+    private final Gson gson = new Gson();
+
+    /**
+     * Create a new resumable scan, which checkpoints its progress every 1000
+     * segments and after each tar file.
+     * @param store      the segment store to scan
+     * @param stateFile  the file to persist the progress to
+     * @param type       the type of the aggregate
+     * @param initial    supplier of the initial aggregate when there is no state file
+     * @return  a new {@code ResumableScan} instance
+     */
+    @Nonnull
+    public static <S> ResumableScan<S> newResumableScan(
+            @Nonnull SegmentStore store,
+            @Nonnull File stateFile,
+            @Nonnull Class<S> type,
+            @Nonnull Supplier<S> initial) {
+        return new ResumableScan<>(store, stateFile, type, initial, 1000);
+    }
+
+    private ResumableScan(
+            @Nonnull SegmentStore store,
+            @Nonnull File stateFile,
+            @Nonnull Class<S> type,
+            @Nonnull Supplier<S> initial,
+            int checkpointInterval) {
+        this.store = store;
+        this.stateFile = stateFile;
+        this.type = type;
+        this.initial = initial;
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    /**
+     * @param segments  number of segments after which to checkpoint the progress
+     * @return  a new scan checkpointing its progress every {@code segments} segments
+     *          and after each tar file.
+     */
+    @Nonnull
+    public ResumableScan<S> withCheckpointInterval(int segments) {
+        checkArgument(segments > 0, "segments must be positive");
+        return new ResumableScan<>(store, stateFile, type, initial, segments);
+    }
+
+    /**
+     * Run or resume the scan.
+     * @param visitor  visitor called for each segment with the aggregate
+     * @return  the aggregate after all segments have been visited
+     * @throws IOException  if reading or writing the state file fails
+     * @throws IllegalStateException  if the tar file in progress changed in
+     *         a way other than segments being appended to it.
+     */
+    @Nonnull
+    public S run(@Nonnull BiConsumer<S, Segment> visitor) throws IOException {
+        State state = readState();
+        S aggregate = state.aggregate == null
+                ? initial.get()
+                : gson.fromJson(state.aggregate, type);
+        int sinceCheckpoint = 0;
+
+        for (Tar tar : store.tars()) {
+            // The completed segments of the tar are those in [from, to)
+            List<Segment> segments = newArrayList(tar.segments());
+            Progress progress = state.tars.get(tar.name());
+            int from = 0;
+            int to = 0;
+            if (progress == null) {
+                progress = new Progress();
+                state.tars.put(tar.name(), progress);
+            } else if (progress.completed > 0) {
+                from = segments.size() - progress.segmentCount;
+                to = from + progress.completed;
+                checkState(from >= 0 && to <= segments.size()
+                        && segments.get(to - 1).id().toString().equals(progress.lastSegment),
+                        "Tar file %s changed since the last checkpoint", tar.name());
+            }
+            if (from == 0 && to == segments.size()) {
+                continue;
+            }
+
+            // Segments added in front are scanned oldest first, such that
+            // the completed segments stay contiguous
+            while (from > 0 || to < segments.size()) {
+                Segment segment = from > 0
+                        ? segments.get(--from)
+                        : segments.get(to++);
+                visitor.accept(aggregate, segment);
+                progress.segmentCount = segments.size() - from;
+                progress.completed = to - from;
+                progress.lastSegment = segments.get(to - 1).id().toString();
+                if (++sinceCheckpoint >= checkpointInterval) {
+                    sinceCheckpoint = 0;
+                    writeState(state, aggregate);
+                }
+            }
+            writeState(state, aggregate);
+        }
+
+        return aggregate;
+    }
+
+    @Nonnull
+    private State readState() throws IOException {
+        if (!stateFile.exists()) {
+            return new State();
+        }
+        try (Reader reader = Files.newBufferedReader(stateFile.toPath(), UTF_8)) {
+            State state = gson.fromJson(reader, State.class);
+            return state == null ? new State() : state;
+        }
+    }
+
+    private void writeState(@Nonnull State state, @Nonnull S aggregate) throws IOException {
+        state.aggregate = gson.toJsonTree(aggregate, type);
+        File temp = new File(stateFile.getPath() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temp.toPath(), UTF_8)) {
+            gson.toJson(state, writer);
+        }
+        Files.move(temp.toPath(), stateFile.toPath(), REPLACE_EXISTING, ATOMIC_MOVE);
+    }
+
+    /**
+     * The persisted progress of a scan.
+     */
+    private static class State {
+        Map<String, Progress> tars = new LinkedHashMap<>();
+        JsonElement aggregate;
+    }
+
+    /**
+     * The progress within a tar file: the number of its segments when it was
+     * last checkpointed, the number of completed segments following the ones
+     * added since and the id of the last completed segment.
+     */
+    private static class Progress {
+        int segmentCount;
+        int completed;
+        String lastSegment;
+    }
+}
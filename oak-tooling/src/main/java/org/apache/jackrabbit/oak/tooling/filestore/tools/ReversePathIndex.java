@@ -0,0 +1,522 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jackrabbit.oak.tooling.filestore.tools;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Comparator.comparingLong;
+import static org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.RecordReader.newRecordReader;
+import static org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.TemplateCache.newTemplateCache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import javax.annotation.Nonnull;
+
+import org.apache.jackrabbit.oak.tooling.filestore.api.JournalEntry;
+import org.apache.jackrabbit.oak.tooling.filestore.api.SegmentStore;
+import org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.NodeRecord;
+import org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.RawSegment.RecordId;
+import org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.RecordReader;
+import org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.TemplateCache;
+
+/**
+ * A reverse index from the ids of {@link NodeRecord node records} to the
+ * paths at which they are reachable from the root of a journal entry. This
+ * allows determining which parts of the repository are affected by e.g. a
+ * corrupt record.
+ * <p>
+ * The index is built by a single breadth first traversal of the node records
+ * reachable from the root. Each node record is assigned an ordinal in
+ * traversal order and the index stores the ordinal of its parent and the
+ * name it has there. Subtrees shared between several paths are only traversed
+ * once, such that a node record is only indexed at its shortest path and a
+ * lookup returns that single path. E.g. a node shared between the head and a
+ * checkpoint is indexed at its path below {@code /root} only. Paths are
+ * relative to the super root, i.e. they start with {@code /root} or
+ * {@code /checkpoints}. The path of the super root itself is {@code /}.
+ * <p>
+ * The index runs in bounded memory apart from the traversal frontier, a bit
+ * set per segment for tracking visited records and the distinct node names:
+ * it keeps at most
+ * {@code chunkSize} entries in memory and spills the rest to files in a
+ * given directory. Parents are stored in traversal order as 8 byte entries
+ * (parent ordinal, name), record ids in sorted runs of 24 byte entries (most
+ * and least significant bits of the segment id, record number, ordinal).
+ * {@link Index#paths(Iterable) Lookups} are batched: a batch of record ids
+ * is sorted and matched against each run in a single merge pass.
+ */
+public class ReversePathIndex {
+
+    private static final Comparator<RecordId> ID_ORDER =
+            comparingLong((RecordId id) -> id.segmentId().getMostSignificantBits())
+                    .thenComparingLong(id -> id.segmentId().getLeastSignificantBits())
+                    .thenComparingInt(RecordId::number);
+
+    @Nonnull
+    private final SegmentStore store;
+
+    @Nonnull
+    private final File directory;
+
+    private final int chunkSize;
+
+    /**
+     * Create a new instance keeping up to one million index entries in memory.
+     * @param store      the segment store
+     * @param directory  directory for spilling index entries
+     * @return  a new {@code ReversePathIndex} instance
+     */
+    @Nonnull
+    public static ReversePathIndex newReversePathIndex(@Nonnull SegmentStore store, @Nonnull File directory) {
+        return new ReversePathIndex(store, directory, 1 << 20);
+    }
+
+    private ReversePathIndex(@Nonnull SegmentStore store, @Nonnull File directory, int chunkSize) {
+        this.store = store;
+        this.directory = directory;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * @param chunkSize  the number of index entries to keep in memory
+     * @return  a new instance keeping up to {@code chunkSize} index entries in memory
+     */
+    @Nonnull
+    public ReversePathIndex withChunkSize(int chunkSize) {
+        checkArgument(chunkSize > 0, "chunkSize must be positive");
+        return new ReversePathIndex(store, directory, chunkSize);
+    }
+
+    /**
+     * Build the index for the most recent journal entry.
+     * @return  the index. The caller is responsible for closing it.
+     * @throws IOException  if spilling index entries fails
+     * @throws IllegalStateException  if the journal is empty
+     */
+    @Nonnull
+    public Index build() throws IOException {
+        Iterator<JournalEntry> entries = store.journalEntries().iterator();
+        if (!entries.hasNext()) {
+            throw new IllegalStateException("Empty journal");
+        }
+        return build(entries.next());
+    }
+
+    /**
+     * Build the index for a journal entry.
+     * @param entry  the journal entry
+     * @return  the index. The caller is responsible for closing it.
+     * @throws IOException  if spilling index entries fails
+     */
+    @Nonnull
+    public Index build(@Nonnull JournalEntry entry) throws IOException {
+        Index index = new Index(directory, chunkSize);
+        try {
+            traverse(new RecordId(entry.segmentId(), entry.recordNumber()), index);
+            return index;
+        } catch (IOException | RuntimeException e) {
+            index.close();
+            throw e;
+        }
+    }
+
+    private void traverse(@Nonnull RecordId root, @Nonnull Index index) throws IOException {
+        RecordReader reader = newRecordReader(store, 64);
+        TemplateCache templates = newTemplateCache(reader, 10000);
+        Map<UUID, BitSet> visited = new HashMap<>();
+        Deque<Pending> queue = new ArrayDeque<>();
+        queue.add(new Pending(-1, -1, root));
+
+        while (!queue.isEmpty()) {
+            Pending pending = queue.remove();
+            if (!markVisited(visited, pending.id)) {
+                continue;
+            }
+
+            int ordinal = index.add(pending.id, pending.parent, pending.name);
+            NodeRecord.read(reader, templates, pending.id).forEachChild((name, child) ->
+                    queue.add(new Pending(ordinal, index.nameId(name), child)));
+        }
+        index.seal();
+    }
+
+    private static boolean markVisited(@Nonnull Map<UUID, BitSet> visited, @Nonnull RecordId id) {
+        BitSet numbers = visited.computeIfAbsent(id.segmentId(), s -> new BitSet());
+        if (numbers.get(id.number())) {
+            return false;
+        }
+        numbers.set(id.number());
+        return true;
+    }
+
+    private static class Pending {
+        private final int parent;
+        private final int name;
+        @Nonnull private final RecordId id;
+
+        Pending(int parent, int name, @Nonnull RecordId id) {
+            this.parent = parent;
+            this.name = name;
+            this.id = id;
+        }
+    }
+
+    /**
+     * The reverse path index built by {@link #build()}. Closing the index
+     * deletes its spill files.
+     */
+    public static final class Index implements Closeable {
+        @Nonnull private final File directory;
+        private final int chunkSize;
+
+        @Nonnull private final Map<String, Integer> nameIds = new HashMap<>();
+        @Nonnull private final List<String> names = new ArrayList<>();
+
+        // Parents in traversal order: spilled entries followed by the in memory chunk
+        @Nonnull private final int[] parents;
+        @Nonnull private final int[] nameRefs;
+        private int spilledParents;
+        private File parentFile;
+        private DataOutputStream parentOut;
+        private RandomAccessFile parentIn;
+
+        // Record ids: sorted runs followed by the in memory chunk
+        @Nonnull private final long[] msbs;
+        @Nonnull private final long[] lsbs;
+        @Nonnull private final int[] numbers;
+        @Nonnull private final int[] ordinals;
+        private int ids;
+        @Nonnull private final List<File> runs = new ArrayList<>();
+
+        private int size;
+
+        Index(@Nonnull File directory, int chunkSize) {
+            this.directory = directory;
+            this.chunkSize = chunkSize;
+            this.parents = new int[chunkSize];
+            this.nameRefs = new int[chunkSize];
+            this.msbs = new long[chunkSize];
+            this.lsbs = new long[chunkSize];
+            this.numbers = new int[chunkSize];
+            this.ordinals = new int[chunkSize];
+        }
+
+        int nameId(@Nonnull String name) {
+            return nameIds.computeIfAbsent(name, n -> {
+                names.add(n);
+                return names.size() - 1;
+            });
+        }
+
+        int add(@Nonnull RecordId id, int parent, int name) throws IOException {
+            int ordinal = size++;
+
+            int k = ordinal - spilledParents;
+            if (k == chunkSize) {
+                spillParents();
+                k = 0;
+            }
+            parents[k] = parent;
+            nameRefs[k] = name;
+
+            if (ids == chunkSize) {
+                runs.add(writeRun());
+            }
+            UUID segmentId = id.segmentId();
+            msbs[ids] = segmentId.getMostSignificantBits();
+            lsbs[ids] = segmentId.getLeastSignificantBits();
+            numbers[ids] = id.number();
+            ordinals[ids] = ordinal;
+            ids++;
+            return ordinal;
+        }
+
+        private void spillParents() throws IOException {
+            if (parentOut == null) {
+                parentFile = File.createTempFile("parents", ".index", directory);
+                parentOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(parentFile), 1 << 16));
+            }
+            for (int k = 0; k < chunkSize; k++) {
+                parentOut.writeInt(parents[k]);
+                parentOut.writeInt(nameRefs[k]);
+            }
+            spilledParents += chunkSize;
+        }
+
+        @Nonnull
+        private File writeRun() throws IOException {
+            sortIds();
+            File run = File.createTempFile("ids", ".index", directory);
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(run), 1 << 16))) {
+                for (int k = 0; k < ids; k++) {
+                    out.writeLong(msbs[k]);
+                    out.writeLong(lsbs[k]);
+                    out.writeInt(numbers[k]);
+                    out.writeInt(ordinals[k]);
+                }
+            }
+            ids = 0;
+            return run;
+        }
+
+        /**
+         * Sort the in memory record ids in place by segment id and record
+         * number. A heap sort on the parallel arrays avoids boxing an index
+         * per entry.
+         */
+        private void sortIds() {
+            for (int k = ids / 2 - 1; k >= 0; k--) {
+                siftDown(k, ids);
+            }
+            for (int end = ids - 1; end > 0; end--) {
+                swapIds(0, end);
+                siftDown(0, end);
+            }
+        }
+
+        private void siftDown(int k, int end) {
+            for (int child = 2 * k + 1; child < end; child = 2 * k + 1) {
+                if (child + 1 < end && compareIds(child, child + 1) < 0) {
+                    child++;
+                }
+                if (compareIds(k, child) >= 0) {
+                    return;
+                }
+                swapIds(k, child);
+                k = child;
+            }
+        }
+
+        private int compareIds(int i, int j) {
+            int c = Long.compare(msbs[i], msbs[j]);
+            if (c == 0) {
+                c = Long.compare(lsbs[i], lsbs[j]);
+            }
+            if (c == 0) {
+                c = Integer.compare(numbers[i], numbers[j]);
+            }
+            return c;
+        }
+
+        private void swapIds(int i, int j) {
+            long msb = msbs[i];
+            msbs[i] = msbs[j];
+            msbs[j] = msb;
+            long lsb = lsbs[i];
+            lsbs[i] = lsbs[j];
+            lsbs[j] = lsb;
+            int number = numbers[i];
+            numbers[i] = numbers[j];
+            numbers[j] = number;
+            int ordinal = ordinals[i];
+            ordinals[i] = ordinals[j];
+            ordinals[j] = ordinal;
+        }
+
+        void seal() throws IOException {
+            if (parentOut != null) {
+                parentOut.close();
+                parentOut = null;
+                parentIn = new RandomAccessFile(parentFile, "r");
+            }
+            sortIds();
+        }
+
+        /**
+         * @return  the number of indexed node records
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * @return  the number of files the index has been spilled to
+         */
+        public int spillFileCount() {
+            return runs.size() + (parentFile == null ? 0 : 1);
+        }
+
+        /**
+         * Look up the paths of a batch of node records. Only a single path
+         * is returned per node record, its shortest one. Other paths at which
+         * a node record is reachable, e.g. through a subtree shared between
+         * several parents, are not returned.
+         * @param recordIds  ids of node records
+         * @return  the shortest path of each of {@code recordIds} which is indexed
+         * @throws IOException  if reading spilled index entries fails
+         */
+        @Nonnull
+        public Map<RecordId, String> paths(@Nonnull Iterable<RecordId> recordIds) throws IOException {
+            List<RecordId> queries = new ArrayList<>();
+            recordIds.forEach(queries::add);
+            queries.sort(ID_ORDER);
+
+            Map<RecordId, Integer> found = new HashMap<>();
+            for (File run : runs) {
+                try (DataInputStream in = new DataInputStream(
+                        new BufferedInputStream(new FileInputStream(run), 1 << 16))) {
+                    long entries = run.length() / 24;
+                    match(queries, entries, found, new Entry() {
+                        @Override
+                        void advance() throws IOException {
+                            msb = in.readLong();
+                            lsb = in.readLong();
+                            number = in.readInt();
+                            ordinal = in.readInt();
+                        }
+                    });
+                }
+            }
+            match(queries, ids, found, new Entry() {
+                int k;
+
+                @Override
+                void advance() {
+                    msb = msbs[k];
+                    lsb = lsbs[k];
+                    number = numbers[k];
+                    ordinal = ordinals[k];
+                    k++;
+                }
+            });
+
+            Map<Integer, String> resolved = new HashMap<>();
+            Map<RecordId, String> paths = new HashMap<>();
+            for (Map.Entry<RecordId, Integer> entry : found.entrySet()) {
+                paths.put(entry.getKey(), path(entry.getValue(), resolved));
+            }
+            return paths;
+        }
+
+        private static void match(
+                @Nonnull List<RecordId> queries,
+                long entries,
+                @Nonnull Map<RecordId, Integer> found,
+                @Nonnull Entry entry) throws IOException {
+            int q = 0;
+            for (long k = 0; k < entries && q < queries.size(); k++) {
+                entry.advance();
+                int c = -1;
+                while (q < queries.size() && (c = entry.compareTo(queries.get(q))) > 0) {
+                    q++;
+                }
+                if (c == 0) {
+                    found.put(queries.get(q), entry.ordinal);
+                }
+            }
+        }
+
+        @Nonnull
+        private String path(int ordinal, @Nonnull Map<Integer, String> resolved) throws IOException {
+            if (ordinal == 0) {
+                return "/";
+            }
+            String path = resolved.get(ordinal);
+            if (path == null) {
+                long parent = parent(ordinal);
+                int parentOrdinal = (int) (parent >> 32);
+                String name = names.get((int) parent);
+                path = parentOrdinal == 0
+                        ? '/' + name
+                        : path(parentOrdinal, resolved) + '/' + name;
+                resolved.put(ordinal, path);
+            }
+            return path;
+        }
+
+        private long parent(int ordinal) throws IOException {
+            int parent;
+            int name;
+            if (ordinal >= spilledParents) {
+                parent = parents[ordinal - spilledParents];
+                name = nameRefs[ordinal - spilledParents];
+            } else {
+                parentIn.seek(8L * ordinal);
+                parent = parentIn.readInt();
+                name = parentIn.readInt();
+            }
+            return ((long) parent << 32) | (name & 0xffffffffL);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (parentOut != null) {
+                    parentOut.close();
+                }
+                if (parentIn != null) {
+                    parentIn.close();
+                }
+            } finally {
+                if (parentFile != null) {
+                    Files.deleteIfExists(parentFile.toPath());
+                }
+                for (File run : runs) {
+                    Files.deleteIfExists(run.toPath());
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Index{size=" + size + ", names=" + names.size() + ", spillFiles=" + spillFileCount() + '}';
+        }
+    }
+
+    /**
+     * Cursor over the entries of a sorted run.
+     */
+    private abstract static class Entry {
+        long msb;
+        long lsb;
+        int number;
+        int ordinal;
+
+        abstract void advance() throws IOException;
+
+        int compareTo(@Nonnull RecordId id) {
+            UUID segmentId = id.segmentId();
+            int c = Long.compare(msb, segmentId.getMostSignificantBits());
+            if (c == 0) {
+                c = Long.compare(lsb, segmentId.getLeastSignificantBits());
+            }
+            return c != 0 ? c : Integer.compare(number, id.number());
+        }
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jackrabbit.oak.tooling.filestore.tools;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.concurrent.CompletableFuture.supplyAsync;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+
+import javax.annotation.Nonnull;
+
+import org.apache.jackrabbit.oak.tooling.filestore.api.Segment;
+import org.apache.jackrabbit.oak.tooling.filestore.api.SegmentStore;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Tar;
+
+/**
+ * Export the raw data of selected segments of a {@link SegmentStore} into
+ * a directory. Each exported segment is written to {@code <tar>/<segment id>}
+ * relative to the target directory. A {@link #MANIFEST manifest} listing
+ * the tar, segment id, type, length and CRC32 checksum of every exported
+ * segment is written to the target directory.
+ * <p>
+ * Segments are copied and checksummed concurrently on an {@link Executor}.
+ * At most {@code parallelism} segments are in flight at any time.
+ */
+public class SegmentExporter {
+
+    /**
+     * Name of the manifest file
+     */
+    public static final String MANIFEST = "manifest.txt";
+
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    @Nonnull
+    private final SegmentStore store;
+
+    @Nonnull
+    private final Executor executor;
+
+    private final int parallelism;
+
+    @Nonnull
+    private final Predicate<Tar> tarFilter;
+
+    @Nonnull
+    private final Predicate<Segment> segmentFilter;
+
+    /**
+     * Create a new exporter exporting all segments of a segment store.
+     * @param store        the segment store to export segments from
+     * @param executor     the executor to copy segments on
+     * @param parallelism  maximal number of segments to copy concurrently
+     * @return  a new {@code SegmentExporter} instance
+     */
+    @Nonnull
+    public static SegmentExporter newSegmentExporter(
+            @Nonnull SegmentStore store,
+            @Nonnull Executor executor,
+            int parallelism) {
+        checkArgument(parallelism > 0, "parallelism must be positive");
+        return new SegmentExporter(store, executor, parallelism, tar -> true, segment -> true);
+    }
+
+    private SegmentExporter(
+            @Nonnull SegmentStore store,
+            @Nonnull Executor executor,
+            int parallelism,
+            @Nonnull Predicate<Tar> tarFilter,
+            @Nonnull Predicate<Segment> segmentFilter) {
+        this.store = store;
+        this.executor = executor;
+        this.parallelism = parallelism;
+        this.tarFilter = tarFilter;
+        this.segmentFilter = segmentFilter;
+    }
+
+    /**
+     * @param filter  the tars to export segments from
+     * @return  a new exporter that only exports segments from tars matching {@code filter}
+     */
+    @Nonnull
+    public SegmentExporter withTars(@Nonnull Predicate<Tar> filter) {
+        return new SegmentExporter(store, executor, parallelism, tarFilter.and(filter), segmentFilter);
+    }
+
+    /**
+     * @param filter  the segments to export. E.g. {@link Segment#isOfType(Segment.Type)}
+     *                or {@link Segment#isOfGeneration(int)}.
+     * @return  a new exporter that only exports segments matching {@code filter}
+     */
+    @Nonnull
+    public SegmentExporter withSegments(@Nonnull Predicate<Segment> filter) {
+        return new SegmentExporter(store, executor, parallelism, tarFilter, segmentFilter.and(filter));
+    }
+
+    /**
+     * Export the selected segments.
+     * @param directory  the target directory. Segments already present in
+     *                   the target directory are not overwritten and cause
+     *                   the export to fail.
+     * @return  a summary of the export
+     * @throws IOException  if exporting a segment fails
+     */
+    @Nonnull
+    public Summary export(@Nonnull File directory) throws IOException {
+        Path target = directory.toPath();
+        Files.createDirectories(target);
+
+        long count = 0;
+        long bytes = 0;
+        ArrayDeque<CompletableFuture<Entry>> window = new ArrayDeque<>();
+        try (Writer manifest = Files.newBufferedWriter(target.resolve(MANIFEST), UTF_8)) {
+            for (Tar tar : store.tars()) {
+                if (!tarFilter.test(tar)) {
+                    continue;
+                }
+                String tarName = tar.name();
+                Path tarDirectory = Files.createDirectories(target.resolve(tarName));
+                for (Segment segment : tar.segments()) {
+                    if (!segmentFilter.test(segment)) {
+                        continue;
+                    }
+                    if (window.size() >= parallelism) {
+                        Entry entry = join(window.remove());
+                        manifest.write(entry.toString());
+                        count++;
+                        bytes += entry.length;
+                    }
+                    window.add(supplyAsync(() -> copy(tarName, segment, tarDirectory), executor));
+                }
+            }
+            while (!window.isEmpty()) {
+                Entry entry = join(window.remove());
+                manifest.write(entry.toString());
+                count++;
+                bytes += entry.length;
+            }
+        } finally {
+            window.forEach(entry -> entry.cancel(false));
+        }
+        return new Summary(count, bytes);
+    }
+
+    @Nonnull
+    private static Entry join(@Nonnull CompletableFuture<Entry> entry) throws IOException {
+        try {
+            return entry.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            } else {
+                throw e;
+            }
+        }
+    }
+
+    @Nonnull
+    private static Entry copy(@Nonnull String tar, @Nonnull Segment segment, @Nonnull Path directory) {
+        UUID id = segment.id();
+        CRC32 crc = new CRC32();
+        long length = 0;
+        try (InputStream in = segment.data().getNewStream();
+             FileChannel out = FileChannel.open(directory.resolve(id.toString()), CREATE_NEW, WRITE)) {
+            byte[] buffer = new byte[(int) Math.min(BUFFER_SIZE, Math.max(1, segment.length()))];
+            int n = in.read(buffer);
+            while (n >= 0) {
+                crc.update(buffer, 0, n);
+                ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, n);
+                while (bytes.hasRemaining()) {
+                    out.write(bytes);
+                }
+                length += n;
+                n = in.read(buffer);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new Entry(tar, id, segment.type(), length, crc.getValue());
+    }
+
+    /**
+     * An entry of the manifest.
+     */
+    private static class Entry {
+        @Nonnull final String tar;
+        @Nonnull final UUID id;
+        @Nonnull final Segment.Type type;
+        final long length;
+        final long crc;
+
+        Entry(@Nonnull String tar, @Nonnull UUID id, @Nonnull Segment.Type type, long length, long crc) {
+            this.tar = tar;
+            this.id = id;
+            this.type = type;
+            this.length = length;
+            this.crc = crc;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s\t%s\t%s\t%d\t%08x%n", tar, id, type, length, crc);
+        }
+    }
+
+    /**
+     * Summary of an export.
+     */
+    public static class Summary {
+        private final long segmentCount;
+        private final long byteCount;
+
+        Summary(long segmentCount, long byteCount) {
+            this.segmentCount = segmentCount;
+            this.byteCount = byteCount;
+        }
+
+        /**
+         * @return  the number of exported segments
+         */
+        public long segmentCount() {
+            return segmentCount;
+        }
+
+        /**
+         * @return  the number of exported bytes
+         */
+        public long byteCount() {
+            return byteCount;
+        }
+
+        @Override
+        public String toString() {
+            return "Summary{segmentCount=" + segmentCount + ", byteCount=" + byteCount + '}';
+        }
+    }
+}
@@ -0,0 +1,590 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jackrabbit.oak.tooling.filestore.tools;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.util.Comparator.comparingLong;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.function.BiConsumer;
+
+import javax.annotation.Nonnull;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.primitives.UnsignedLong;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Segment;
+import org.apache.jackrabbit.oak.tooling.filestore.api.SegmentStore;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Tar;
+
+/**
+ * Content fingerprints of segments and a comparison of the fingerprints
+ * of two segment stores.
+ * <p>
+ * A fingerprint is the 128 bit murmur3 hash of the data of a segment, which
+ * is computed by streaming {@link Segment#data()}. The fingerprints of all
+ * segments of a store are kept in a sidecar file sorted by segment id. As
+ * segments are immutable, {@link #update() updating} the sidecar only hashes
+ * the segments not already contained in it. Updating and comparing sidecars
+ * runs in bounded memory: segment ids are sorted in chunks of
+ * {@code chunkSize} ids, which are merged with the sidecar afterwards.
+ * <p>
+ * The sidecar consists of 32 byte entries: the most and least significant
+ * bits of the segment id followed by the two halves of the fingerprint.
+ */
+public class SegmentFingerprints {
+
+    private static final Comparator<UUID> ID_ORDER =
+            comparingLong(UUID::getMostSignificantBits)
+                    .thenComparingLong(UUID::getLeastSignificantBits);
+
+    @Nonnull
+    private final SegmentStore store;
+
+    @Nonnull
+    private final File sidecar;
+
+    private final int chunkSize;
+
+    /**
+     * Create a new instance sorting segment ids in chunks of one million ids.
+     * @param store    the segment store
+     * @param sidecar  the sidecar file with the fingerprints of the store
+     * @return  a new {@code SegmentFingerprints} instance
+     */
+    @Nonnull
+    public static SegmentFingerprints newSegmentFingerprints(@Nonnull SegmentStore store, @Nonnull File sidecar) {
+        return new SegmentFingerprints(store, sidecar, 1 << 20);
+    }
+
+    private SegmentFingerprints(@Nonnull SegmentStore store, @Nonnull File sidecar, int chunkSize) {
+        this.store = store;
+        this.sidecar = sidecar;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * @param chunkSize  the number of segment ids to sort in memory
+     * @return  a new instance sorting segment ids in chunks of {@code chunkSize} ids
+     */
+    @Nonnull
+    public SegmentFingerprints withChunkSize(int chunkSize) {
+        checkArgument(chunkSize > 0, "chunkSize must be positive");
+        return new SegmentFingerprints(store, sidecar, chunkSize);
+    }
+
+    /**
+     * @return  the sidecar file with the fingerprints of the store
+     */
+    @Nonnull
+    public File sidecar() {
+        return sidecar;
+    }
+
+    /**
+     * Compute the fingerprint of a segment.
+     * @param segment  the segment
+     * @return  the fingerprint of the data of {@code segment}
+     * @throws IOException  if reading the data of the segment fails
+     */
+    @Nonnull
+    public static Fingerprint fingerprint(@Nonnull Segment segment) throws IOException {
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        byte[] buffer = new byte[8192];
+        try (InputStream data = segment.data().getNewStream()) {
+            int n;
+            while ((n = data.read(buffer)) != -1) {
+                hasher.putBytes(buffer, 0, n);
+            }
+        }
+        ByteBuffer hash = ByteBuffer.wrap(hasher.hash().asBytes());
+        return new Fingerprint(hash.getLong(), hash.getLong());
+    }
+
+    /**
+     * Bring the sidecar file up to date with the segments of the store.
+     * Fingerprints of segments not contained in the store any more are
+     * removed from the sidecar.
+     * @return  a summary of the update
+     * @throws IOException  if reading segments or reading or writing the sidecar fails
+     */
+    @Nonnull
+    public Summary update() throws IOException {
+        File directory = sidecar.getAbsoluteFile().getParentFile();
+        List<File> chunks = new ArrayList<>();
+        try {
+            writeChunks(directory, chunks);
+
+            long segmentCount = 0;
+            long hashCount = 0;
+            File temp = new File(sidecar.getPath() + ".tmp");
+            try (MergedCursor ids = new MergedCursor(chunks);
+                 Cursor old = new Cursor(sidecar.exists() ? sidecar : null, 4);
+                 DataOutputStream out = new DataOutputStream(
+                         new BufferedOutputStream(new FileOutputStream(temp), 1 << 16))) {
+                boolean hasOld = old.advance();
+                long msb = 0;
+                long lsb = 0;
+                while (ids.advance()) {
+                    long[] id = ids.current();
+                    if (segmentCount > 0 && id[0] == msb && id[1] == lsb) {
+                        // Segments contained in more than one tar file
+                        continue;
+                    }
+                    msb = id[0];
+                    lsb = id[1];
+                    segmentCount++;
+
+                    while (hasOld && old.compareTo(msb, lsb) < 0) {
+                        hasOld = old.advance();
+                    }
+                    long h1;
+                    long h2;
+                    if (hasOld && old.compareTo(msb, lsb) == 0) {
+                        h1 = old.current()[2];
+                        h2 = old.current()[3];
+                    } else {
+                        UUID segmentId = new UUID(msb, lsb);
+                        Fingerprint fingerprint = fingerprint(store.segment(segmentId)
+                                .orElseThrow(() -> new IllegalStateException("No such segment " + segmentId)));
+                        h1 = fingerprint.h1;
+                        h2 = fingerprint.h2;
+                        hashCount++;
+                    }
+                    out.writeLong(msb);
+                    out.writeLong(lsb);
+                    out.writeLong(h1);
+                    out.writeLong(h2);
+                }
+            }
+            Files.move(temp.toPath(), sidecar.toPath(), REPLACE_EXISTING, ATOMIC_MOVE);
+            return new Summary(segmentCount, hashCount);
+        } finally {
+            for (File chunk : chunks) {
+                Files.deleteIfExists(chunk.toPath());
+            }
+        }
+    }
+
+    private void writeChunks(@Nonnull File directory, @Nonnull List<File> chunks) throws IOException {
+        List<UUID> ids = new ArrayList<>();
+        for (Tar tar : store.tars()) {
+            for (Segment segment : tar.segments()) {
+                ids.add(segment.id());
+                if (ids.size() == chunkSize) {
+                    chunks.add(writeChunk(directory, ids));
+                    ids.clear();
+                }
+            }
+        }
+        if (!ids.isEmpty()) {
+            chunks.add(writeChunk(directory, ids));
+        }
+    }
+
+    @Nonnull
+    private static File writeChunk(@Nonnull File directory, @Nonnull List<UUID> ids) throws IOException {
+        ids.sort(ID_ORDER);
+        File chunk = File.createTempFile("fingerprints", ".chunk", directory);
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(chunk), 1 << 16))) {
+            for (UUID id : ids) {
+                out.writeLong(id.getMostSignificantBits());
+                out.writeLong(id.getLeastSignificantBits());
+            }
+        }
+        return chunk;
+    }
+
+    /**
+     * Read a sidecar file.
+     * @param sidecar   the sidecar file
+     * @param consumer  consumer of the segment ids and their fingerprints in
+     *                  the order of the segment ids
+     * @throws IOException  if reading the sidecar fails
+     */
+    public static void read(@Nonnull File sidecar, @Nonnull BiConsumer<UUID, Fingerprint> consumer) throws IOException {
+        try (Cursor entries = new Cursor(sidecar, 4)) {
+            while (entries.advance()) {
+                long[] entry = entries.current();
+                consumer.accept(new UUID(entry[0], entry[1]), new Fingerprint(entry[2], entry[3]));
+            }
+        }
+    }
+
+    /**
+     * Compare the fingerprints of two stores. Segments are matched by id in a
+     * single merge pass over both sidecars. The overlap of the distinct segment
+     * contents of both stores regardless of the segment ids is estimated from
+     * bottom-k MinHash sketches of the fingerprints.
+     * @param left        the sidecar file of the first store
+     * @param right       the sidecar file of the second store
+     * @param sketchSize  the number of fingerprints to keep per sketch
+     * @return  the result of the comparison
+     * @throws IOException  if reading the sidecars fails
+     */
+    @Nonnull
+    public static Comparison compare(@Nonnull File left, @Nonnull File right, int sketchSize) throws IOException {
+        checkArgument(sketchSize > 0, "sketchSize must be positive");
+        Sketch leftSketch = new Sketch(sketchSize);
+        Sketch rightSketch = new Sketch(sketchSize);
+        long same = 0;
+        long different = 0;
+        long onlyLeft = 0;
+        long onlyRight = 0;
+
+        try (Cursor l = new Cursor(left, 4); Cursor r = new Cursor(right, 4)) {
+            boolean hasLeft = l.advance();
+            boolean hasRight = r.advance();
+            while (hasLeft || hasRight) {
+                int c = !hasLeft ? 1
+                        : !hasRight ? -1
+                        : l.compareTo(r.current()[0], r.current()[1]);
+                if (c < 0) {
+                    onlyLeft++;
+                    leftSketch.add(l.current()[2]);
+                    hasLeft = l.advance();
+                } else if (c > 0) {
+                    onlyRight++;
+                    rightSketch.add(r.current()[2]);
+                    hasRight = r.advance();
+                } else {
+                    if (l.current()[2] == r.current()[2] && l.current()[3] == r.current()[3]) {
+                        same++;
+                    } else {
+                        different++;
+                    }
+                    leftSketch.add(l.current()[2]);
+                    rightSketch.add(r.current()[2]);
+                    hasLeft = l.advance();
+                    hasRight = r.advance();
+                }
+            }
+        }
+
+        return new Comparison(same, different, onlyLeft, onlyRight, leftSketch, rightSketch, sketchSize);
+    }
+
+    /**
+     * A bottom-k sketch: the {@code k} smallest distinct hash values in unsigned order.
+     */
+    private static class Sketch {
+        @Nonnull
+        private final TreeSet<Long> values = new TreeSet<>(Long::compareUnsigned);
+        private final int k;
+
+        Sketch(int k) {
+            this.k = k;
+        }
+
+        void add(long value) {
+            if (values.size() < k) {
+                values.add(value);
+            } else if (Long.compareUnsigned(value, values.last()) < 0 && values.add(value)) {
+                values.pollLast();
+            }
+        }
+    }
+
+    /**
+     * Cursor over a file of entries of {@code width} longs each.
+     */
+    private static class Cursor implements Closeable {
+        private final DataInputStream in;
+        @Nonnull private final long[] current;
+
+        /**
+         * @param file  the file to read or {@code null} for an empty cursor
+         */
+        Cursor(File file, int width) throws IOException {
+            this.in = file == null
+                    ? null
+                    : new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+            this.current = new long[width];
+        }
+
+        boolean advance() throws IOException {
+            if (in == null) {
+                return false;
+            }
+            try {
+                for (int k = 0; k < current.length; k++) {
+                    current[k] = in.readLong();
+                }
+                return true;
+            } catch (EOFException e) {
+                return false;
+            }
+        }
+
+        @Nonnull
+        long[] current() {
+            return current;
+        }
+
+        int compareTo(long msb, long lsb) {
+            int c = Long.compare(current[0], msb);
+            return c != 0 ? c : Long.compare(current[1], lsb);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (in != null) {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * Merge of sorted chunks of segment ids.
+     */
+    private static class MergedCursor implements Closeable {
+        @Nonnull private final List<Cursor> cursors = new ArrayList<>();
+        @Nonnull private final PriorityQueue<Cursor> queue = new PriorityQueue<>(
+                comparingLong((Cursor cursor) -> cursor.current()[0])
+                        .thenComparingLong(cursor -> cursor.current()[1]));
+        private final long[] current = new long[2];
+        private Cursor head;
+
+        MergedCursor(@Nonnull List<File> chunks) throws IOException {
+            try {
+                for (File chunk : chunks) {
+                    Cursor cursor = new Cursor(chunk, 2);
+                    cursors.add(cursor);
+                    if (cursor.advance()) {
+                        queue.add(cursor);
+                    }
+                }
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        boolean advance() throws IOException {
+            if (head != null && head.advance()) {
+                queue.add(head);
+            }
+            head = queue.poll();
+            if (head == null) {
+                return false;
+            }
+            current[0] = head.current()[0];
+            current[1] = head.current()[1];
+            return true;
+        }
+
+        @Nonnull
+        long[] current() {
+            return current;
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (Cursor cursor : cursors) {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * The 128 bit content fingerprint of a segment.
+     */
+    public static final class Fingerprint implements Comparable<Fingerprint> {
+        private final long h1;
+        private final long h2;
+
+        Fingerprint(long h1, long h2) {
+            this.h1 = h1;
+            this.h2 = h2;
+        }
+
+        @Override
+        public int compareTo(@Nonnull Fingerprint other) {
+            int c = Long.compareUnsigned(h1, other.h1);
+            return c != 0 ? c : Long.compareUnsigned(h2, other.h2);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (other == null || getClass() != other.getClass()) {
+                return false;
+            }
+            Fingerprint that = (Fingerprint) other;
+            return h1 == that.h1 && h2 == that.h2;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) h1;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%016x%016x", h1, h2);
+        }
+    }
+
+    /**
+     * Summary of an {@link #update()}.
+     */
+    public static final class Summary {
+        private final long segmentCount;
+        private final long hashCount;
+
+        Summary(long segmentCount, long hashCount) {
+            this.segmentCount = segmentCount;
+            this.hashCount = hashCount;
+        }
+
+        /**
+         * @return  number of distinct segments in the sidecar
+         */
+        public long segmentCount() {
+            return segmentCount;
+        }
+
+        /**
+         * @return  number of segments hashed by the update. The fingerprints
+         *          of all other segments were taken from the sidecar.
+         */
+        public long hashCount() {
+            return hashCount;
+        }
+
+        @Override
+        public String toString() {
+            return "Summary{segmentCount=" + segmentCount + ", hashCount=" + hashCount + '}';
+        }
+    }
+
+    /**
+     * Result of comparing the fingerprints of two stores.
+     */
+    public static final class Comparison {
+        private final long sameContent;
+        private final long differentContent;
+        private final long onlyLeft;
+        private final long onlyRight;
+        private final double contentSimilarity;
+        private final double sharedContents;
+
+        Comparison(
+                long sameContent, long differentContent, long onlyLeft, long onlyRight,
+                @Nonnull Sketch left, @Nonnull Sketch right, int k) {
+            this.sameContent = sameContent;
+            this.differentContent = differentContent;
+            this.onlyLeft = onlyLeft;
+            this.onlyRight = onlyRight;
+
+            Sketch union = new Sketch(k);
+            left.values.forEach(union::add);
+            right.values.forEach(union::add);
+            long both = union.values.stream()
+                    .filter(value -> left.values.contains(value) && right.values.contains(value))
+                    .count();
+            this.contentSimilarity = union.values.isEmpty()
+                    ? 1
+                    : (double) both / union.values.size();
+
+            // The distinct count of the union is exact as long as it fits into the sketch
+            double unionCount = union.values.size() < k
+                    ? union.values.size()
+                    : (k - 1) / (UnsignedLong.fromLongBits(union.values.last()).doubleValue() / 0x1p64);
+            this.sharedContents = contentSimilarity * unionCount;
+        }
+
+        /**
+         * @return  number of segments contained in both stores with the same content
+         */
+        public long sameContent() {
+            return sameContent;
+        }
+
+        /**
+         * @return  number of segments contained in both stores with different content
+         */
+        public long differentContent() {
+            return differentContent;
+        }
+
+        /**
+         * @return  number of segments only contained in the first store
+         */
+        public long onlyLeft() {
+            return onlyLeft;
+        }
+
+        /**
+         * @return  number of segments only contained in the second store
+         */
+        public long onlyRight() {
+            return onlyRight;
+        }
+
+        /**
+         * @return  estimated Jaccard similarity of the sets of distinct segment
+         *          contents of both stores, regardless of segment ids.
+         */
+        public double contentSimilarity() {
+            return contentSimilarity;
+        }
+
+        /**
+         * @return  estimated number of distinct segment contents present in
+         *          both stores, regardless of segment ids.
+         */
+        public double sharedContents() {
+            return sharedContents;
+        }
+
+        @Override
+        public String toString() {
+            return "Comparison{sameContent=" + sameContent +
+                    ", differentContent=" + differentContent +
+                    ", onlyLeft=" + onlyLeft +
+                    ", onlyRight=" + onlyRight +
+                    ", contentSimilarity=" + contentSimilarity +
+                    ", sharedContents=" + sharedContents + '}';
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jackrabbit.oak.tooling.filestore.tools;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.concurrent.CompletableFuture.supplyAsync;
+
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+import javax.annotation.Nonnull;
+
+import org.apache.jackrabbit.oak.tooling.filestore.api.Segment;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Tar;
+import org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.LoadedSegment;
+
+/**
+ * An iterator over segments that loads the segments ahead of the
+ * consumer in the background. While the consumer processes the
+ * current segment up to {@code depth} further segments are being
+ * loaded. The total length of the segments loaded ahead of the
+ * consumer is bounded by {@code memoryBudget}. A single segment
+ * exceeding that budget is still loaded, but only once no other
+ * segments are pending.
+ * <p>
+ * The iteration order is the same as the one of the underlying
+ * segments.
+ */
+public class SegmentPrefetcher implements Iterator<Segment> {
+
+    @Nonnull
+    private final OrderedWindow<Segment, Segment> window;
+
+    /**
+     * Prefetch the segments of a tar file.
+     * @param tar           the tar file to scan
+     * @param executor      the executor to load segments on
+     * @param depth         maximal number of segments to load ahead of the consumer
+     * @param memoryBudget  maximal number of bytes to load ahead of the consumer
+     * @return  the loaded segments of {@code tar} in reverse chronological order.
+     */
+    @Nonnull
+    public static Iterable<Segment> prefetch(
+            @Nonnull Tar tar,
+            @Nonnull Executor executor,
+            int depth,
+            long memoryBudget) {
+        return prefetch(tar.segments(), executor, depth, memoryBudget);
+    }
+
+    /**
+     * Prefetch segments.
+     * @param segments      the segments to load
+     * @param executor      the executor to load segments on
+     * @param depth         maximal number of segments to load ahead of the consumer
+     * @param memoryBudget  maximal number of bytes to load ahead of the consumer
+     * @return  the loaded segments in the order of {@code segments}
+     */
+    @Nonnull
+    public static Iterable<Segment> prefetch(
+            @Nonnull Iterable<Segment> segments,
+            @Nonnull Executor executor,
+            int depth,
+            long memoryBudget) {
+        checkArgument(depth > 0, "depth must be positive");
+        checkArgument(memoryBudget > 0, "memoryBudget must be positive");
+        return () -> new SegmentPrefetcher(
+                segments.iterator(),
+                segment -> supplyAsync(() -> LoadedSegment.load(segment), executor),
+                depth,
+                memoryBudget);
+    }
+
+    SegmentPrefetcher(
+            @Nonnull Iterator<Segment> segments,
+            @Nonnull Function<Segment, CompletableFuture<Segment>> loader,
+            int depth,
+            long memoryBudget) {
+        this.window = new OrderedWindow<>(segments, loader, depth, Segment::length, memoryBudget);
+    }
+
+    /**
+     * @return  the number of bytes currently loaded or being loaded
+     *          ahead of the consumer
+     */
+    public long pendingBytes() {
+        return window.pendingWeight();
+    }
+
+    @Override
+    public boolean hasNext() {
+        return window.hasNext();
+    }
+
+    @Override
+    public Segment next() {
+        return window.next();
+    }
+}
@@ -0,0 +1,450 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jackrabbit.oak.tooling.filestore.tools;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.collect.Lists.newArrayList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static java.util.stream.Collectors.joining;
+import static java.util.stream.Collectors.toList;
+import static org.apache.jackrabbit.oak.tooling.filestore.api.Segment.Type.DATA;
+import static org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.Streams.asStream;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.function.IntPredicate;
+import java.util.function.LongPredicate;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+import javax.annotation.Nonnull;
+
+import org.apache.jackrabbit.oak.tooling.filestore.api.Record;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Segment;
+import org.apache.jackrabbit.oak.tooling.filestore.api.SegmentStore;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Tar;
+
+/**
+ * A declarative query over the tars, segments and records of a {@link SegmentStore}.
+ * <pre>
+ *     long nodeCount = SegmentQuery.query(store)
+ *         .withTarName(name -&gt; name.endsWith("tar"))
+ *         .withGeneration(generation -&gt; generation &gt;= 3)
+ *         .withRecordType(Record.Type.NODE)
+ *         .records()
+ *         .count();
+ * </pre>
+ * A query is planned before execution. Each predicate is pushed down to
+ * the cheapest level it can be evaluated on: tar predicates prune whole tars
+ * before any of their segments are enumerated. Segment predicates are ordered
+ * by cost: the segment type is checked before any segment meta data is read
+ * and both are checked before arbitrary segment predicates. Queries that need
+ * segment meta data or records implicitly only match data segments.
+ * <p>
+ * Each level only applies the predicates of its own level and of the levels
+ * above it: {@link #tars()} ignores segment and record predicates and
+ * {@link #segments()} ignores record predicates.
+ * <p>
+ * Queries with an {@link #withExecutor(Executor, int) executor} that need to
+ * decode records are executed in parallel unless explicitly requested
+ * otherwise. Parallel execution evaluates the segment and record predicates
+ * of up to {@code parallelism} segments concurrently on the executor, while
+ * tars and segments are enumerated by the consumer. Results are returned
+ * in the same order as with sequential execution.
+ * <p>
+ * Instances of this class are immutable.
+ */
+public class SegmentQuery {
+
+    /**
+     * Execution mode of a query
+     */
+    public enum Execution {
+
+        /**
+         * Execute in parallel if the query reads records and an executor is set
+         * and sequentially otherwise
+         */
+        AUTO,
+
+        /** Execute sequentially */
+        SEQUENTIAL,
+
+        /** Execute in parallel. Requires an executor. */
+        PARALLEL
+    }
+
+    private static class Step<T> {
+        @Nonnull final String description;
+        @Nonnull final Predicate<T> predicate;
+
+        Step(@Nonnull String description, @Nonnull Predicate<T> predicate) {
+            this.description = description;
+            this.predicate = predicate;
+        }
+    }
+
+    @Nonnull
+    private final SegmentStore store;
+
+    @Nonnull
+    private final List<Step<Tar>> tarSteps;
+
+    private final Segment.Type segmentType;
+
+    @Nonnull
+    private final List<Step<Segment>> metaDataSteps;
+
+    @Nonnull
+    private final List<Step<Segment>> segmentSteps;
+
+    private final Record.Type recordType;
+
+    @Nonnull
+    private final List<Step<Record>> recordSteps;
+
+    @Nonnull
+    private final Execution execution;
+
+    @Nonnull
+    private final Optional<Executor> executor;
+
+    private final int parallelism;
+
+    /**
+     * Create a new query matching all tars, segments and records of a segment store.
+     * @param store  the segment store to query
+     * @return  a new query
+     */
+    @Nonnull
+    public static SegmentQuery query(@Nonnull SegmentStore store) {
+        return new SegmentQuery(store, new ArrayList<>(), null, new ArrayList<>(),
+                new ArrayList<>(), null, new ArrayList<>(), Execution.AUTO, Optional.empty(), 1);
+    }
+
+    private SegmentQuery(
+            @Nonnull SegmentStore store,
+            @Nonnull List<Step<Tar>> tarSteps,
+            Segment.Type segmentType,
+            @Nonnull List<Step<Segment>> metaDataSteps,
+            @Nonnull List<Step<Segment>> segmentSteps,
+            Record.Type recordType,
+            @Nonnull List<Step<Record>> recordSteps,
+            @Nonnull Execution execution,
+            @Nonnull Optional<Executor> executor,
+            int parallelism) {
+        this.store = store;
+        this.tarSteps = tarSteps;
+        this.segmentType = segmentType;
+        this.metaDataSteps = metaDataSteps;
+        this.segmentSteps = segmentSteps;
+        this.recordType = recordType;
+        this.recordSteps = recordSteps;
+        this.execution = execution;
+        this.executor = executor;
+        this.parallelism = parallelism;
+    }
+
+    @Nonnull
+    private static <T> List<Step<T>> add(@Nonnull List<Step<T>> steps, @Nonnull String description, @Nonnull Predicate<T> predicate) {
+        List<Step<T>> newSteps = newArrayList(steps);
+        newSteps.add(new Step<>(description, predicate));
+        return newSteps;
+    }
+
+    /**
+     * @param predicate  predicate on the tar name
+     * @return  a new query only matching tars whose name matches {@code predicate}
+     */
+    @Nonnull
+    public SegmentQuery withTarName(@Nonnull Predicate<String> predicate) {
+        return new SegmentQuery(store, add(tarSteps, "tar name", tar -> predicate.test(tar.name())),
+                segmentType, metaDataSteps, segmentSteps, recordType, recordSteps, execution, executor, parallelism);
+    }
+
+    /**
+     * @param predicate  predicate on the tar size
+     * @return  a new query only matching tars whose size matches {@code predicate}
+     */
+    @Nonnull
+    public SegmentQuery withTarSize(@Nonnull LongPredicate predicate) {
+        return new SegmentQuery(store, add(tarSteps, "tar size", tar -> predicate.test(tar.size())),
+                segmentType, metaDataSteps, segmentSteps, recordType, recordSteps, execution, executor, parallelism);
+    }
+
+    /**
+     * @param type  segment type
+     * @return  a new query only matching segments of the given {@code type}
+     */
+    @Nonnull
+    public SegmentQuery withSegmentType(@Nonnull Segment.Type type) {
+        return new SegmentQuery(store, tarSteps, type, metaDataSteps, segmentSteps,
+                recordType, recordSteps, execution, executor, parallelism);
+    }
+
+    /**
+     * @param predicate  predicate on the garbage collection generation
+     * @return  a new query only matching data segments whose generation matches {@code predicate}
+     */
+    @Nonnull
+    public SegmentQuery withGeneration(@Nonnull IntPredicate predicate) {
+        return new SegmentQuery(store, tarSteps, segmentType,
+                add(metaDataSteps, "generation", segment -> predicate.test(segment.metaData().generation())),
+                segmentSteps, recordType, recordSteps, execution, executor, parallelism);
+    }
+
+    /**
+     * @param predicate  predicate on the full garbage collection generation
+     * @return  a new query only matching data segments whose full generation matches {@code predicate}
+     */
+    @Nonnull
+    public SegmentQuery withFullGeneration(@Nonnull IntPredicate predicate) {
+        return new SegmentQuery(store, tarSteps, segmentType,
+                add(metaDataSteps, "full generation", segment -> predicate.test(segment.metaData().fullGeneration())),
+                segmentSteps, recordType, recordSteps, execution, executor, parallelism);
+    }
+
+    /**
+     * @param compacted  whether to match compacted or non compacted segments
+     * @return  a new query only matching data segments created by compaction
+     *          if {@code compacted} is {@code true} or not created by
+     *          compaction otherwise.
+     */
+    @Nonnull
+    public SegmentQuery withCompacted(boolean compacted) {
+        return new SegmentQuery(store, tarSteps, segmentType,
+                add(metaDataSteps, "compacted", segment -> segment.metaData().compacted() == compacted),
+                segmentSteps, recordType, recordSteps, execution, executor, parallelism);
+    }
+
+    /**
+     * @param predicate  arbitrary predicate on segments
+     * @return  a new query only matching segments matching {@code predicate}
+     */
+    @Nonnull
+    public SegmentQuery withSegment(@Nonnull Predicate<Segment> predicate) {
+        return new SegmentQuery(store, tarSteps, segmentType, metaDataSteps,
+                add(segmentSteps, "segment", predicate), recordType, recordSteps, execution, executor, parallelism);
+    }
+
+    /**
+     * @param type  record type
+     * @return  a new query only matching records of the given {@code type}
+     */
+    @Nonnull
+    public SegmentQuery withRecordType(@Nonnull Record.Type type) {
+        return new SegmentQuery(store, tarSteps, segmentType, metaDataSteps, segmentSteps,
+                type, recordSteps, execution, executor, parallelism);
+    }
+
+    /**
+     * @param predicate  arbitrary predicate on records
+     * @return  a new query only matching records matching {@code predicate}
+     */
+    @Nonnull
+    public SegmentQuery withRecord(@Nonnull Predicate<Record> predicate) {
+        return new SegmentQuery(store, tarSteps, segmentType, metaDataSteps, segmentSteps,
+                recordType, add(recordSteps, "record", predicate), execution, executor, parallelism);
+    }
+
+    /**
+     * @param execution  the execution mode
+     * @return  a new query executed according to {@code execution}
+     */
+    @Nonnull
+    public SegmentQuery withExecution(@Nonnull Execution execution) {
+        return new SegmentQuery(store, tarSteps, segmentType, metaDataSteps, segmentSteps,
+                recordType, recordSteps, execution, executor, parallelism);
+    }
+
+    /**
+     * @param executor     the executor to evaluate segments on when executing in parallel
+     * @param parallelism  maximal number of segments evaluated concurrently
+     * @return  a new query executed in parallel on {@code executor} unless
+     *          requested otherwise by {@link #withExecution(Execution)}
+     */
+    @Nonnull
+    public SegmentQuery withExecutor(@Nonnull Executor executor, int parallelism) {
+        checkArgument(parallelism > 0, "parallelism must be positive");
+        return new SegmentQuery(store, tarSteps, segmentType, metaDataSteps, segmentSteps,
+                recordType, recordSteps, execution, Optional.of(executor), parallelism);
+    }
+
+    /**
+     * The effective segment type: queries that need segment meta data or
+     * records can only match data segments.
+     */
+    private Segment.Type effectiveSegmentType(boolean readsRecords) {
+        if (segmentType == null && (readsRecords || !metaDataSteps.isEmpty())) {
+            return DATA;
+        } else {
+            return segmentType;
+        }
+    }
+
+    private boolean isParallel(boolean readsRecords) {
+        return execution == Execution.PARALLEL
+            || (execution == Execution.AUTO && readsRecords && executor.isPresent());
+    }
+
+    /**
+     * Only the tar predicates of this query are applied.
+     * @return  the tars matching this query
+     */
+    @Nonnull
+    public Stream<Tar> tars() {
+        Stream<Tar> tars = asStream(store.tars());
+        for (Step<Tar> step : tarSteps) {
+            tars = tars.filter(step.predicate);
+        }
+        return tars;
+    }
+
+    /**
+     * Only the tar and segment predicates of this query are applied.
+     * @return  the segments matching this query
+     * @throws IllegalStateException  if parallel execution is requested but
+     *                                no executor has been set
+     */
+    @Nonnull
+    public Stream<Segment> segments() {
+        Optional<Predicate<Segment>> filter = segmentFilter(false);
+        if (!filter.isPresent()) {
+            return Stream.empty();
+        }
+        Predicate<Segment> matches = filter.get();
+        Stream<Segment> segments = tars().flatMap(tar -> asStream(tar.segments()));
+        return isParallel(false)
+            ? parallel(segments, segment -> matches.test(segment)
+                ? singletonList(segment)
+                : emptyList())
+            : segments.filter(matches);
+    }
+
+    /**
+     * @return  the segment predicates of this query combined in the order of
+     *          their cost or empty if no segment can match.
+     */
+    @Nonnull
+    private Optional<Predicate<Segment>> segmentFilter(boolean readsRecords) {
+        Segment.Type type = effectiveSegmentType(readsRecords);
+        Predicate<Segment> filter = segment -> true;
+        if (type != null) {
+            filter = Segment.isOfType(type);
+        }
+        if (type == null || type == DATA) {
+            for (Step<Segment> step : metaDataSteps) {
+                filter = filter.and(step.predicate);
+            }
+        } else if (!metaDataSteps.isEmpty()) {
+            // Bulk segments have no meta data
+            return Optional.empty();
+        }
+        for (Step<Segment> step : segmentSteps) {
+            filter = filter.and(step.predicate);
+        }
+        return Optional.of(filter);
+    }
+
+    /**
+     * @return  the records matching this query
+     * @throws IllegalStateException  if parallel execution is requested but
+     *                                no executor has been set
+     */
+    @Nonnull
+    public Stream<Record> records() {
+        Optional<Predicate<Segment>> filter = segmentFilter(true);
+        if (!filter.isPresent() || effectiveSegmentType(true) != DATA) {
+            // Bulk segments have no records
+            return Stream.empty();
+        }
+        Predicate<Segment> matches = filter.get();
+        Stream<Segment> segments = tars().flatMap(tar -> asStream(tar.segments()));
+        return isParallel(true)
+            ? parallel(segments, segment -> matches.test(segment)
+                ? matchingRecords(segment).collect(toList())
+                : emptyList())
+            : segments.filter(matches).flatMap(this::matchingRecords);
+    }
+
+    @Nonnull
+    private Stream<Record> matchingRecords(@Nonnull Segment segment) {
+        Stream<Record> records = asStream(segment.records());
+        if (recordType != null) {
+            records = records.filter(Record.isOfType(recordType));
+        }
+        for (Step<Record> step : recordSteps) {
+            records = records.filter(step.predicate);
+        }
+        return records;
+    }
+
+    /**
+     * Evaluate {@code f} for each segment on the executor with at most
+     * {@code parallelism} segments in flight. The results are returned
+     * in the order of {@code segments}.
+     */
+    @Nonnull
+    private <T> Stream<T> parallel(@Nonnull Stream<Segment> segments, @Nonnull Function<Segment, List<T>> f) {
+        checkState(executor.isPresent(), "Parallel execution requires an executor");
+        BoundedExecutor bounded = new BoundedExecutor(executor.get(), parallelism);
+        Iterator<Segment> iterator = segments.iterator();
+        return asStream(() -> new OrderedWindow<>(
+                    iterator,
+                    segment -> bounded.submit(() -> f.apply(segment)),
+                    parallelism,
+                    segment -> 0,
+                    Long.MAX_VALUE))
+                .flatMap(List::stream);
+    }
+
+    /**
+     * @return  a human readable description of the plan for executing
+     *          {@link #records()}
+     */
+    @Nonnull
+    public String explain() {
+        List<String> plan = new ArrayList<>();
+        plan.add("scan tars");
+        tarSteps.forEach(step -> plan.add("filter on " + step.description));
+        plan.add(isParallel(true)
+            ? "parallel scan of segments (" + parallelism + " in flight)"
+            : "sequential scan of segments");
+        plan.add("filter on segment type " + effectiveSegmentType(true));
+        metaDataSteps.forEach(step -> plan.add("filter on " + step.description));
+        segmentSteps.forEach(step -> plan.add("filter on " + step.description));
+        plan.add("scan records");
+        if (recordType != null) {
+            plan.add("filter on record type " + recordType);
+        }
+        recordSteps.forEach(step -> plan.add("filter on " + step.description));
+        return plan.stream().collect(joining(" -> "));
+    }
+
+    @Override
+    public String toString() {
+        return explain();
+    }
+}
@@ -0,0 +1,333 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jackrabbit.oak.tooling.filestore.tools;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Collections.unmodifiableList;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.function.ToDoubleFunction;
+
+import javax.annotation.Nonnull;
+
+import org.apache.jackrabbit.oak.tooling.filestore.api.Segment;
+import org.apache.jackrabbit.oak.tooling.filestore.api.SegmentStore;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Tar;
+import org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.LoadedSegment;
+
+/**
+ * Approximate whole store statistics from a uniform random sample of segments.
+ * <p>
+ * The segments are drawn without replacement across all tar files. Each tar
+ * file is weighted by its number of segments, which is taken from the tar
+ * index without reading any segment data. Only the sampled segments are read.
+ * <p>
+ * Estimates come with confidence intervals based on the normal approximation
+ * including the finite population correction. Per segment statistics like the
+ * average number of records per segment are estimated through
+ * {@link Sample#mean(ToDoubleFunction)} and {@link Sample#total(ToDoubleFunction)}.
+ * Per record statistics like the share of a record type or the average record
+ * size are estimated through {@link Sample#ratio(ToDoubleFunction, ToDoubleFunction)},
+ * treating the sampled segments as clusters of records.
+ */
+public class SegmentSampler {
+
+    @Nonnull
+    private final SegmentStore store;
+
+    @Nonnull
+    private final Random random;
+
+    private final double z;
+
+    /**
+     * Create a new sampler with random seed and a confidence level of 95%.
+     * @param store  the segment store to sample
+     * @return  a new {@code SegmentSampler} instance
+     */
+    @Nonnull
+    public static SegmentSampler newSegmentSampler(@Nonnull SegmentStore store) {
+        return new SegmentSampler(store, new Random(), zScore(0.95));
+    }
+
+    private SegmentSampler(@Nonnull SegmentStore store, @Nonnull Random random, double z) {
+        this.store = store;
+        this.random = random;
+        this.z = z;
+    }
+
+    /**
+     * @param seed  the seed for drawing samples
+     * @return  a new sampler drawing reproducible samples
+     */
+    @Nonnull
+    public SegmentSampler withSeed(long seed) {
+        return new SegmentSampler(store, new Random(seed), z);
+    }
+
+    /**
+     * @param level  the confidence level of the intervals of the estimates,
+     *               e.g. {@code 0.99}.
+     * @return  a new sampler with the given confidence level
+     */
+    @Nonnull
+    public SegmentSampler withConfidence(double level) {
+        checkArgument(level > 0 && level < 1, "level must be between 0 and 1");
+        return new SegmentSampler(store, random, zScore(level));
+    }
+
+    /**
+     * Draw a uniform random sample of segments without replacement.
+     * @param size  the number of segments to sample. All segments are
+     *              sampled if the store contains fewer segments.
+     * @return  the sample
+     */
+    @Nonnull
+    public Sample sample(int size) {
+        checkArgument(size > 0, "size must be positive");
+        List<Tar> tars = new ArrayList<>();
+        List<Long> counts = new ArrayList<>();
+        long population = 0;
+        for (Tar tar : store.tars()) {
+            long count = 0;
+            for (Iterator<Segment> it = tar.segments().iterator(); it.hasNext(); it.next()) {
+                count++;
+            }
+            tars.add(tar);
+            counts.add(count);
+            population += count;
+        }
+
+        // Floyd's algorithm for drawing distinct indexes into all segments
+        TreeSet<Long> indexes = new TreeSet<>();
+        long n = Math.min(size, population);
+        for (long j = population - n; j < population; j++) {
+            long index = (long) (random.nextDouble() * (j + 1));
+            if (!indexes.add(index)) {
+                indexes.add(j);
+            }
+        }
+
+        List<Segment> segments = new ArrayList<>();
+        long base = 0;
+        for (int k = 0; k < tars.size(); k++) {
+            long count = counts.get(k);
+            Iterator<Long> sampled = indexes.subSet(base, base + count).iterator();
+            if (sampled.hasNext()) {
+                long next = sampled.next();
+                long index = base;
+                for (Segment segment : tars.get(k).segments()) {
+                    if (index++ == next) {
+                        segments.add(LoadedSegment.load(segment));
+                        if (!sampled.hasNext()) {
+                            break;
+                        }
+                        next = sampled.next();
+                    }
+                }
+            }
+            base += count;
+        }
+        return new Sample(segments, population, z);
+    }
+
+    /**
+     * Approximation of the quantile function of the standard normal distribution
+     * (Abramowitz and Stegun 26.2.23), with an absolute error below 4.5e-4.
+     */
+    private static double zScore(double level) {
+        double p = (1 - level) / 2;
+        double t = Math.sqrt(-2 * Math.log(p));
+        return t - (2.515517 + 0.802853 * t + 0.010328 * t * t)
+                / (1 + 1.432788 * t + 0.189269 * t * t + 0.001308 * t * t * t);
+    }
+
+    /**
+     * A uniform random sample of the segments of a store.
+     */
+    public static final class Sample {
+        @Nonnull private final List<Segment> segments;
+        private final long population;
+        private final double z;
+
+        Sample(@Nonnull List<Segment> segments, long population, double z) {
+            this.segments = unmodifiableList(segments);
+            this.population = population;
+            this.z = z;
+        }
+
+        /**
+         * @return  the sampled segments. Their data is loaded into memory.
+         */
+        @Nonnull
+        public List<Segment> segments() {
+            return segments;
+        }
+
+        /**
+         * @return  the total number of segments in the store
+         */
+        public long population() {
+            return population;
+        }
+
+        private double finitePopulationCorrection() {
+            return population == 0 ? 0 : 1 - (double) segments.size() / population;
+        }
+
+        /**
+         * Estimate the mean of a per segment value over all segments.
+         * @param f  the value of a segment, e.g. its record count
+         * @return  the estimated mean
+         */
+        @Nonnull
+        public Estimate mean(@Nonnull ToDoubleFunction<Segment> f) {
+            int n = segments.size();
+            double sum = 0;
+            for (Segment segment : segments) {
+                sum += f.applyAsDouble(segment);
+            }
+            double mean = n == 0 ? 0 : sum / n;
+
+            double squares = 0;
+            for (Segment segment : segments) {
+                double d = f.applyAsDouble(segment) - mean;
+                squares += d * d;
+            }
+            double variance = n < 2 ? 0 : squares / (n - 1) / n * finitePopulationCorrection();
+            return new Estimate(mean, Math.sqrt(variance), z, n);
+        }
+
+        /**
+         * Estimate the sum of a per segment value over all segments.
+         * @param f  the value of a segment, e.g. its length
+         * @return  the estimated total
+         */
+        @Nonnull
+        public Estimate total(@Nonnull ToDoubleFunction<Segment> f) {
+            Estimate mean = mean(f);
+            return new Estimate(population * mean.value(), population * mean.standardError(), z, mean.sampleSize());
+        }
+
+        /**
+         * Estimate the ratio of the totals of two per segment values over all
+         * segments. This estimates per record statistics, e.g. the share of
+         * node records when {@code numerator} counts the node records and
+         * {@code denominator} counts all records of a segment.
+         * @param numerator    the value of a segment to sum in the numerator
+         * @param denominator  the value of a segment to sum in the denominator
+         * @return  the estimated ratio
+         */
+        @Nonnull
+        public Estimate ratio(@Nonnull ToDoubleFunction<Segment> numerator, @Nonnull ToDoubleFunction<Segment> denominator) {
+            int n = segments.size();
+            double[] ys = new double[n];
+            double[] xs = new double[n];
+            double sumY = 0;
+            double sumX = 0;
+            for (int k = 0; k < n; k++) {
+                ys[k] = numerator.applyAsDouble(segments.get(k));
+                xs[k] = denominator.applyAsDouble(segments.get(k));
+                sumY += ys[k];
+                sumX += xs[k];
+            }
+            if (sumX == 0) {
+                return new Estimate(Double.NaN, Double.NaN, z, n);
+            }
+            double ratio = sumY / sumX;
+
+            double squares = 0;
+            for (int k = 0; k < n; k++) {
+                double d = ys[k] - ratio * xs[k];
+                squares += d * d;
+            }
+            double meanX = sumX / n;
+            double variance = n < 2
+                    ? 0
+                    : squares / (n - 1) / (n * meanX * meanX) * finitePopulationCorrection();
+            return new Estimate(ratio, Math.sqrt(variance), z, n);
+        }
+
+        @Override
+        public String toString() {
+            return "Sample{size=" + segments.size() + ", population=" + population + '}';
+        }
+    }
+
+    /**
+     * An estimate together with its confidence interval.
+     */
+    public static final class Estimate {
+        private final double value;
+        private final double standardError;
+        private final double z;
+        private final int sampleSize;
+
+        Estimate(double value, double standardError, double z, int sampleSize) {
+            this.value = value;
+            this.standardError = standardError;
+            this.z = z;
+            this.sampleSize = sampleSize;
+        }
+
+        /**
+         * @return  the estimated value
+         */
+        public double value() {
+            return value;
+        }
+
+        /**
+         * @return  the estimated standard error of {@link #value()}
+         */
+        public double standardError() {
+            return standardError;
+        }
+
+        /**
+         * @return  the lower bound of the confidence interval
+         */
+        public double lower() {
+            return value - z * standardError;
+        }
+
+        /**
+         * @return  the upper bound of the confidence interval
+         */
+        public double upper() {
+            return value + z * standardError;
+        }
+
+        /**
+         * @return  the number of segments the estimate is based on
+         */
+        public int sampleSize() {
+            return sampleSize;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%.4g [%.4g, %.4g] (n=%d)", value, lower(), upper(), sampleSize);
+        }
+    }
+}
@@ -0,0 +1,503 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jackrabbit.oak.tooling.filestore.tools;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.unmodifiableList;
+import static java.util.concurrent.CompletableFuture.runAsync;
+import static org.apache.jackrabbit.oak.tooling.filestore.api.Segment.Type.DATA;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import javax.annotation.Nonnull;
+
+import org.apache.jackrabbit.oak.tooling.filestore.api.JournalEntry;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Record;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Segment;
+import org.apache.jackrabbit.oak.tooling.filestore.api.SegmentStore;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Tar;
+
+/**
+ * Verify the integrity of all segments of a {@link SegmentStore} in a
+ * single parallel pass. The verifier
+ * <ul>
+ *     <li>reads the data of every segment and checks its length and, for
+ *     data segments, the segment header,</li>
+ *     <li>checks that all references of every data segment resolve to an
+ *     existing segment,</li>
+ *     <li>optionally checks that the addresses of all records lie within
+ *     their segment.</li>
+ * </ul>
+ * References are resolved against an in memory set of all segment ids, which
+ * is collected before the actual pass. Journal entries whose root is in a
+ * missing segment or in a segment that transitively references an invalid
+ * segment are reported as affected revisions. Only if the pass finds invalid
+ * segments or dangling references, the verifier reads the references of all
+ * data segments a second time to build the reverse reference graph needed for
+ * determining the affected revisions. Verifying an intact store does not keep
+ * any per segment state beyond the set of segment ids.
+ */
+public class SegmentStoreVerifier {
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    private static final int PROGRESS_INTERVAL = 1000;
+
+    @Nonnull
+    private final SegmentStore store;
+
+    @Nonnull
+    private final Executor executor;
+
+    private final int parallelism;
+
+    private final boolean checkRecords;
+
+    @Nonnull
+    private final Consumer<Progress> progressListener;
+
+    /**
+     * Create a new verifier.
+     * @param store        the segment store to verify
+     * @param executor     the executor to verify segments on
+     * @param parallelism  maximal number of segments to verify concurrently
+     * @return  a new {@code SegmentStoreVerifier} instance
+     */
+    @Nonnull
+    public static SegmentStoreVerifier newSegmentStoreVerifier(
+            @Nonnull SegmentStore store,
+            @Nonnull Executor executor,
+            int parallelism) {
+        checkArgument(parallelism > 0, "parallelism must be positive");
+        return new SegmentStoreVerifier(store, executor, parallelism, false, progress -> {});
+    }
+
+    private SegmentStoreVerifier(
+            @Nonnull SegmentStore store,
+            @Nonnull Executor executor,
+            int parallelism,
+            boolean checkRecords,
+            @Nonnull Consumer<Progress> progressListener) {
+        this.store = store;
+        this.executor = executor;
+        this.parallelism = parallelism;
+        this.checkRecords = checkRecords;
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * @param checkRecords  whether to check the addresses of records
+     * @return  a new verifier with record checks enabled or disabled
+     */
+    @Nonnull
+    public SegmentStoreVerifier withRecordCheck(boolean checkRecords) {
+        return new SegmentStoreVerifier(store, executor, parallelism, checkRecords, progressListener);
+    }
+
+    /**
+     * @param progressListener  listener receiving progress updates
+     *                          every {@value #PROGRESS_INTERVAL} segments and
+     *                          once when the verification completes. The listener
+     *                          is called from the executor's threads and for the
+     *                          final update from the thread calling {@link #verify()}.
+     * @return  a new verifier reporting progress to {@code progressListener}
+     */
+    @Nonnull
+    public SegmentStoreVerifier withProgressListener(@Nonnull Consumer<Progress> progressListener) {
+        return new SegmentStoreVerifier(store, executor, parallelism, checkRecords, progressListener);
+    }
+
+    /**
+     * Verify the segment store.
+     * @return  the verification report
+     * @throws InterruptedException  if interrupted while waiting for
+     *                               the verification to complete.
+     */
+    @Nonnull
+    public Report verify() throws InterruptedException {
+        Set<UUID> ids = new HashSet<>();
+        long total = 0;
+        for (Tar tar : store.tars()) {
+            for (Segment segment : tar.segments()) {
+                ids.add(segment.id());
+                total++;
+            }
+        }
+
+        Pass pass = new Pass(ids, total);
+        Semaphore permits = new Semaphore(parallelism);
+        try {
+            for (Tar tar : store.tars()) {
+                for (Segment segment : tar.segments()) {
+                    permits.acquire();
+                    try {
+                        runAsync(() -> pass.verify(segment), executor)
+                            .whenComplete((ignore, e) -> {
+                                try {
+                                    if (e != null) {
+                                        pass.invalid(segment.id(), e.toString());
+                                    }
+                                    pass.progress();
+                                } finally {
+                                    permits.release();
+                                }
+                            });
+                    } catch (RuntimeException e) {
+                        permits.release();
+                        throw e;
+                    }
+                }
+            }
+        } finally {
+            // Wait for all submitted verifications, also when submitting failed
+            permits.acquireUninterruptibly(parallelism);
+            permits.release(parallelism);
+        }
+        pass.completed();
+
+        return new Report(pass, affectedRevisions(pass, ids));
+    }
+
+    @Nonnull
+    private List<JournalEntry> affectedRevisions(@Nonnull Pass pass, @Nonnull Set<UUID> ids) {
+        Set<UUID> tainted = new HashSet<>(pass.invalid.keySet());
+        Queue<UUID> queue = new ArrayDeque<>(tainted);
+        for (DanglingReference reference : pass.danglingReferences) {
+            if (tainted.add(reference.segmentId)) {
+                queue.add(reference.segmentId);
+            }
+        }
+        if (!queue.isEmpty()) {
+            Map<UUID, List<UUID>> referrers = referrers();
+            while (!queue.isEmpty()) {
+                for (UUID referrer : referrers.getOrDefault(queue.remove(), emptyList())) {
+                    if (tainted.add(referrer)) {
+                        queue.add(referrer);
+                    }
+                }
+            }
+        }
+
+        List<JournalEntry> affected = new ArrayList<>();
+        for (JournalEntry entry : store.journalEntries()) {
+            UUID id = entry.segmentId();
+            if (!ids.contains(id) || tainted.contains(id)) {
+                affected.add(entry);
+            }
+        }
+        return affected;
+    }
+
+    /**
+     * @return  the reverse reference graph of the data segments: the ids of
+     *          the segments referencing a segment by the id of that segment
+     */
+    @Nonnull
+    private Map<UUID, List<UUID>> referrers() {
+        Map<UUID, List<UUID>> referrers = new HashMap<>();
+        for (Tar tar : store.tars()) {
+            for (Segment segment : tar.segments()) {
+                if (segment.type() == DATA) {
+                    for (Segment reference : segment.references()) {
+                        referrers.computeIfAbsent(reference.id(), k -> new ArrayList<>()).add(segment.id());
+                    }
+                }
+            }
+        }
+        return referrers;
+    }
+
+    private class Pass {
+        @Nonnull
+        final Set<UUID> ids;
+
+        final long total;
+
+        final long startTime = System.nanoTime();
+
+        @Nonnull
+        final AtomicLong segmentCount = new AtomicLong();
+
+        @Nonnull
+        final AtomicLong byteCount = new AtomicLong();
+
+        @Nonnull
+        final Queue<DanglingReference> danglingReferences = new ConcurrentLinkedQueue<>();
+
+        @Nonnull
+        final ConcurrentMap<UUID, String> invalid = new ConcurrentHashMap<>();
+
+        Pass(@Nonnull Set<UUID> ids, long total) {
+            this.ids = ids;
+            this.total = total;
+        }
+
+        void verify(@Nonnull Segment segment) {
+            UUID id = segment.id();
+            long length = segment.length();
+            long read = read(segment);
+            byteCount.addAndGet(read);
+            if (read != length) {
+                invalid(id, "Expected " + length + " bytes but read " + read);
+            }
+
+            if (segment.type() != DATA) {
+                return;
+            }
+
+            for (Segment reference : segment.references()) {
+                UUID referenceId = reference.id();
+                if (!ids.contains(referenceId)) {
+                    danglingReferences.add(new DanglingReference(id, referenceId));
+                }
+            }
+
+            if (checkRecords) {
+                for (Record record : segment.records()) {
+                    int address = record.address();
+                    if (address < 0 || address >= length) {
+                        invalid(id, "Record " + record.number() + " at address " + address +
+                                " not within segment of " + length + " bytes");
+                    }
+                }
+            }
+        }
+
+        private long read(@Nonnull Segment segment) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long count = 0;
+            try (InputStream stream = segment.data().getNewStream()) {
+                int n = stream.read(buffer);
+                if (segment.type() == DATA && n >= 0 && !isSegmentHeader(buffer, n)) {
+                    invalid(segment.id(), "Invalid segment header");
+                }
+                while (n >= 0) {
+                    count += n;
+                    n = stream.read(buffer);
+                }
+            } catch (IOException e) {
+                invalid(segment.id(), e.toString());
+            }
+            return count;
+        }
+
+        private boolean isSegmentHeader(@Nonnull byte[] data, int length) {
+            return length >= 3 && data[0] == '0' && data[1] == 'a' && data[2] == 'K';
+        }
+
+        void invalid(@Nonnull UUID id, @Nonnull String reason) {
+            invalid.merge(id, reason, (r1, r2) -> r1 + "; " + r2);
+        }
+
+        void progress() {
+            long count = segmentCount.incrementAndGet();
+            if (count % PROGRESS_INTERVAL == 0 && count < total) {
+                progressListener.accept(new Progress(
+                        count, total, byteCount.get(), System.nanoTime() - startTime));
+            }
+        }
+
+        void completed() {
+            progressListener.accept(new Progress(
+                    segmentCount.get(), total, byteCount.get(), System.nanoTime() - startTime));
+        }
+    }
+
+    /**
+     * A reference from a segment to a segment not present in the store.
+     */
+    public static class DanglingReference {
+        @Nonnull
+        private final UUID segmentId;
+
+        @Nonnull
+        private final UUID referenceId;
+
+        DanglingReference(@Nonnull UUID segmentId, @Nonnull UUID referenceId) {
+            this.segmentId = segmentId;
+            this.referenceId = referenceId;
+        }
+
+        /**
+         * @return  id of the referencing segment
+         */
+        @Nonnull
+        public UUID segmentId() {
+            return segmentId;
+        }
+
+        /**
+         * @return  id of the missing referenced segment
+         */
+        @Nonnull
+        public UUID referenceId() {
+            return referenceId;
+        }
+
+        @Override
+        public String toString() {
+            return segmentId + " -> " + referenceId;
+        }
+    }
+
+    /**
+     * Progress of a verification.
+     */
+    public static class Progress {
+        private final long segmentCount;
+        private final long totalSegmentCount;
+        private final long byteCount;
+        private final long elapsedNanos;
+
+        Progress(long segmentCount, long totalSegmentCount, long byteCount, long elapsedNanos) {
+            this.segmentCount = segmentCount;
+            this.totalSegmentCount = totalSegmentCount;
+            this.byteCount = byteCount;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /**
+         * @return  number of segments verified so far
+         */
+        public long segmentCount() {
+            return segmentCount;
+        }
+
+        /**
+         * @return  total number of segments to verify
+         */
+        public long totalSegmentCount() {
+            return totalSegmentCount;
+        }
+
+        /**
+         * @return  number of bytes read so far
+         */
+        public long byteCount() {
+            return byteCount;
+        }
+
+        /**
+         * @return  throughput in bytes per second
+         */
+        public double bytesPerSecond() {
+            return elapsedNanos == 0 ? 0 : byteCount * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d/%d segments, %d bytes, %.1f MB/s",
+                    segmentCount, totalSegmentCount, byteCount, bytesPerSecond() / (1024 * 1024));
+        }
+    }
+
+    /**
+     * Result of a verification.
+     */
+    public static class Report {
+        private final long segmentCount;
+        private final long byteCount;
+        private final List<DanglingReference> danglingReferences;
+        private final List<String> invalidSegments;
+        private final List<JournalEntry> affectedRevisions;
+
+        Report(@Nonnull Pass pass, @Nonnull List<JournalEntry> affectedRevisions) {
+            this.segmentCount = pass.segmentCount.get();
+            this.byteCount = pass.byteCount.get();
+            this.danglingReferences = unmodifiableList(new ArrayList<>(pass.danglingReferences));
+            List<String> invalid = new ArrayList<>();
+            pass.invalid.forEach((id, reason) -> invalid.add(id + ": " + reason));
+            this.invalidSegments = unmodifiableList(invalid);
+            this.affectedRevisions = unmodifiableList(affectedRevisions);
+        }
+
+        /**
+         * @return  number of verified segments
+         */
+        public long segmentCount() {
+            return segmentCount;
+        }
+
+        /**
+         * @return  number of bytes read
+         */
+        public long byteCount() {
+            return byteCount;
+        }
+
+        /**
+         * @return  references to segments not present in the store
+         */
+        @Nonnull
+        public List<DanglingReference> danglingReferences() {
+            return danglingReferences;
+        }
+
+        /**
+         * @return  descriptions of the segments failing verification
+         */
+        @Nonnull
+        public List<String> invalidSegments() {
+            return invalidSegments;
+        }
+
+        /**
+         * @return  journal entries whose revision might be affected by missing
+         *          or invalid segments in reverse chronological order.
+         */
+        @Nonnull
+        public List<JournalEntry> affectedRevisions() {
+            return affectedRevisions;
+        }
+
+        /**
+         * @return  {@code true} iff no problems were found
+         */
+        public boolean isValid() {
+            return danglingReferences.isEmpty() && invalidSegments.isEmpty() && affectedRevisions.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            return "Report{segmentCount=" + segmentCount +
+                    ", byteCount=" + byteCount +
+                    ", danglingReferences=" + danglingReferences.size() +
+                    ", invalidSegments=" + invalidSegments.size() +
+                    ", affectedRevisions=" + affectedRevisions.size() + '}';
+        }
+    }
+}
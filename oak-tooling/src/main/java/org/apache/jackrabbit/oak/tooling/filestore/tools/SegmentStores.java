@@ -0,0 +1,457 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jackrabbit.oak.tooling.filestore.tools;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.lang.Math.min;
+import static java.util.Comparator.comparingInt;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.NodeStateBackedSegmentStore.DEFAULT_RECORD_CACHE_SIZE;
+import static org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.NodeStateBackedSegmentStore.newSegmentStore;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.ServiceLoader;
+import java.util.concurrent.ExecutorService;
+
+import javax.annotation.Nonnull;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Segment;
+import org.apache.jackrabbit.oak.tooling.filestore.api.SegmentStore;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Tar;
+import org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.RawSegment;
+
+/**
+ * Entry point for opening a segment store from a directory.
+ * <p>
+ * A store is opened through the available {@link Binding} with the highest
+ * {@link Binding#priority() priority}. Bindings are not benchmarked: their
+ * priority is declared by their implementation and is expected to reflect how
+ * fast they are relative to each other. Bindings are discovered through the
+ * {@link ServiceLoader} and complemented by the built in {@code proc} binding,
+ * which opens a read only file store of {@code oak-segment-tar} and exposes
+ * it through {@code Proc} and a {@code NodeStateBackedSegmentStore}. As
+ * {@code oak-segment-tar} is not a dependency of this module, the built in
+ * binding accesses it by reflection and is only available if it is on the
+ * class path. The built in binding has priority {@code 0}, such that it is
+ * used unless a binding with a higher priority is registered or another
+ * binding is {@link Options#withBinding(String) selected} explicitly.
+ * <p>
+ * {@link Options} tune the segment cache and memory mapping of the underlying
+ * file store, the record cache of the binding and the prefetching of segments
+ * when iterating over the segments of a tar file.
+ */
+public final class SegmentStores {
+
+    /**
+     * Name of the built in binding
+     */
+    public static final String PROC_BINDING = "proc";
+
+    private SegmentStores() {
+    }
+
+    /**
+     * Open a store with the {@link Options#DEFAULT default options}.
+     * @param directory  the directory containing the store
+     * @return  the store. The caller is responsible for closing it.
+     * @throws IOException  if opening the store fails
+     * @throws IllegalStateException  if no binding is available
+     */
+    @Nonnull
+    public static CloseableSegmentStore open(@Nonnull File directory) throws IOException {
+        return open(directory, Options.DEFAULT);
+    }
+
+    /**
+     * Open a store.
+     * @param directory  the directory containing the store
+     * @param options    the options for opening the store
+     * @return  the store. The caller is responsible for closing it.
+     * @throws IOException  if opening the store fails
+     * @throws IllegalStateException  if no matching binding is available
+     */
+    @Nonnull
+    public static CloseableSegmentStore open(@Nonnull File directory, @Nonnull Options options) throws IOException {
+        Binding binding = bindings().stream()
+                .filter(b -> options.binding.map(b.name()::equals).orElse(true))
+                .findFirst()
+                .orElseThrow(() -> new IllegalStateException(
+                        "No segment store binding available" + options.binding.map(b -> " named " + b).orElse("")));
+
+        CloseableSegmentStore store = binding.open(directory, options);
+        return options.prefetchDepth > 0
+            ? new PrefetchingSegmentStore(store, options)
+            : store;
+    }
+
+    /**
+     * @return  the available bindings in descending order of their priority
+     */
+    @Nonnull
+    public static List<Binding> bindings() {
+        List<Binding> bindings = new ArrayList<>();
+        ServiceLoader.load(Binding.class, SegmentStores.class.getClassLoader()).forEach(bindings::add);
+        bindings.add(new ProcBinding());
+        bindings.removeIf(binding -> !binding.isAvailable());
+        bindings.sort(comparingInt(Binding::priority).reversed());
+        return bindings;
+    }
+
+    /**
+     * A segment store holding resources, which are released on {@link #close()}.
+     */
+    public interface CloseableSegmentStore extends SegmentStore, Closeable {
+    }
+
+    /**
+     * A way of opening a segment store. Additional bindings can be made
+     * available by registering them with the {@link ServiceLoader}.
+     */
+    public interface Binding {
+
+        /**
+         * @return  the name of this binding
+         */
+        @Nonnull
+        String name();
+
+        /**
+         * @return  the priority of this binding. Bindings with a higher priority
+         *          are preferred to bindings with a lower one. Bindings giving
+         *          faster access to a store should declare a higher priority.
+         */
+        int priority();
+
+        /**
+         * @return  {@code true} iff this binding can open stores in the current environment
+         */
+        boolean isAvailable();
+
+        /**
+         * Open a store. Implementations are not expected to implement
+         * {@link Options#prefetchDepth() prefetching}.
+         * @param directory  the directory containing the store
+         * @param options    the options for opening the store
+         * @return  the store
+         * @throws IOException  if opening the store fails
+         */
+        @Nonnull
+        CloseableSegmentStore open(@Nonnull File directory, @Nonnull Options options) throws IOException;
+    }
+
+    /**
+     * Options for opening a segment store. Instances are immutable.
+     */
+    public static final class Options {
+
+        /**
+         * The default options: a segment cache of 256 MB, memory mapping on 64 bit
+         * JVMs, the default record cache size and no prefetching. Once prefetching
+         * is enabled, it uses up to one thread per processor.
+         */
+        public static final Options DEFAULT = new Options(
+                256,
+                "64".equals(System.getProperty("sun.arch.data.model")),
+                DEFAULT_RECORD_CACHE_SIZE,
+                Runtime.getRuntime().availableProcessors(),
+                0,
+                Optional.empty());
+
+        private final int segmentCacheSize;
+        private final boolean memoryMapping;
+        private final int recordCacheSize;
+        private final int parallelism;
+        private final int prefetchDepth;
+        @Nonnull private final Optional<String> binding;
+
+        private Options(
+                int segmentCacheSize,
+                boolean memoryMapping,
+                int recordCacheSize,
+                int parallelism,
+                int prefetchDepth,
+                @Nonnull Optional<String> binding) {
+            this.segmentCacheSize = segmentCacheSize;
+            this.memoryMapping = memoryMapping;
+            this.recordCacheSize = recordCacheSize;
+            this.parallelism = parallelism;
+            this.prefetchDepth = prefetchDepth;
+            this.binding = binding;
+        }
+
+        /**
+         * @param segmentCacheSize  size of the segment cache of the file store in MB
+         * @return  new options with the given segment cache size
+         */
+        @Nonnull
+        public Options withSegmentCacheSize(int segmentCacheSize) {
+            checkArgument(segmentCacheSize >= 0, "segmentCacheSize must not be negative");
+            return new Options(segmentCacheSize, memoryMapping, recordCacheSize, parallelism, prefetchDepth, binding);
+        }
+
+        /**
+         * @param memoryMapping  whether tar files are memory mapped
+         * @return  new options with the given memory mapping
+         */
+        @Nonnull
+        public Options withMemoryMapping(boolean memoryMapping) {
+            return new Options(segmentCacheSize, memoryMapping, recordCacheSize, parallelism, prefetchDepth, binding);
+        }
+
+        /**
+         * @param recordCacheSize  maximal number of records cached by the binding. {@code 0}
+         *                         disables the cache.
+         * @return  new options with the given record cache size
+         */
+        @Nonnull
+        public Options withRecordCacheSize(int recordCacheSize) {
+            checkArgument(recordCacheSize >= 0, "recordCacheSize must not be negative");
+            return new Options(segmentCacheSize, memoryMapping, recordCacheSize, parallelism, prefetchDepth, binding);
+        }
+
+        /**
+         * @param parallelism  maximal number of threads loading segments ahead of the
+         *                     consumer. Only takes effect if {@link #withPrefetchDepth(int)
+         *                     prefetching} is enabled.
+         * @return  new options with the given parallelism
+         */
+        @Nonnull
+        public Options withParallelism(int parallelism) {
+            checkArgument(parallelism > 0, "parallelism must be positive");
+            return new Options(segmentCacheSize, memoryMapping, recordCacheSize, parallelism, prefetchDepth, binding);
+        }
+
+        /**
+         * @param prefetchDepth  maximal number of segments loaded ahead of the consumer
+         *                       of {@link Tar#segments()}. {@code 0} disables prefetching.
+         * @return  new options with the given prefetch depth
+         * @see SegmentPrefetcher
+         */
+        @Nonnull
+        public Options withPrefetchDepth(int prefetchDepth) {
+            checkArgument(prefetchDepth >= 0, "prefetchDepth must not be negative");
+            return new Options(segmentCacheSize, memoryMapping, recordCacheSize, parallelism, prefetchDepth, binding);
+        }
+
+        /**
+         * @param binding  name of the binding to use instead of the one with the highest priority
+         * @return  new options with the given binding
+         */
+        @Nonnull
+        public Options withBinding(@Nonnull String binding) {
+            return new Options(segmentCacheSize, memoryMapping, recordCacheSize, parallelism, prefetchDepth, Optional.of(binding));
+        }
+
+        public int segmentCacheSize() {
+            return segmentCacheSize;
+        }
+
+        public boolean memoryMapping() {
+            return memoryMapping;
+        }
+
+        public int recordCacheSize() {
+            return recordCacheSize;
+        }
+
+        public int parallelism() {
+            return parallelism;
+        }
+
+        public int prefetchDepth() {
+            return prefetchDepth;
+        }
+
+        @Nonnull
+        public Optional<String> binding() {
+            return binding;
+        }
+
+        @Override
+        public String toString() {
+            return "Options{segmentCacheSize=" + segmentCacheSize + ", memoryMapping=" + memoryMapping +
+                    ", recordCacheSize=" + recordCacheSize + ", parallelism=" + parallelism +
+                    ", prefetchDepth=" + prefetchDepth + ", binding=" + binding + '}';
+        }
+    }
+
+    /**
+     * The built in binding opening a {@code ReadOnlyFileStore} through its
+     * {@code FileStoreBuilder} and exposing it through {@code Proc}.
+     */
+    private static class ProcBinding implements Binding {
+        private static final String FILE_STORE_BUILDER = "org.apache.jackrabbit.oak.segment.file.FileStoreBuilder";
+        private static final String PROC = "org.apache.jackrabbit.oak.segment.file.proc.Proc";
+
+        @Nonnull
+        @Override
+        public String name() {
+            return PROC_BINDING;
+        }
+
+        @Override
+        public int priority() {
+            return 0;
+        }
+
+        @Override
+        public boolean isAvailable() {
+            try {
+                loadClass(PROC);
+                return Arrays.stream(loadClass(FILE_STORE_BUILDER).getMethods())
+                        .anyMatch(method -> method.getName().equals("buildProcBackend"));
+            } catch (ClassNotFoundException | LinkageError e) {
+                return false;
+            }
+        }
+
+        @Nonnull
+        @Override
+        public CloseableSegmentStore open(@Nonnull File directory, @Nonnull Options options) throws IOException {
+            try {
+                Class<?> builderClass = loadClass(FILE_STORE_BUILDER);
+                Object builder = invoke(builderClass.getMethod("fileStoreBuilder", File.class), null, directory);
+                invoke(builderClass.getMethod("withSegmentCacheSize", int.class), builder, options.segmentCacheSize);
+                invoke(builderClass.getMethod("withMemoryMapping", boolean.class), builder, options.memoryMapping);
+
+                Object fileStore = invoke(builderClass.getMethod("buildReadOnly"), builder);
+                Method close = fileStore.getClass().getMethod("close");
+                try {
+                    Object backend = invoke(method(builderClass, "buildProcBackend", fileStore), builder, fileStore);
+                    NodeState proc = (NodeState) invoke(method(loadClass(PROC), "of", backend), null, backend);
+                    SegmentStore store = newSegmentStore(proc, options.recordCacheSize);
+                    return new DelegatingSegmentStore(store, () -> invoke(close, fileStore));
+                } catch (IOException | RuntimeException e) {
+                    invoke(close, fileStore);
+                    throw e;
+                }
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Binding " + PROC_BINDING + " not available", e);
+            }
+        }
+
+        @Nonnull
+        private static Class<?> loadClass(@Nonnull String name) throws ClassNotFoundException {
+            return Class.forName(name, true, SegmentStores.class.getClassLoader());
+        }
+
+        /**
+         * @return  the public method named {@code name} taking {@code argument} as its single argument
+         */
+        @Nonnull
+        private static Method method(@Nonnull Class<?> type, @Nonnull String name, @Nonnull Object argument)
+        throws NoSuchMethodException {
+            for (Method method : type.getMethods()) {
+                if (method.getName().equals(name) && method.getParameterCount() == 1
+                        && method.getParameterTypes()[0].isInstance(argument)) {
+                    return method;
+                }
+            }
+            throw new NoSuchMethodException(type.getName() + '.' + name);
+        }
+
+        private static Object invoke(@Nonnull Method method, Object target, Object... arguments) throws IOException {
+            checkArgument(target != null || Modifier.isStatic(method.getModifiers()), "%s is not static", method);
+            try {
+                return method.invoke(target, arguments);
+            } catch (InvocationTargetException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                } else {
+                    throw new IOException(cause);
+                }
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * A {@code CloseableSegmentStore} delegating to a {@code SegmentStore}.
+     */
+    private static class DelegatingSegmentStore extends ForwardingSegmentStore implements CloseableSegmentStore {
+        @Nonnull private final Closeable closer;
+
+        DelegatingSegmentStore(@Nonnull SegmentStore store, @Nonnull Closeable closer) {
+            super(store);
+            this.closer = closer;
+        }
+
+        @Override
+        public void close() throws IOException {
+            closer.close();
+        }
+    }
+
+    /**
+     * A {@code CloseableSegmentStore} {@link SegmentPrefetcher prefetching}
+     * the segments of its tar files on a pool of daemon threads. The pool has
+     * {@link Options#parallelism()} threads but not more than the
+     * {@link Options#prefetchDepth() prefetch depth}, as no more segments
+     * than that are loaded concurrently.
+     */
+    private static class PrefetchingSegmentStore extends DelegatingSegmentStore {
+        @Nonnull private final ExecutorService executor;
+        private final int depth;
+
+        PrefetchingSegmentStore(@Nonnull CloseableSegmentStore store, @Nonnull Options options) {
+            super(store, store);
+            this.executor = newFixedThreadPool(min(options.parallelism, options.prefetchDepth), new ThreadFactoryBuilder()
+                    .setDaemon(true)
+                    .setNameFormat("segment-prefetch-%d")
+                    .build());
+            this.depth = options.prefetchDepth;
+        }
+
+        @Nonnull
+        @Override
+        protected Tar tar(@Nonnull Tar tar) {
+            return new ForwardingTar(tar) {
+                @Nonnull
+                @Override
+                public Iterable<Segment> segments() {
+                    return SegmentPrefetcher.prefetch(
+                            tar.segments(), executor, depth, (long) depth * RawSegment.MAX_SEGMENT_SIZE);
+                }
+            };
+        }
+
+        @Override
+        public void close() throws IOException {
+            executor.shutdownNow();
+            super.close();
+        }
+    }
+}
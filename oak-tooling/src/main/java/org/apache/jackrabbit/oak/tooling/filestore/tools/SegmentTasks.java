@@ -0,0 +1,171 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jackrabbit.oak.tooling.filestore.tools;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.concurrent.Executors.newCachedThreadPool;
+import static org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.Streams.asStream;
+
+import java.io.Closeable;
+import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import javax.annotation.Nonnull;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Segment;
+import org.apache.jackrabbit.oak.tooling.filestore.api.SegmentStore;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Tar;
+
+/**
+ * Run a function per segment for I/O bound analyses, e.g. ones reading
+ * {@link Segment#data()} from remote persistence.
+ * <p>
+ * Each invocation of the function runs as a separate task. The number of
+ * tasks in flight is limited to {@code maxInFlight} across all streams of
+ * an instance. Tasks exceeding that limit are queued. Segments are only
+ * submitted while the consumer of a stream keeps up, such that at most
+ * {@code maxInFlight} results are pending per stream. Results are returned
+ * in the order of the segments.
+ * <p>
+ * By default tasks run on virtual threads when the JVM supports them. As
+ * the code base targets Java 8, virtual threads are looked up reflectively
+ * and a pool of platform threads is used otherwise. As tasks are only handed
+ * to that pool once one of the {@code maxInFlight} slots is free, it does not
+ * grow beyond {@code maxInFlight} busy threads.
+ */
+public class SegmentTasks implements Closeable {
+
+    @Nonnull
+    private final BoundedExecutor executor;
+
+    private final Optional<ExecutorService> owned;
+
+    private final int maxInFlight;
+
+    /**
+     * Create a new instance running tasks on virtual threads if available.
+     * Closing the instance shuts down its threads.
+     * @param maxInFlight  maximal number of tasks in flight
+     * @return  a new {@code SegmentTasks} instance
+     */
+    @Nonnull
+    public static SegmentTasks newSegmentTasks(int maxInFlight) {
+        checkArgument(maxInFlight > 0, "maxInFlight must be positive");
+        ExecutorService executor = newTaskExecutor();
+        return new SegmentTasks(executor, Optional.of(executor), maxInFlight);
+    }
+
+    /**
+     * Create a new instance running tasks on the given executor. Closing the
+     * instance does not shut down {@code executor}.
+     * @param executor     the executor to run tasks on
+     * @param maxInFlight  maximal number of tasks in flight
+     * @return  a new {@code SegmentTasks} instance
+     */
+    @Nonnull
+    public static SegmentTasks newSegmentTasks(@Nonnull Executor executor, int maxInFlight) {
+        checkArgument(maxInFlight > 0, "maxInFlight must be positive");
+        return new SegmentTasks(executor, Optional.empty(), maxInFlight);
+    }
+
+    private SegmentTasks(@Nonnull Executor executor, @Nonnull Optional<ExecutorService> owned, int maxInFlight) {
+        this.executor = new BoundedExecutor(executor, maxInFlight);
+        this.owned = owned;
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * @return  an executor starting a new virtual thread per task if the JVM
+     *          supports virtual threads and an executor backed by a pool of
+     *          daemon threads otherwise.
+     */
+    @Nonnull
+    public static ExecutorService newTaskExecutor() {
+        return newVirtualThreadExecutor().orElseGet(() -> newCachedThreadPool(
+                new ThreadFactoryBuilder()
+                        .setDaemon(true)
+                        .setNameFormat("segment-task-%d")
+                        .build()));
+    }
+
+    /**
+     * @return  an executor starting a new virtual thread per task or empty if
+     *          the JVM does not support virtual threads.
+     */
+    @Nonnull
+    public static Optional<ExecutorService> newVirtualThreadExecutor() {
+        try {
+            return Optional.of((ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor")
+                    .invoke(null));
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * @return  the number of tasks that could currently start without being queued
+     */
+    public int availableSlots() {
+        return maxInFlight - executor.inFlight();
+    }
+
+    /**
+     * Apply a function to all segments of a store.
+     * @param store  the segment store
+     * @param f      the function to apply. Must not return {@code null}.
+     * @return  the results in the order of {@link SegmentStore#tars()} and
+     *          {@link Tar#segments()}.
+     */
+    @Nonnull
+    public <T> Stream<T> map(@Nonnull SegmentStore store, @Nonnull Function<Segment, T> f) {
+        return map(() -> asStream(store.tars())
+                .flatMap(tar -> asStream(tar.segments()))
+                .iterator(), f);
+    }
+
+    /**
+     * Apply a function to segments.
+     * @param segments  the segments
+     * @param f         the function to apply. Must not return {@code null}.
+     * @return  the results in the order of {@code segments}
+     */
+    @Nonnull
+    public <T> Stream<T> map(@Nonnull Iterable<Segment> segments, @Nonnull Function<Segment, T> f) {
+        return asStream(() -> new OrderedWindow<>(
+                segments.iterator(),
+                segment -> executor.submit(() -> f.apply(segment)),
+                maxInFlight,
+                segment -> 0,
+                Long.MAX_VALUE));
+    }
+
+    /**
+     * Shut down the executor if it has been created by this instance.
+     */
+    @Override
+    public void close() {
+        owned.ifPresent(ExecutorService::shutdown);
+    }
+}
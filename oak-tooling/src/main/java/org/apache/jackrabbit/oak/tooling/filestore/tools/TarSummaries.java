@@ -0,0 +1,212 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jackrabbit.oak.tooling.filestore.tools;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+import org.apache.jackrabbit.oak.tooling.filestore.api.Record;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Segment;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Tar;
+import org.apache.jackrabbit.oak.tooling.filestore.api.TarSummary;
+
+/**
+ * Utilities for computing {@link TarSummary tar summaries}.
+ */
+public final class TarSummaries {
+
+    private TarSummaries() {
+    }
+
+    /**
+     * @param tar  a tar file
+     * @return  the {@link Tar#summary() precomputed summary} of {@code tar} if
+     *          available, otherwise the summary {@link #compute(Iterable) computed}
+     *          from its segments
+     */
+    @Nonnull
+    public static TarSummary summary(@Nonnull Tar tar) {
+        return tar.summary().orElseGet(() -> compute(tar.segments()));
+    }
+
+    /**
+     * Compute the summary of segments by iterating over them and their records.
+     * @param segments  the segments, e.g. the segments of a tar file
+     * @return  the summary of {@code segments}
+     */
+    @Nonnull
+    public static TarSummary compute(@Nonnull Iterable<Segment> segments) {
+        long[] segmentCounts = new long[Segment.Type.values().length];
+        long[] segmentBytes = new long[Segment.Type.values().length];
+        long[] recordCounts = new long[Record.Type.values().length];
+        int minGeneration = Integer.MAX_VALUE;
+        int maxGeneration = -1;
+
+        for (Segment segment : segments) {
+            Segment.Type type = segment.type();
+            segmentCounts[type.ordinal()]++;
+            segmentBytes[type.ordinal()] += segment.length();
+            for (Record record : segment.records()) {
+                recordCounts[record.type().ordinal()]++;
+            }
+            if (type == Segment.Type.DATA) {
+                int generation = segment.metaData().generation();
+                minGeneration = Math.min(minGeneration, generation);
+                maxGeneration = Math.max(maxGeneration, generation);
+            }
+        }
+
+        return new Summary(
+                segmentCounts,
+                segmentBytes,
+                recordCounts,
+                maxGeneration < 0 ? -1 : minGeneration,
+                maxGeneration);
+    }
+
+    /**
+     * Create a summary from its statistics. Types missing from the maps are
+     * counted as {@code 0}.
+     */
+    @Nonnull
+    static TarSummary newTarSummary(
+            @Nonnull Map<Segment.Type, Long> segmentCounts,
+            @Nonnull Map<Segment.Type, Long> segmentBytes,
+            @Nonnull Map<Record.Type, Long> recordCounts,
+            int minGeneration,
+            int maxGeneration) {
+        return new Summary(
+                toArray(segmentCounts, Segment.Type.values()),
+                toArray(segmentBytes, Segment.Type.values()),
+                toArray(recordCounts, Record.Type.values()),
+                minGeneration,
+                maxGeneration);
+    }
+
+    @Nonnull
+    private static <T extends Enum<T>> long[] toArray(@Nonnull Map<T, Long> values, @Nonnull T[] types) {
+        long[] array = new long[types.length];
+        for (T type : types) {
+            array[type.ordinal()] = values.getOrDefault(type, 0L);
+        }
+        return array;
+    }
+
+    @Nonnull
+    private static <T extends Enum<T>> Map<T, Long> toMap(@Nonnull long[] array, @Nonnull T[] types) {
+        Map<T, Long> values = new LinkedHashMap<>();
+        for (T type : types) {
+            values.put(type, array[type.ordinal()]);
+        }
+        return values;
+    }
+
+    private static final class Summary implements TarSummary {
+
+        /**
+         * Statistics indexed by the ordinals of their types. Never persisted.
+         */
+        @Nonnull private final long[] segmentCounts;
+        @Nonnull private final long[] segmentBytes;
+        @Nonnull private final long[] recordCounts;
+        private final int minGeneration;
+        private final int maxGeneration;
+
+        Summary(
+                @Nonnull long[] segmentCounts,
+                @Nonnull long[] segmentBytes,
+                @Nonnull long[] recordCounts,
+                int minGeneration,
+                int maxGeneration) {
+            this.segmentCounts = segmentCounts;
+            this.segmentBytes = segmentBytes;
+            this.recordCounts = recordCounts;
+            this.minGeneration = minGeneration;
+            this.maxGeneration = maxGeneration;
+        }
+
+        @Override
+        public long segmentCount() {
+            return Arrays.stream(segmentCounts).sum();
+        }
+
+        @Override
+        public long segmentCount(@Nonnull Segment.Type type) {
+            return segmentCounts[type.ordinal()];
+        }
+
+        @Override
+        public long bytes(@Nonnull Segment.Type type) {
+            return segmentBytes[type.ordinal()];
+        }
+
+        @Override
+        public long recordCount() {
+            return Arrays.stream(recordCounts).sum();
+        }
+
+        @Override
+        public long recordCount(@Nonnull Record.Type type) {
+            return recordCounts[type.ordinal()];
+        }
+
+        @Override
+        public int minGeneration() {
+            return minGeneration;
+        }
+
+        @Override
+        public int maxGeneration() {
+            return maxGeneration;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (other == null || getClass() != other.getClass()) {
+                return false;
+            }
+            Summary that = (Summary) other;
+            return minGeneration == that.minGeneration
+                    && maxGeneration == that.maxGeneration
+                    && Arrays.equals(segmentCounts, that.segmentCounts)
+                    && Arrays.equals(segmentBytes, that.segmentBytes)
+                    && Arrays.equals(recordCounts, that.recordCounts);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Arrays.hashCode(segmentCounts) + Arrays.hashCode(recordCounts);
+        }
+
+        @Override
+        public String toString() {
+            return "TarSummary{segmentCounts=" + toMap(segmentCounts, Segment.Type.values()) +
+                    ", segmentBytes=" + toMap(segmentBytes, Segment.Type.values()) +
+                    ", recordCounts=" + toMap(recordCounts, Record.Type.values()) +
+                    ", minGeneration=" + minGeneration +
+                    ", maxGeneration=" + maxGeneration + '}';
+        }
+    }
+}
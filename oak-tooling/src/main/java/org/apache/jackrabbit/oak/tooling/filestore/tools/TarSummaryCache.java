@@ -0,0 +1,326 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jackrabbit.oak.tooling.filestore.tools;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static org.apache.jackrabbit.oak.tooling.filestore.tools.TarSummaries.newTarSummary;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Nonnull;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Record;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Segment;
+import org.apache.jackrabbit.oak.tooling.filestore.api.SegmentStore;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Tar;
+import org.apache.jackrabbit.oak.tooling.filestore.api.TarSummary;
+
+/**
+ * A persistent cache of {@link TarSummary tar summaries}. Tar files are
+ * immutable once written, such that a summary is cached per tar file along
+ * with the size of the tar file: a tar file still being written is summarised
+ * again once its size changed, replacing its previous summary.
+ * <p>
+ * The cache is persisted to a single file containing one JSON object per
+ * line. The first line holds the {@link #VERSION version} of the format,
+ * each further line a summary with its statistics keyed by the names of
+ * their types. Summaries are appended to the file when added. Entries
+ * superseded by a later one for the same tar file are dropped when the cache
+ * is opened, which rewrites the file if it contains such entries. Summaries
+ * of tar files removed from a store are dropped by {@link #compact(SegmentStore)}.
+ * A file of a different version is discarded. {@link #wrap(SegmentStore)}
+ * exposes the cached summaries through {@link Tar#summary()}.
+ * <p>
+ * Instances are safe for concurrent use. Each tar file is summarised at most
+ * once per size, also when its summary is requested concurrently.
+ */
+public class TarSummaryCache {
+
+    /**
+     * Version of the format of the cache file
+     */
+    public static final int VERSION = 1;
+
+    @Nonnull
+    private final File file;
+
+    @Nonnull
+    private final ConcurrentMap<String, Cached> summaries;
+
+    @Nonnull
+    private final Gson gson = new Gson();
+
+    /**
+     * Open a cache persisted to the given file.
+     * @param file  the file to persist the cache to. Created if it does not exist.
+     * @return  a new {@code TarSummaryCache} instance
+     * @throws IOException  if reading or writing the file fails
+     */
+    @Nonnull
+    public static TarSummaryCache newTarSummaryCache(@Nonnull File file) throws IOException {
+        return new TarSummaryCache(file);
+    }
+
+    private TarSummaryCache(@Nonnull File file) throws IOException {
+        this.file = file;
+        this.summaries = new ConcurrentHashMap<>();
+        if (!file.exists() || !load()) {
+            rewrite();
+        }
+    }
+
+    /**
+     * Load the summaries from the file.
+     * @return  {@code true} iff the file is of the current version and contains
+     *          no superseded or malformed entries
+     */
+    private boolean load() throws IOException {
+        int entries = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), UTF_8)) {
+            Header header = parse(reader.readLine(), Header.class);
+            if (header == null || header.version != VERSION) {
+                return false;
+            }
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                Entry entry = parse(line, Entry.class);
+                if (entry == null || entry.tar == null) {
+                    // E.g. a partially written last line
+                    continue;
+                }
+                entries++;
+                summaries.put(entry.tar, new Cached(entry.size, entry.summary()));
+            }
+        }
+        return entries == summaries.size();
+    }
+
+    private <T> T parse(String line, @Nonnull Class<T> type) {
+        if (line == null) {
+            return null;
+        }
+        try {
+            return gson.fromJson(line, type);
+        } catch (JsonParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Atomically replace the file with one containing the current summaries.
+     */
+    private synchronized void rewrite() throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temp.toPath(), UTF_8)) {
+            writer.write(gson.toJson(new Header()));
+            writer.write('\n');
+            for (Map.Entry<String, Cached> cached : summaries.entrySet()) {
+                writer.write(gson.toJson(new Entry(cached.getKey(), cached.getValue())));
+                writer.write('\n');
+            }
+        }
+        Files.move(temp.toPath(), file.toPath(), REPLACE_EXISTING, ATOMIC_MOVE);
+    }
+
+    private synchronized void append(@Nonnull String tar, @Nonnull Cached cached) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(file.toPath(), UTF_8, CREATE, APPEND)) {
+            writer.write(gson.toJson(new Entry(tar, cached)));
+            writer.write('\n');
+        }
+    }
+
+    /**
+     * @return  the number of cached summaries
+     */
+    public int size() {
+        return summaries.size();
+    }
+
+    /**
+     * @param tar  a tar file
+     * @return  the cached summary of {@code tar} if present
+     */
+    @Nonnull
+    public Optional<TarSummary> cached(@Nonnull Tar tar) {
+        long size = tar.size();
+        return Optional.ofNullable(summaries.get(tar.name()))
+                .filter(cached -> cached.size == size)
+                .map(cached -> cached.summary);
+    }
+
+    /**
+     * Look up the summary of a tar file, {@link TarSummaries#summary(Tar) computing}
+     * and persisting it if not cached.
+     * @param tar  a tar file
+     * @return  the summary of {@code tar}
+     * @throws UncheckedIOException  if persisting the summary fails
+     */
+    @Nonnull
+    public TarSummary summary(@Nonnull Tar tar) {
+        long size = tar.size();
+        return summaries.compute(tar.name(), (name, cached) -> {
+            if (cached != null && cached.size == size) {
+                return cached;
+            }
+            // Replaces the summary of a previous size of the tar file
+            Cached computed = new Cached(size, TarSummaries.summary(tar));
+            try {
+                append(name, computed);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return computed;
+        }).summary;
+    }
+
+    /**
+     * Drop the summaries of tar files not in {@code store} or whose size
+     * changed and rewrite the file to only contain the remaining summaries.
+     * @param store  the segment store whose tar files to keep the summaries of
+     * @throws IOException  if writing the file fails
+     */
+    public void compact(@Nonnull SegmentStore store) throws IOException {
+        Map<String, Long> sizes = new HashMap<>();
+        for (Tar tar : store.tars()) {
+            sizes.put(tar.name(), tar.size());
+        }
+        summaries.entrySet().removeIf(cached ->
+                !Long.valueOf(cached.getValue().size).equals(sizes.get(cached.getKey())));
+        rewrite();
+    }
+
+    /**
+     * @param store  a segment store
+     * @return  a segment store delegating to {@code store}, whose tar files
+     *          return their summary from this cache.
+     */
+    @Nonnull
+    public SegmentStore wrap(@Nonnull SegmentStore store) {
+        return new ForwardingSegmentStore(store) {
+            @Nonnull
+            @Override
+            protected Tar tar(@Nonnull Tar tar) {
+                return new ForwardingTar(tar) {
+                    @Nonnull
+                    @Override
+                    public Optional<TarSummary> summary() {
+                        return Optional.of(TarSummaryCache.this.summary(tar));
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * A cached summary along with the size of the tar file it summarises
+     */
+    private static class Cached {
+        private final long size;
+
+        @Nonnull
+        private final TarSummary summary;
+
+        Cached(long size, @Nonnull TarSummary summary) {
+            this.size = size;
+            this.summary = summary;
+        }
+    }
+
+    /**
+     * The first line of the cache file
+     */
+    private static class Header {
+        private int version = VERSION;
+    }
+
+    /**
+     * A summary as persisted to the cache file
+     */
+    private static class Entry {
+        private String tar;
+        private long size;
+        private Map<String, Long> segmentCounts;
+        private Map<String, Long> segmentBytes;
+        private Map<String, Long> recordCounts;
+        private int minGeneration;
+        private int maxGeneration;
+
+        Entry(@Nonnull String tar, @Nonnull Cached cached) {
+            TarSummary summary = cached.summary;
+            this.tar = tar;
+            this.size = cached.size;
+            this.segmentCounts = new LinkedHashMap<>();
+            this.segmentBytes = new LinkedHashMap<>();
+            for (Segment.Type type : Segment.Type.values()) {
+                segmentCounts.put(type.name(), summary.segmentCount(type));
+                segmentBytes.put(type.name(), summary.bytes(type));
+            }
+            this.recordCounts = new LinkedHashMap<>();
+            for (Record.Type type : Record.Type.values()) {
+                recordCounts.put(type.name(), summary.recordCount(type));
+            }
+            this.minGeneration = summary.minGeneration();
+            this.maxGeneration = summary.maxGeneration();
+        }
+
+        @Nonnull
+        TarSummary summary() {
+            return newTarSummary(
+                    byType(segmentCounts, Segment.Type.class),
+                    byType(segmentBytes, Segment.Type.class),
+                    byType(recordCounts, Record.Type.class),
+                    minGeneration,
+                    maxGeneration);
+        }
+
+        /**
+         * Counts keyed by names not matching any type are ignored.
+         */
+        @Nonnull
+        private static <T extends Enum<T>> Map<T, Long> byType(Map<String, Long> counts, @Nonnull Class<T> type) {
+            Map<T, Long> byType = new EnumMap<>(type);
+            if (counts != null) {
+                for (T t : type.getEnumConstants()) {
+                    Long count = counts.get(t.name());
+                    if (count != null) {
+                        byType.put(t, count);
+                    }
+                }
+            }
+            return byType;
+        }
+    }
+}
@@ -0,0 +1,516 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.apache.jackrabbit.oak.tooling.filestore.tools;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.unmodifiableList;
+import static java.util.Comparator.comparingLong;
+import static org.apache.jackrabbit.oak.tooling.filestore.api.Record.Type.VALUE;
+import static org.apache.jackrabbit.oak.tooling.filestore.api.Segment.Type.DATA;
+import static org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.RecordReader.newRecordReader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.UUID;
+
+import javax.annotation.Nonnull;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Segment;
+import org.apache.jackrabbit.oak.tooling.filestore.api.SegmentStore;
+import org.apache.jackrabbit.oak.tooling.filestore.api.Tar;
+import org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.LoadedSegment;
+import org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.RawSegment;
+import org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.RawSegment.RecordId;
+import org.apache.jackrabbit.oak.tooling.filestore.bindings.nodestate.RecordReader;
+
+/**
+ * Estimate how many bytes of {@link org.apache.jackrabbit.oak.tooling.filestore.api.Record.Type#VALUE VALUE}
+ * records are spent on duplicate values.
+ * <p>
+ * The analysis runs in two passes with bounded memory:
+ * <ol>
+ *     <li>All value records are read from the raw data segments and their
+ *     contents are hashed with a 64 bit murmur3 hash. The hash is added to a
+ *     count-min sketch and spilled to a temporary file along with the length
+ *     of the value and its location.</li>
+ *     <li>The spill file is read back and each value is attributed
+ *     {@code (1 - 1 / n) * length} duplicate bytes, where {@code n} is the
+ *     number of occurrences of its hash estimated by the sketch. Summed over all
+ *     occurrences of a value, this yields {@code (n - 1) * length}: the bytes that
+ *     would be saved by storing the value only once.</li>
+ * </ol>
+ * The count-min sketch never underestimates, so the reported duplicate bytes
+ * are an upper bound whose error decreases with the width of the sketch.
+ * Values only referencing external binaries are skipped.
+ */
+public class ValueDeduplication {
+
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+    private static final int PREVIEW_LENGTH = 64;
+
+    @Nonnull
+    private final SegmentStore store;
+
+    private final int sketchWidth;
+
+    private final int sketchDepth;
+
+    private final int topCount;
+
+    private final File temporaryDirectory;
+
+    /**
+     * Create a new analysis of the value records of a segment store.
+     * @param store  the segment store
+     * @return  a new {@code ValueDeduplication} instance
+     */
+    @Nonnull
+    public static ValueDeduplication newValueDeduplication(@Nonnull SegmentStore store) {
+        return new ValueDeduplication(store, 1 << 20, 4, 20, null);
+    }
+
+    private ValueDeduplication(
+            @Nonnull SegmentStore store,
+            int sketchWidth,
+            int sketchDepth,
+            int topCount,
+            File temporaryDirectory) {
+        this.store = store;
+        this.sketchWidth = sketchWidth;
+        this.sketchDepth = sketchDepth;
+        this.topCount = topCount;
+        this.temporaryDirectory = temporaryDirectory;
+    }
+
+    /**
+     * @param width  number of counters per row of the count-min sketch. Must be a power of two.
+     * @param depth  number of rows of the count-min sketch
+     * @return  a new analysis using a count-min sketch of the given dimensions
+     */
+    @Nonnull
+    public ValueDeduplication withSketch(int width, int depth) {
+        checkArgument(width > 0 && Integer.bitCount(width) == 1, "width must be a power of two");
+        checkArgument(depth > 0, "depth must be positive");
+        return new ValueDeduplication(store, width, depth, topCount, temporaryDirectory);
+    }
+
+    /**
+     * @param topCount  number of values and segments with the most duplicate bytes to report
+     * @return  a new analysis reporting the given number of top values and segments
+     */
+    @Nonnull
+    public ValueDeduplication withTopCount(int topCount) {
+        checkArgument(topCount >= 0, "topCount must not be negative");
+        return new ValueDeduplication(store, sketchWidth, sketchDepth, topCount, temporaryDirectory);
+    }
+
+    /**
+     * @param directory  directory for the spill file. Defaults to the system temporary directory.
+     * @return  a new analysis spilling to {@code directory}
+     */
+    @Nonnull
+    public ValueDeduplication withTemporaryDirectory(@Nonnull File directory) {
+        return new ValueDeduplication(store, sketchWidth, sketchDepth, topCount, directory);
+    }
+
+    /**
+     * Run the analysis.
+     * @return  the duplication report
+     * @throws IOException  if writing or reading the spill file fails
+     */
+    @Nonnull
+    public Report analyse() throws IOException {
+        CountMinSketch sketch = new CountMinSketch(sketchWidth, sketchDepth);
+        List<UUID> segmentIds = new ArrayList<>();
+        RecordReader storeReader = newRecordReader(store, 64);
+
+        File spill = File.createTempFile("values", ".spill", temporaryDirectory);
+        try {
+            long valueCount = 0;
+            long byteCount = 0;
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(spill), 1 << 16))) {
+                for (Tar tar : store.tars()) {
+                    for (Segment segment : tar.segments()) {
+                        if (segment.type() != DATA) {
+                            continue;
+                        }
+                        RawSegment raw = RawSegment.parse(segment.id(), LoadedSegment.bytes(segment));
+                        RecordReader reader = newRecordReader(id -> id.equals(raw.id())
+                                ? Optional.of(raw)
+                                : Optional.of(storeReader.segment(id)));
+                        int segmentIndex = segmentIds.size();
+                        segmentIds.add(raw.id());
+
+                        for (int number = 0; number < raw.recordNumberLimit(); number++) {
+                            if (!raw.hasRecord(number) || raw.recordType(number) != VALUE) {
+                                continue;
+                            }
+                            RecordId id = raw.recordId(number);
+                            if (!reader.isInlineValue(id)) {
+                                continue;
+                            }
+                            long length = reader.readLength(id);
+                            long hash = hash(reader, id, length);
+                            sketch.add(hash);
+                            out.writeLong(hash);
+                            out.writeLong(length);
+                            out.writeInt(segmentIndex);
+                            out.writeInt(number);
+                            valueCount++;
+                            byteCount += length;
+                        }
+                    }
+                }
+            }
+
+            return report(sketch, spill, segmentIds, storeReader, valueCount, byteCount);
+        } finally {
+            if (!spill.delete()) {
+                spill.deleteOnExit();
+            }
+        }
+    }
+
+    private static long hash(@Nonnull RecordReader reader, @Nonnull RecordId id, long length) {
+        List<RecordId> blocks = reader.readBlocks(id);
+        if (blocks.isEmpty()) {
+            return HASH_FUNCTION.hashBytes(reader.readValue(id)).asLong();
+        }
+
+        Hasher hasher = HASH_FUNCTION.newHasher();
+        long remaining = length;
+        for (RecordId block : blocks) {
+            int n = (int) Math.min(RecordReader.BLOCK_SIZE, remaining);
+            hasher.putBytes(reader.segment(block.segmentId()).readBytes(block.number(), 0, n));
+            remaining -= n;
+        }
+        return hasher.hash().asLong();
+    }
+
+    @Nonnull
+    private Report report(
+            @Nonnull CountMinSketch sketch,
+            @Nonnull File spill,
+            @Nonnull List<UUID> segmentIds,
+            @Nonnull RecordReader reader,
+            long valueCount,
+            long byteCount) throws IOException {
+        double distinctCount = 0;
+        double duplicateBytes = 0;
+
+        PriorityQueue<DuplicateValue> topValues = new PriorityQueue<>(
+                Math.max(1, topCount), comparingLong(DuplicateValue::duplicateBytes));
+        Set<Long> topHashes = new HashSet<>();
+        PriorityQueue<SegmentDuplicates> topSegments = new PriorityQueue<>(
+                Math.max(1, topCount), comparingLong(SegmentDuplicates::duplicateBytes));
+
+        int currentSegment = -1;
+        double segmentBytes = 0;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(spill), 1 << 16))) {
+            while (true) {
+                long hash;
+                try {
+                    hash = in.readLong();
+                } catch (EOFException e) {
+                    break;
+                }
+                long length = in.readLong();
+                int segmentIndex = in.readInt();
+                int number = in.readInt();
+
+                if (segmentIndex != currentSegment) {
+                    offer(topSegments, segmentIds, currentSegment, segmentBytes);
+                    currentSegment = segmentIndex;
+                    segmentBytes = 0;
+                }
+
+                long count = sketch.estimate(hash);
+                distinctCount += 1.0 / count;
+                double duplicate = (1.0 - 1.0 / count) * length;
+                duplicateBytes += duplicate;
+                segmentBytes += duplicate;
+
+                long valueDuplicateBytes = (count - 1) * length;
+                if (count > 1 && topCount > 0 && !topHashes.contains(hash)
+                        && (topValues.size() < topCount || valueDuplicateBytes > topValues.peek().duplicateBytes())) {
+                    RecordId id = new RecordId(segmentIds.get(segmentIndex), number);
+                    topValues.add(new DuplicateValue(hash, id, count, length, preview(reader, id, length)));
+                    topHashes.add(hash);
+                    if (topValues.size() > topCount) {
+                        topHashes.remove(topValues.remove().hash);
+                    }
+                }
+            }
+            offer(topSegments, segmentIds, currentSegment, segmentBytes);
+        }
+
+        List<DuplicateValue> values = new ArrayList<>(topValues);
+        values.sort(comparingLong(DuplicateValue::duplicateBytes).reversed());
+        List<SegmentDuplicates> segments = new ArrayList<>(topSegments);
+        segments.sort(comparingLong(SegmentDuplicates::duplicateBytes).reversed());
+        return new Report(valueCount, byteCount, Math.round(distinctCount), Math.round(duplicateBytes), values, segments);
+    }
+
+    private void offer(
+            @Nonnull PriorityQueue<SegmentDuplicates> topSegments,
+            @Nonnull List<UUID> segmentIds,
+            int segmentIndex,
+            double duplicateBytes) {
+        if (segmentIndex < 0 || topCount == 0 || duplicateBytes < 1) {
+            return;
+        }
+        topSegments.add(new SegmentDuplicates(segmentIds.get(segmentIndex), Math.round(duplicateBytes)));
+        if (topSegments.size() > topCount) {
+            topSegments.remove();
+        }
+    }
+
+    @Nonnull
+    private static String preview(@Nonnull RecordReader reader, @Nonnull RecordId id, long length) {
+        if (length > PREVIEW_LENGTH) {
+            return "<" + length + " bytes>";
+        }
+        return new String(reader.readValue(id), UTF_8);
+    }
+
+    /**
+     * A count-min sketch over 64 bit hashes with {@code int} counters.
+     */
+    private static class CountMinSketch {
+        private final int[][] counters;
+        private final int mask;
+
+        CountMinSketch(int width, int depth) {
+            this.counters = new int[depth][width];
+            this.mask = width - 1;
+        }
+
+        private int index(long hash, int row) {
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+            return (h1 + row * h2) & mask;
+        }
+
+        void add(long hash) {
+            for (int row = 0; row < counters.length; row++) {
+                int index = index(hash, row);
+                if (counters[row][index] < Integer.MAX_VALUE) {
+                    counters[row][index]++;
+                }
+            }
+        }
+
+        long estimate(long hash) {
+            long estimate = Long.MAX_VALUE;
+            for (int row = 0; row < counters.length; row++) {
+                estimate = Math.min(estimate, counters[row][index(hash, row)]);
+            }
+            return estimate;
+        }
+    }
+
+    /**
+     * A value with an estimated number of occurrences greater than one.
+     */
+    public static final class DuplicateValue {
+        private final long hash;
+        @Nonnull private final RecordId recordId;
+        private final long count;
+        private final long length;
+        @Nonnull private final String preview;
+
+        DuplicateValue(long hash, @Nonnull RecordId recordId, long count, long length, @Nonnull String preview) {
+            this.hash = hash;
+            this.recordId = recordId;
+            this.count = count;
+            this.length = length;
+            this.preview = preview;
+        }
+
+        /**
+         * @return  the id of one of the records containing the value
+         */
+        @Nonnull
+        public RecordId recordId() {
+            return recordId;
+        }
+
+        /**
+         * @return  estimated number of occurrences of the value
+         */
+        public long count() {
+            return count;
+        }
+
+        /**
+         * @return  length of the value in bytes
+         */
+        public long length() {
+            return length;
+        }
+
+        /**
+         * @return  estimated number of bytes spent on duplicates of this value
+         */
+        public long duplicateBytes() {
+            return (count - 1) * length;
+        }
+
+        /**
+         * @return  the value decoded as UTF-8 for short values, its length otherwise
+         */
+        @Nonnull
+        public String preview() {
+            return preview;
+        }
+
+        @Override
+        public String toString() {
+            return "'" + preview + "' (count=" + count + ", length=" + length + ", duplicate bytes=" + duplicateBytes() + ')';
+        }
+    }
+
+    /**
+     * The duplicate bytes of the value records of a segment.
+     */
+    public static final class SegmentDuplicates {
+        @Nonnull private final UUID segmentId;
+        private final long duplicateBytes;
+
+        SegmentDuplicates(@Nonnull UUID segmentId, long duplicateBytes) {
+            this.segmentId = segmentId;
+            this.duplicateBytes = duplicateBytes;
+        }
+
+        @Nonnull
+        public UUID segmentId() {
+            return segmentId;
+        }
+
+        /**
+         * @return  estimated number of bytes spent on duplicate values in this segment
+         */
+        public long duplicateBytes() {
+            return duplicateBytes;
+        }
+
+        @Override
+        public String toString() {
+            return segmentId + " (duplicate bytes=" + duplicateBytes + ')';
+        }
+    }
+
+    /**
+     * Result of the analysis.
+     */
+    public static final class Report {
+        private final long valueCount;
+        private final long byteCount;
+        private final long distinctValueCount;
+        private final long duplicateBytes;
+        @Nonnull private final List<DuplicateValue> topValues;
+        @Nonnull private final List<SegmentDuplicates> topSegments;
+
+        Report(
+                long valueCount,
+                long byteCount,
+                long distinctValueCount,
+                long duplicateBytes,
+                @Nonnull List<DuplicateValue> topValues,
+                @Nonnull List<SegmentDuplicates> topSegments) {
+            this.valueCount = valueCount;
+            this.byteCount = byteCount;
+            this.distinctValueCount = distinctValueCount;
+            this.duplicateBytes = duplicateBytes;
+            this.topValues = unmodifiableList(topValues);
+            this.topSegments = unmodifiableList(topSegments);
+        }
+
+        /**
+         * @return  number of analysed value records
+         */
+        public long valueCount() {
+            return valueCount;
+        }
+
+        /**
+         * @return  total length in bytes of all analysed values
+         */
+        public long byteCount() {
+            return byteCount;
+        }
+
+        /**
+         * @return  estimated number of distinct values
+         */
+        public long distinctValueCount() {
+            return distinctValueCount;
+        }
+
+        /**
+         * @return  estimated number of bytes that would be saved by storing each distinct value once
+         */
+        public long duplicateBytes() {
+            return duplicateBytes;
+        }
+
+        /**
+         * @return  the values with the most duplicate bytes in descending order
+         */
+        @Nonnull
+        public List<DuplicateValue> topValues() {
+            return topValues;
+        }
+
+        /**
+         * @return  the segments with the most duplicate bytes in descending order
+         */
+        @Nonnull
+        public List<SegmentDuplicates> topSegments() {
+            return topSegments;
+        }
+
+        @Override
+        public String toString() {
+            return "Report{valueCount=" + valueCount + ", byteCount=" + byteCount +
+                    ", distinctValueCount=" + distinctValueCount + ", duplicateBytes=" + duplicateBytes +
+                    ", topValues=" + topValues + ", topSegments=" + topSegments + '}';
+        }
+    }
+}